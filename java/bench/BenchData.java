@@ -0,0 +1,75 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class seeds a scratch database with a dataset of a given size for
+ * CafeBench. The Users and Menu tables are expected to hold the rows from
+ * users.csv and menu.csv; Orders and ItemStatus are replaced with
+ * generated rows so every run of a size starts from the same data.
+ *
+ */
+public class BenchData {
+
+   private final Cafe _esql;
+
+   public BenchData(Cafe esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * Tops Users up with generated customers until it holds at least the
+    * given number of rows. Existing users are kept.
+    *
+    * @param users the minimum number of users
+    * @throws java.sql.SQLException when the insert failed
+    */
+   public void ensureUsers(long users) throws SQLException {
+      long current = this._esql.count("SELECT 1 FROM Users");
+      if (current >= users)
+         return;
+      this._esql.executeUpdate(
+         "INSERT INTO Users (login, password, type) " +
+         "SELECT 'bench_user_' || g, 'bench', 'Customer' FROM generate_series(?, ?) g",
+         current + 1, users);
+   }//end ensureUsers
+
+   /**
+    * Replaces Orders and ItemStatus with the given number of orders,
+    * spread round robin over the users and over the last year, with two
+    * menu items each. One order in ten is unpaid.
+    *
+    * @param orders the number of orders to generate
+    * @throws java.sql.SQLException when seeding failed
+    */
+   public void seedOrders(final long orders) throws SQLException {
+      this._esql.transaction(new Cafe.Work<Void>() {
+         public Void run() throws SQLException {
+            _esql.executeUpdate("TRUNCATE ItemStatus, Orders RESTART IDENTITY");
+            long now = System.currentTimeMillis();
+            new PartitionMaintainer(_esql, 0).ensure(new Timestamp(now - 366L * 24 * 60 * 60 * 1000), new Timestamp(now));
+            _esql.executeUpdate(
+               "INSERT INTO Orders (login, paid, timeStampRecieved, total) " +
+               "SELECT u.login, g % 10 <> 0, NOW() - ((g * 7919) % 525600) * INTERVAL '1 minute', 0 " +
+               "FROM generate_series(1, ?) g " +
+               "JOIN (SELECT login, row_number() OVER (ORDER BY login) - 1 AS rn FROM Users) u " +
+               "ON u.rn = g % (SELECT COUNT(*) FROM Users)",
+               orders);
+            _esql.executeUpdate(
+               "INSERT INTO ItemStatus (orderid, itemName, lastUpdated, status, unitPrice, timeStampRecieved, addedAt) " +
+               "SELECT o.orderid, m.itemName, o.timeStampRecieved, " +
+               "(ARRAY['Hasn''t Started', 'Started', 'Finished'])[o.orderid % 3 + 1], m.price, o.timeStampRecieved, " +
+               "o.timeStampRecieved " +
+               "FROM Orders o " +
+               "JOIN (SELECT itemName, price, row_number() OVER (ORDER BY itemName) - 1 AS rn FROM Menu) m " +
+               "ON m.rn IN (o.orderid % (SELECT COUNT(*) FROM Menu), (o.orderid + 1) % (SELECT COUNT(*) FROM Menu))");
+            _esql.executeUpdate(
+               "UPDATE Orders o SET total = t.total " +
+               "FROM (SELECT orderid, SUM(unitPrice) AS total FROM ItemStatus GROUP BY orderid) t " +
+               "WHERE o.orderid = t.orderid");
+            _esql.executeQuery("SELECT rebuild_sales()");
+            return null;
+         }
+      });
+      this._esql.executeUpdate("ANALYZE");
+   }//end seedOrders
+}//end BenchData
@@ -0,0 +1,314 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class benchmarks the core operations of the Cafe data-access layer
+ * against a scratch database: log in, menu fetch, placing an order,
+ * order history, item status update and the unpaid orders listing. Each
+ * benchmark runs a number of warmup and measured iterations of a fixed
+ * length, for every requested dataset size, and reports throughput and
+ * latency percentiles. placeOrderQueued places orders through the
+ * OrderService writer; run it with --threads above 1 to see group commit.
+ *
+ * Seeding replaces every order in the database, so never point it at a
+ * database holding data you want to keep.
+ *
+ */
+public class CafeBench {
+
+   /**
+    * One benchmarked operation. Called repeatedly, possibly from several
+    * threads at once, each with its own random generator.
+    */
+   interface Operation {
+      void run(Random rnd) throws SQLException;
+   }
+
+   // options, see usage()
+   private static List<Long> _orders = Arrays.asList(87256L);
+   private static long _users = 0;
+   private static int _items = 3;
+   private static int _threads = 1;
+   private static int _warmupIterations = 3;
+   private static int _iterations = 5;
+   private static long _iterationMillis = 1000;
+   private static List<String> _only = null;
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         usage();
+         return;
+      }
+      for (int i = 3; i < args.length; i++) {
+         String option = args[i];
+         if (i + 1 >= args.length) {
+            usage();
+            return;
+         }
+         String value = args[++i];
+         if (option.equals("--orders")) {
+            _orders = new ArrayList<Long>();
+            for (String size : value.split(","))
+               _orders.add(Long.parseLong(size.trim()));
+         } else if (option.equals("--users")) {
+            _users = Long.parseLong(value);
+         } else if (option.equals("--items")) {
+            _items = Integer.parseInt(value);
+         } else if (option.equals("--threads")) {
+            _threads = Integer.parseInt(value);
+         } else if (option.equals("--warmup")) {
+            _warmupIterations = Integer.parseInt(value);
+         } else if (option.equals("--iterations")) {
+            _iterations = Integer.parseInt(value);
+         } else if (option.equals("--time")) {
+            _iterationMillis = Long.parseLong(value);
+         } else if (option.equals("--only")) {
+            _only = Arrays.asList(value.split(","));
+         } else {
+            usage();
+            return;
+         }
+      }//end for
+
+      Class.forName("org.postgresql.Driver");
+      Cafe esql = new Cafe(args[0], args[1], args[2], "", 1, Math.max(ConnectionPool.DEFAULT_MAX_SIZE, _threads));
+      try {
+         BenchData data = new BenchData(esql);
+         for (long orders : _orders) {
+            System.out.println();
+            System.out.println("# Seeding " + orders + " orders");
+            long start = System.currentTimeMillis();
+            data.ensureUsers(_users);
+            data.seedOrders(orders);
+            System.out.println("# Seeded in " + (System.currentTimeMillis() - start) + " ms");
+            System.out.println(String.format("%-16s %10s %14s %10s %10s %10s %10s",
+                                             "Benchmark", "orders", "ops/s", "error", "p50 ms", "p99 ms", "max ms"));
+            OrderService service = new OrderService(esql);
+            for (Map.Entry<String, Operation> benchmark : benchmarks(esql, service).entrySet()) {
+               if (_only != null && !_only.contains(benchmark.getKey()))
+                  continue;
+               Result result = measure(benchmark.getValue());
+               System.out.println(String.format("%-16s %10d %14.1f %10.1f %10.3f %10.3f %10.3f",
+                                                benchmark.getKey(), orders, result.mean, result.error,
+                                                result.percentile(0.50), result.percentile(0.99),
+                                                result.percentile(1.0)));
+            }
+            service.close();
+            System.out.println("# Pool: " + esql.getPool());
+            System.out.println("# Order writer: " + service);
+         }//end for
+      } finally {
+         esql.cleanup();
+      }
+   }//end main
+
+   private static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + CafeBench.class.getName() + " <dbname> <port> <user>\n" +
+         "   [--orders n[,n...]]    dataset sizes in orders (default 87256)\n" +
+         "   [--users n]            generate customers until Users holds n rows\n" +
+         "   [--items n]            items per placed order (default 3)\n" +
+         "   [--threads n]          threads running each benchmark (default 1)\n" +
+         "   [--warmup n]           warmup iterations (default 3)\n" +
+         "   [--iterations n]       measured iterations (default 5)\n" +
+         "   [--time ms]            length of one iteration (default 1000)\n" +
+         "   [--only name[,name]]   run only the named benchmarks");
+   }
+
+   /*
+    * Builds the benchmarks over a sample of the seeded rows.
+    **/
+   private static Map<String, Operation> benchmarks(final Cafe esql, final OrderService service) throws SQLException {
+      final List<UserRow> users = esql.executeQueryAndMapResult(
+         "SELECT * FROM Users ORDER BY random() LIMIT 1000", UserRow.MAPPER);
+      final List<MenuItem> menu = esql.menu().all();
+      final List<ItemStatusRow> statuses = esql.executeQueryAndMapResult(
+         "SELECT * FROM ItemStatus ORDER BY random() LIMIT 1000", ItemStatusRow.MAPPER);
+      final String[] statusValues = { "Hasn't Started", "Started", "Finished" };
+
+      Map<String, Operation> benchmarks = new LinkedHashMap<String, Operation>();
+      benchmarks.put("login", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            UserRow user = users.get(rnd.nextInt(users.size()));
+            Session.logIn(esql, user.getLogin(), user.getPassword());
+         }
+      });
+      benchmarks.put("menuQuery", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            esql.executeQueryAndMapResult("SELECT * FROM Menu", MenuItem.MAPPER);
+         }
+      });
+      benchmarks.put("menuCached", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            esql.menu().all();
+         }
+      });
+      benchmarks.put("placeOrder", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            List<MenuItem> items = new ArrayList<MenuItem>(_items);
+            int first = rnd.nextInt(menu.size());
+            for (int i = 0; i < _items && i < menu.size(); i++)
+               items.add(menu.get((first + i) % menu.size()));
+            esql.placeOrder(users.get(rnd.nextInt(users.size())).getLogin(), items);
+         }
+      });
+      benchmarks.put("placeOrderQueued", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            List<String> items = new ArrayList<String>(_items);
+            int first = rnd.nextInt(menu.size());
+            for (int i = 0; i < _items && i < menu.size(); i++)
+               items.add(menu.get((first + i) % menu.size()).getItemName());
+            try {
+               service.placeOrder(users.get(rnd.nextInt(users.size())).getLogin(), items).get();
+            } catch (Exception e) {
+               throw new SQLException("Queued order failed", e);
+            }
+         }
+      });
+      benchmarks.put("orderHistory", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            esql.executeQueryAndMapResult(
+               "SELECT * FROM Orders O WHERE O.login = ? ORDER BY O.timeStampRecieved DESC LIMIT 5",
+               OrderRow.MAPPER, users.get(rnd.nextInt(users.size())).getLogin());
+         }
+      });
+      benchmarks.put("statusUpdate", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            ItemStatusRow row = statuses.get(rnd.nextInt(statuses.size()));
+            // through Cafe, which also keeps the kitchen board and the sales rollups
+            esql.setItemStatus(row.getOrderId(), row.getTimeStampRecieved(), row.getItemName(),
+                             statusValues[rnd.nextInt(statusValues.length)]);
+         }
+      });
+      benchmarks.put("unpaidOrders", new Operation() {
+         public void run(Random rnd) throws SQLException {
+            esql.executeQueryAndMapResult(
+               "SELECT * FROM Orders WHERE timeStampRecieved >= NOW() - '1 DAY'::INTERVAL AND paid = 'f'",
+               OrderRow.MAPPER);
+         }
+      });
+      return benchmarks;
+   }//end benchmarks
+
+   /*
+    * Runs the warmup iterations, then the measured ones, and collects the
+    * throughput of each measured iteration and the latency of every call.
+    **/
+   private static Result measure(Operation operation) throws Exception {
+      Result result = new Result();
+      for (int i = 0; i < _warmupIterations; i++)
+         iteration(operation, null);
+      double[] throughput = new double[_iterations];
+      for (int i = 0; i < _iterations; i++)
+         throughput[i] = iteration(operation, result);
+      result.summarize(throughput);
+      return result;
+   }//end measure
+
+   /*
+    * Runs the operation on every thread until the iteration time is up.
+    * Returns the calls completed per second; latencies are added to the
+    * result unless it is null (warmup).
+    **/
+   private static double iteration(final Operation operation, Result result) throws Exception {
+      final long deadline = System.nanoTime() + _iterationMillis * 1000000L;
+      final LongList[] latencies = new LongList[_threads];
+      final Exception[] failure = new Exception[1];
+      Thread[] workers = new Thread[_threads];
+      long start = System.nanoTime();
+      for (int t = 0; t < _threads; t++) {
+         final LongList mine = latencies[t] = new LongList();
+         final Random rnd = new Random(t * 31L + start);
+         workers[t] = new Thread("bench-" + t) {
+            public void run() {
+               try {
+                  long now = System.nanoTime();
+                  while (now < deadline) {
+                     operation.run(rnd);
+                     long end = System.nanoTime();
+                     mine.add(end - now);
+                     now = end;
+                  }
+               } catch (Exception e) {
+                  synchronized (failure) {
+                     failure[0] = e;
+                  }
+               }
+            }
+         };
+         workers[t].start();
+      }
+      for (Thread worker : workers)
+         worker.join();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      synchronized (failure) {
+         if (failure[0] != null)
+            throw failure[0];
+      }
+
+      long calls = 0;
+      for (LongList list : latencies) {
+         calls += list.size;
+         if (result != null)
+            result.latencies.addAll(list);
+      }
+      return calls / seconds;
+   }//end iteration
+
+   /**
+    * Throughput and latency of one benchmark.
+    */
+   private static class Result {
+      final LongList latencies = new LongList();
+      double mean;
+      double error;
+
+      void summarize(double[] throughput) {
+         double sum = 0;
+         for (double t : throughput)
+            sum += t;
+         this.mean = sum / throughput.length;
+         double squares = 0;
+         for (double t : throughput)
+            squares += (t - this.mean) * (t - this.mean);
+         this.error = throughput.length > 1 ? Math.sqrt(squares / (throughput.length - 1)) : 0;
+         Arrays.sort(this.latencies.values, 0, this.latencies.size);
+      }
+
+      /*
+       * Latency in milliseconds at the given fraction of the sorted calls.
+       **/
+      double percentile(double fraction) {
+         if (this.latencies.size == 0)
+            return 0;
+         int index = (int) Math.ceil(fraction * this.latencies.size) - 1;
+         return this.latencies.values[Math.max(0, index)] / 1e6;
+      }
+   }//end Result
+
+   /**
+    * A growable array of longs, so recording a latency does not box it.
+    */
+   private static class LongList {
+      long[] values = new long[1024];
+      int size = 0;
+
+      void add(long value) {
+         if (this.size == this.values.length)
+            this.values = Arrays.copyOf(this.values, this.size * 2);
+         this.values[this.size++] = value;
+      }
+
+      void addAll(LongList other) {
+         if (this.size + other.size > this.values.length)
+            this.values = Arrays.copyOf(this.values, Math.max(this.size + other.size, this.values.length * 2));
+         System.arraycopy(other.values, 0, this.values, this.size, other.size);
+         this.size += other.size;
+      }
+   }//end LongList
+}//end CafeBench
@@ -0,0 +1,111 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hammers a single order from many threads at once, adding
+ * and removing items through Cafe.addOrderItem and Cafe.removeOrderItem,
+ * and then checks that the order total still equals the sum of the
+ * unit prices of the items left on it. A lost update shows up as a
+ * mismatch.
+ *
+ * It places one order for the given login, so run it against a scratch
+ * database. Exits with status 1 when the check fails.
+ *
+ */
+public class OrderStress {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 4) {
+         System.err.println("Usage: java [-classpath <classpath>] " + OrderStress.class.getName() +
+                            " <dbname> <port> <user> <customer login> [threads] [operations per thread]");
+         return;
+      }
+      final String login = args[3];
+      final int threads = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+      final int operations = args.length > 5 ? Integer.parseInt(args[5]) : 500;
+
+      Class.forName("org.postgresql.Driver");
+      final Cafe esql = new Cafe(args[0], args[1], args[2], "", 1, threads);
+      boolean ok = false;
+      try {
+         final List<MenuItem> menu = esql.menu().all();
+         if (menu.size() < 2) {
+            System.err.println("The menu needs at least two items");
+            return;
+         }
+
+         // the first item anchors the order so it is never cancelled
+         MenuItem anchor = menu.get(0);
+         final int orderID = esql.placeOrder(login, Collections.singletonList(anchor));
+         final Timestamp placed = esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderID = ?",
+                                                          OrderRow.MAPPER, orderID).getTimeStampRecieved();
+         final List<MenuItem> others = new ArrayList<MenuItem>(menu.subList(1, menu.size()));
+         System.out.println("Order " + orderID + ": " + threads + " threads x " + operations + " operations");
+
+         final AtomicLong added = new AtomicLong();
+         final AtomicLong removed = new AtomicLong();
+         final AtomicLong conflicts = new AtomicLong();
+         final Exception[] failure = new Exception[1];
+         Thread[] workers = new Thread[threads];
+         long start = System.nanoTime();
+         for (int t = 0; t < threads; t++) {
+            final Random rnd = new Random(t);
+            workers[t] = new Thread("stress-" + t) {
+               public void run() {
+                  try {
+                     for (int i = 0; i < operations; i++) {
+                        MenuItem item = others.get(rnd.nextInt(others.size()));
+                        if (rnd.nextBoolean()) {
+                           try {
+                              if (esql.addOrderItem(orderID, placed, item))
+                                 added.incrementAndGet();
+                           } catch (SQLException e) {
+                              // another thread added the same item first
+                              conflicts.incrementAndGet();
+                           }
+                        } else if (esql.removeOrderItem(orderID, placed, item.getItemName()) >= 0) {
+                           removed.incrementAndGet();
+                        }
+                     }
+                  } catch (Exception e) {
+                     synchronized (failure) {
+                        failure[0] = e;
+                     }
+                  }
+               }
+            };
+            workers[t].start();
+         }
+         for (Thread worker : workers)
+            worker.join();
+         long millis = (System.nanoTime() - start) / 1000000L;
+         if (failure[0] != null)
+            throw failure[0];
+
+         double total = esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderID = ? AND O.timeStampRecieved = ?",
+                                                OrderRow.MAPPER, orderID, placed).getTotal();
+         double expected = 0;
+         for (ItemStatusRow row : esql.executeQueryAndMapResult(
+                 "SELECT * FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?",
+                 ItemStatusRow.MAPPER, orderID, placed))
+            expected += row.getUnitPrice();
+
+         System.out.println(String.format("%d added, %d removed, %d duplicate adds in %d ms (%.0f ops/s)",
+                                          added.get(), removed.get(), conflicts.get(), millis,
+                                          threads * operations * 1000.0 / Math.max(1, millis)));
+         System.out.println(String.format("total %.2f, items sum to %.2f", total, expected));
+         ok = Math.abs(total - expected) < 0.005;
+         System.out.println(ok ? "OK" : "MISMATCH");
+         esql.deleteOrder(orderID, placed);
+      } finally {
+         esql.cleanup();
+      }
+      if (!ok)
+         System.exit(1);
+   }//end main
+}//end OrderStress
@@ -0,0 +1,72 @@
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * This class checks that PartitionMaintainer takes a month off both
+ * Orders and ItemStatus. It creates the partitions of a month past the
+ * retention, puts one order with one item into them, detaches every
+ * month up to that one and then checks that neither partition is
+ * attached any more, that both kept their row as plain tables, and that
+ * the order is gone from Orders. The two tables are dropped afterwards.
+ *
+ * Months older than the one it creates are detached as well, so run it
+ * against a scratch database. Exits with status 1 when the check fails.
+ *
+ */
+public class PartitionCheck {
+
+   public static void main(String[] args) throws Exception {
+      if (args.length < 3) {
+         System.err.println("Usage: java [-classpath <classpath>] " + PartitionCheck.class.getName() +
+                            " <dbname> <port> <user>");
+         return;
+      }
+
+      Class.forName("org.postgresql.Driver");
+      Cafe esql = new Cafe(args[0], args[1], args[2], "");
+      boolean ok = false;
+      try {
+         Calendar month = Calendar.getInstance();
+         month.add(Calendar.MONTH, -(PartitionMaintainer.DEFAULT_RETENTION_MONTHS + 6));
+         month.set(Calendar.DAY_OF_MONTH, 15);
+         Timestamp old = new Timestamp(month.getTimeInMillis());
+         String suffix = String.format("%04d%02d", month.get(Calendar.YEAR), month.get(Calendar.MONTH) + 1);
+         String orders = "orders_" + suffix;
+         String items = "itemstatus_" + suffix;
+         if (esql.exists("SELECT 1 FROM pg_class C WHERE C.relname IN (?, ?)", orders, items)) {
+            System.err.println(orders + " or " + items + " already exists, use a scratch database");
+            return;
+         }
+
+         PartitionMaintainer maintainer = new PartitionMaintainer(esql, PartitionMaintainer.DEFAULT_RETENTION_MONTHS);
+         maintainer.ensure(old, old);
+         int orderID = esql.executeQueryForInt(
+            "INSERT INTO Orders (login, paid, timeStampRecieved, total) VALUES (NULL, true, ?, 1) RETURNING orderid", old);
+         esql.executeUpdate("INSERT INTO ItemStatus(orderId, itemName, lastUpdated, status, unitPrice, timeStampRecieved, " +
+                            "addedAt) VALUES (?, 'Partition check', ?, 'Finished', 1, ?, ?)", orderID, old, old, old);
+         System.out.println("Order " + orderID + " placed in " + suffix);
+
+         month.add(Calendar.MONTH, 1);
+         month.set(Calendar.DAY_OF_MONTH, 1);
+         int detached = maintainer.detachBefore(month);
+         System.out.println(detached + " months detached");
+
+         boolean attached = esql.exists("SELECT 1 FROM pg_inherits P JOIN pg_class C ON C.oid = P.inhrelid " +
+                                        "WHERE C.relname IN (?, ?)", orders, items);
+         int keptOrders = esql.executeQueryForInt("SELECT COUNT(*) FROM " + orders);
+         int keptItems = esql.executeQueryForInt("SELECT COUNT(*) FROM " + items);
+         boolean live = esql.exists("SELECT 1 FROM Orders O WHERE O.orderID = ? AND O.timeStampRecieved = ?",
+                                    orderID, old);
+         System.out.println(String.format("attached: %b, kept %d orders and %d items, still live: %b",
+                                          attached, keptOrders, keptItems, live));
+         ok = !attached && keptOrders == 1 && keptItems == 1 && !live;
+         System.out.println(ok ? "OK" : "FAILED");
+         esql.executeUpdate("DROP TABLE " + items);
+         esql.executeUpdate("DROP TABLE " + orders);
+      } finally {
+         esql.cleanup();
+      }
+      if (!ok)
+         System.exit(1);
+   }//end main
+}//end PartitionCheck
@@ -0,0 +1,21 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the program and the benchmarks
+mkdir -p $DIR/../bench/classes
+javac -d $DIR/../bench/classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the benchmarks
+#Seeding replaces every order, use a scratch database (createdb $USER"_BENCH")
+#Extra options (dataset sizes, threads, ...) are passed through, e.g.
+#  ./bench.sh --orders 87256,1000000,5000000 --threads 4
+java -cp $DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar CafeBench $USER"_BENCH" $PGPORT $USER "$@"
+
+#Concurrent edits of one order (checks the total afterwards):
+#  java -cp $DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar OrderStress $USER"_BENCH" $PGPORT $USER <customer login> 16 500
+
+#Detaching a month past the retention from Orders and ItemStatus:
+#  java -cp $DIR/../bench/classes:$DIR/../lib/pg73jdbc3.jar PartitionCheck $USER"_BENCH" $PGPORT $USER
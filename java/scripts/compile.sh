@@ -5,9 +5,19 @@ export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
 export PATH=$JAVA_HOME/bin:$PATH
 
 # compile the java program
-javac -d $DIR/../classes $DIR/../src/Cafe.java
+javac -d $DIR/../classes $DIR/../src/*.java
 
 #run the java program
 #Use your database name, port number and login
 java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar Cafe $USER"_DB" $PGPORT $USER
 
+
+#To serve every register from one process instead, start it with
+#  --server <listen port>
+#and connect each terminal with: telnet localhost <listen port>
+#or, for kiosks and kitchen displays, with --http <listen port> (see HttpApi)
+
+#Detaching old partitions and archiving run in a separate process, one per
+#database; every process creates the coming months' partitions itself:
+#  java -cp ... Cafe <dbname> <port> <user> --maintain
+#Before PostgreSQL 14 detaching locks Orders and ItemStatus; run it while closed.
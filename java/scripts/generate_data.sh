@@ -0,0 +1,15 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+export JAVA_HOME=/usr/csshare/pkgs/jdk1.7.0_17
+export PATH=$JAVA_HOME/bin:$PATH
+
+# compile the generator
+mkdir -p $DIR/../tools/classes
+javac -d $DIR/../tools/classes $DIR/../tools/*.java
+
+#write data/orders.csv and data/itemStatus.csv for load_data.sql
+#Options (row count, date range, ...) are passed through, e.g.
+#  ./generate_data.sh --orders 10000000 --from 2023-01-01 --to 2023-12-31
+DATA=$DIR/../../data
+java -cp $DIR/../tools/classes GenerateData --users $DATA/users.csv --menu $DATA/menu.csv --out $DATA "$@"
@@ -11,18 +11,15 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.io.File;
 import java.io.FileReader;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,13 +28,57 @@ import java.util.ArrayList;
  */
 public class Cafe {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by every session.
+   private ConnectionPool _pool = null;
 
-   // handling the keyboard inputs through a BufferedReader
-   // This variable can be global for convenience.
-   static BufferedReader in = new BufferedReader(
-                                new InputStreamReader(System.in));
+   // connection pinned to the calling thread while it runs a transaction
+   private final ThreadLocal<ConnectionPool.PooledConnection> _pinned =
+      new ThreadLocal<ConnectionPool.PooledConnection>();
+
+   // cursors streamQuery has open on the calling thread, naming the next one
+   private final ThreadLocal<int[]> _cursors = new ThreadLocal<int[]>() {
+      protected int[] initialValue () {
+         return new int[1];
+      }
+   };
+
+   // callbacks to run once the transaction pinned to the thread commits
+   private final ThreadLocal<List<Runnable>> _afterCommit = new ThreadLocal<List<Runnable>>();
+
+   // in-process copy of the Menu table
+   private final MenuCache _menu = new MenuCache(this);
+
+   // in-process set of the unpaid orders
+   private final OpenOrders _open = new OpenOrders(this);
+
+   // in-process prep list of the unfinished items
+   private final KitchenBoard _kitchen = new KitchenBoard(this);
+
+   // pushes ItemStatus changes to the screens watching them
+   private ItemStatusListener _itemStatus = null;
+
+   // writer every session places its orders through; started on first use
+   private OrderService _orders = null;
+
+   // rows fetched per round trip from streamQuery's server-side cursor
+   public static final int FETCH_SIZE = 100;
+
+   // most favorite items a user keeps, checked against the menu as one IN list
+   public static final int MAX_FAVORITES = 256;
+
+   /**
+    * A unit of work run by transaction() on a single connection.
+    */
+   public interface Work<T> {
+      T run() throws SQLException;
+   }
+
+   /**
+    * Receives the rows of a query run by streamQuery(), one at a time.
+    */
+   public interface RowHandler {
+      void row(ResultSet rs) throws SQLException;
+   }
 
    /**
     * Creates a new instance of Cafe
@@ -49,15 +90,37 @@ public class Cafe {
     * @throws java.sql.SQLException when failed to make a connection.
     */
    public Cafe(String dbname, String dbport, String user, String passwd) throws SQLException {
+      this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MIN_SIZE, ConnectionPool.DEFAULT_MAX_SIZE);
+   }//end Cafe
+
+   /**
+    * Creates a new instance of Cafe backed by a pool of connections
+    *
+    * @param dbname the name of the database
+    * @param dbport the port the PostgreSQL server listens on
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minConnections connections kept open even when idle
+    * @param maxConnections the maximum number of connections open at once
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Cafe(String dbname, String dbport, String user, String passwd,
+               int minConnections, int maxConnections) throws SQLException {
 
       System.out.print("Connecting to database...");
       try{
          // constructs the connection URL
-         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+         // newer drivers send string parameters untyped so the server types
+         // them from the column they are compared with; the 7.3 driver
+         // ignores the setting and inlines every parameter as a literal,
+         // which the server types the same way
+         String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname + "?stringtype=unspecified";
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd, minConnections, maxConnections,
+                                         ConnectionPool.DEFAULT_BORROW_TIMEOUT_MS,
+                                         ConnectionPool.DEFAULT_IDLE_TIMEOUT_MS);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -68,156 +131,1079 @@ public class Cafe {
 
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
-    * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+    * includes CREATE, INSERT, UPDATE, DELETE, and DROP. The statement is
+    * prepared once per connection and parameters are bound to its ?
+    * placeholders in order.
     *
-    * @param sql the input SQL string
+    * @param sql the input SQL template
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows affected
     * @throws java.sql.SQLException when update failed
     */
-   public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the update instruction
-      stmt.executeUpdate (sql);
-
-      // close the instruction
-      stmt.close ();
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         // looks up (or prepares) the statement object and
+         // issues the update instruction
+         return prepare (conn, sql, params).executeUpdate ();
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
    }//end executeUpdate
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * method issues the query to the DBMS and returns the results as
+    * a list of records. Each record in turn is a list of attribute values
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param query the input query template
+    * @param params the values bound to the ? placeholders
+    * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print ((rs.getString (i)).trim() + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close ();
-      return rowCount;
-   }//end executeQuery
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      // iterates through the result set and saves the data returned by the query.
+      final List<List<String>> result  = new ArrayList<List<String>>();
+      readQuery (query, new RowHandler () {
+         public void row (ResultSet rs) throws SQLException {
+            int numCol = rs.getMetaData ().getColumnCount ();
+            List<String> record = new ArrayList<String>(numCol);
+            for (int i=1; i<=numCol; ++i)
+               record.add(rs.getString (i));
+            result.add(record);
+         }
+      }, params);
+      return result;
+   }//end executeQueryAndReturnResult
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and returns the results as
-    * a list of records. Each record in turn is a list of attribute values
+    * a list of typed records built by the mapper, straight from the
+    * result set as the rows stream in.
     *
-    * @param query the input query string
+    * @param query the input query template
+    * @param mapper builds one record from the current row
+    * @param params the values bound to the ? placeholders
     * @return the query result as a list of records
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
-
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
-
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
-
-      // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
-      List<List<String>> result  = new ArrayList<List<String>>();
-      while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
-      }//end while
-      stmt.close ();
+   public <T> List<T> executeQueryAndMapResult (String query, final RowMapper<T> mapper, Object... params) throws SQLException {
+      final List<T> result = new ArrayList<T>();
+      readQuery (query, new RowHandler () {
+         public void row (ResultSet rs) throws SQLException {
+            result.add (mapper.map (rs));
+         }
+      }, params);
       return result;
-   }//end executeQueryAndReturnResult
+   }//end executeQueryAndMapResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) that
+    * is expected to return at most one row, such as a lookup by key.
+    *
+    * @param query the input query template
+    * @param mapper builds the record from the row
+    * @param params the values bound to the ? placeholders
+    * @return the record for the first row, or null when there is no row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public <T> T executeQueryForRow (String query, RowMapper<T> mapper, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         try {
+            return rs.next () ? mapper.map (rs) : null;
+         }finally {
+            rs.close ();
+         }
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end executeQueryForRow
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * method issues the query to the DBMS and returns the number of results.
+    * Every row is sent to the client; use count() or exists() when only
+    * the number matters.
     *
-    * @param query the input query string
+    * @param query the input query template
+    * @param params the values bound to the ? placeholders
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public int executeQuery (String query, Object... params) throws SQLException {
+      // iterates through the result set and count nuber of results.
+      return readQuery (query, new RowHandler () {
+         public void row (ResultSet rs) {
+         }
+      }, params);
+   }
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to check whether an input query SQL instruction (i.e. SELECT)
+    * returns any row. The check runs on the server as SELECT EXISTS, which
+    * stops at the first matching row and sends back a single boolean
+    * instead of the rows themselves.
+    *
+    * @param query the input query template
+    * @param params the values bound to the ? placeholders
+    * @return true when the query returns at least one row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean exists (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = prepare (conn, "SELECT EXISTS (" + query + ")", params).executeQuery ();
+         try {
+            return rs.next () && rs.getBoolean (1);
+         }finally {
+            rs.close ();
+         }
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end exists
 
-       int rowCount = 0;
+   /**
+    * Method to count the rows an input query SQL instruction (i.e. SELECT)
+    * returns. The rows are counted on the server and only the count is
+    * sent back.
+    *
+    * @param query the input query template
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows the query returns
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public long count (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = prepare (conn, "SELECT COUNT(*) FROM (" + query + ") AS counted", params).executeQuery ();
+         try {
+            return rs.next () ? rs.getLong (1) : 0;
+         }finally {
+            rs.close ();
+         }
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end count
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT) and
+    * hand each row to a callback as it arrives. The query runs inside a
+    * transaction behind an explicit DECLARE ... CURSOR and is read with
+    * FETCH FETCH_SIZE rows at a time, so only one batch of rows is held
+    * in memory whatever the size of the result. This does not rely on
+    * the driver's fetch size, which the bundled driver ignores.
+    *
+    * The handler may issue other statements through this object, streamQuery
+    * included; they share the connection and the transaction.
+    *
+    * @param query the input query template
+    * @param handler called once per row, positioned on that row
+    * @param params the values bound to the ? placeholders
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int streamQuery (final String query, final RowHandler handler, final Object... params) throws SQLException {
+      return transaction (new Work<Integer> () {
+         public Integer run () throws SQLException {
+            ConnectionPool.PooledConnection conn = _pinned.get ();
+            // cursors are named by nesting depth, so the statement texts
+            // repeat and stay in the statement cache
+            int[] open = _cursors.get ();
+            String cursor = "cafe_stream_" + open[0];
+            prepare (conn, "DECLARE " + cursor + " NO SCROLL CURSOR FOR " + query, params).execute ();
+            open[0]++;
+            int rowCount = 0;
+            try {
+               PreparedStatement fetch = prepare (conn, "FETCH FORWARD " + FETCH_SIZE + " FROM " + cursor, new Object[0]);
+               int fetched;
+               do {
+                  fetched = 0;
+                  ResultSet rs = fetch.executeQuery ();
+                  try {
+                     while (rs.next ()){
+                        handler.row (rs);
+                        ++fetched;
+                     }//end while
+                  }finally {
+                     rs.close ();
+                  }
+                  rowCount += fetched;
+               } while (fetched == FETCH_SIZE);
+            }finally {
+               open[0]--;
+               // a failed statement aborted the transaction, which drops the cursor
+               try {
+                  prepare (conn, "CLOSE " + cursor, new Object[0]).execute ();
+               }catch (SQLException e) {
+                  // ignored.
+               }
+            }
+            return rowCount;
+         }
+      });
+   }//end streamQuery
+
+   /*
+    * Runs a query in one round trip and hands its rows to a callback, for
+    * the methods that keep every row anyway.
+    **/
+   private int readQuery (String query, RowHandler handler, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         int rowCount = 0;
+         try {
+            while (rs.next ()){
+               handler.row (rs);
+               ++rowCount;
+            }//end while
+         }finally {
+            rs.close ();
+         }
+         return rowCount;
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end readQuery
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
-    * value of sequence used for autogenerated keys
+    * value of sequence used for autogenerated keys. The value is
+    * per connection, so this is only meaningful inside transaction()
+    * after the insert that advanced the sequence.
     *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
+	return executeQueryForInt ("SELECT currval(?)", sequence);
+   }
 
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+   /**
+    * Method to execute a query SQL instruction that produces a single
+    * integer, such as an INSERT ... RETURNING of a generated key.
+    *
+    * @param query the input query template
+    * @param params the values bound to the ? placeholders
+    * @return the first column of the first row, or -1 when there is no row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryForInt (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = prepare (conn, query, params).executeQuery ();
+         try {
+            return rs.next () ? rs.getInt (1) : -1;
+         }finally {
+            rs.close ();
+         }
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end executeQueryForInt
+
+   /**
+    * Method to execute one update SQL statement for many sets of
+    * parameters. The rows are sent to the server as a single JDBC batch.
+    *
+    * @param sql the input SQL template
+    * @param rows the values bound to the ? placeholders, one array per row
+    * @return the number of rows affected by each entry of the batch
+    * @throws java.sql.SQLException when update failed
+    */
+   public int[] executeBatch (String sql, List<Object[]> rows) throws SQLException {
+      ConnectionPool.PooledConnection conn = acquire ();
+      try {
+         PreparedStatement stmt = conn.statements ().prepare (sql);
+         for (Object[] row : rows) {
+            bind (stmt, row);
+            stmt.addBatch ();
+         }
+         return stmt.executeBatch ();
+      }catch (SQLException e) {
+         throw failed (conn, e);
+      }finally {
+         release (conn);
+      }
+   }//end executeBatch
+
+   /**
+    * Places an order as one transaction: the order row is inserted and its
+    * generated id returned by the same statement, then every item's
+    * ItemStatus row is inserted in one batch with the price it was ordered
+    * at. The number of round trips does not depend on the number of items.
+    *
+    * @param login the login of the user placing the order
+    * @param items the ordered menu items, without repeats
+    * @return the id of the new order
+    * @throws java.sql.SQLException when the order could not be placed
+    */
+   public int placeOrder (final String login, final List<MenuItem> items) throws SQLException {
+      return transaction (new Work<Integer> () {
+         public Integer run () throws SQLException {
+            java.sql.Timestamp now = new java.sql.Timestamp (System.currentTimeMillis ());
+            double total = 0;
+            for (MenuItem item : items)
+               total += item.getPrice ();
+            int orderID = executeQueryForInt (
+               "INSERT INTO Orders (login, paid, timeStampRecieved, total) VALUES (?, ?, ?, ?) RETURNING orderid",
+               login, false, now, Math.round (total * 100.00) / 100.00);
+
+            List<Object[]> rows = new ArrayList<Object[]> (items.size ());
+            for (MenuItem item : items)
+               rows.add (new Object[] { orderID, item.getItemName (), now, "Hasn't Started", item.getPrice (), now, now });
+            executeBatch ("INSERT INTO ItemStatus(orderId, itemName, lastUpdated, status, unitPrice, timeStampRecieved, addedAt) " +
+                          "VALUES (?, ?, ?, ?, ?, ?, ?)", rows);
+            executeQueryForInt (
+               "WITH placed AS (SELECT I.* FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?)," +
+               addDailySales ("daily", "orders, itemsSold, revenue",
+                              "SELECT CAST(? AS date), sales_shard(?), 1, COUNT(*), COALESCE(SUM(CAST(p.unitPrice AS numeric)), 0)" +
+                              " FROM placed p") + "," +
+               addItemSales ("sold", "sold, revenue",
+                             "SELECT CAST(p.timeStampRecieved AS date), p.itemName, sales_shard(p.orderID), 1," +
+                             " CAST(p.unitPrice AS numeric) FROM placed p") +
+               " SELECT COUNT(*) FROM placed",
+               orderID, now, now, orderID);
+            final OrderRow order = new OrderRow (orderID, login, false, now, (float) (Math.round (total * 100.00) / 100.00));
+            afterCommit (new Runnable () {
+               public void run () {
+                  _open.placed (order);
+                  for (MenuItem item : items)
+                     _kitchen.changed (order.getOrderId (), item.getItemName (), "Hasn't Started", order.getTimeStampRecieved ());
+               }
+            });
+            return orderID;
+         }
+      });
+   }//end placeOrder
+
+   /**
+    * Adds an item to an unpaid order at its current price and raises the
+    * order total by that price, in one statement. Totals only ever move by
+    * deltas computed in the database, rounded to cents so that the real
+    * column does not drift, so concurrent edits of one order never lose an
+    * update.
+    *
+    * @param orderID the order to add to
+    * @param placed when the order was placed, which picks its partition
+    * @param item the menu item
+    * @return false when the order does not exist or is already paid
+    * @throws java.sql.SQLException when the item is already on the order
+    */
+   public boolean addOrderItem (final int orderID, final java.sql.Timestamp placed, final MenuItem item) throws SQLException {
+      return transaction (new Work<Boolean> () {
+         public Boolean run () throws SQLException {
+            java.sql.Timestamp now = new java.sql.Timestamp (System.currentTimeMillis ());
+            int[] counts = executeQueryForRow (
+               "WITH added AS (" +
+               "  INSERT INTO ItemStatus (orderId, itemName, lastUpdated, status, unitPrice, timeStampRecieved, addedAt)" +
+               "  SELECT ?, ?, ?, 'Hasn''t Started', ?, O.timeStampRecieved, ? FROM Orders O" +
+               "  WHERE O.orderID = ? AND O.timeStampRecieved = ? AND NOT O.paid" +
+               "  RETURNING orderId, itemName, unitPrice, timeStampRecieved)," +
+               " updated AS (" +
+               "  UPDATE Orders O SET total = ROUND(CAST(O.total + a.unitPrice AS numeric), 2)" +
+               "  FROM added a WHERE O.orderID = a.orderId AND O.timeStampRecieved = ? AND NOT O.paid" +
+               "  RETURNING O.orderID, O.total)," +
+               addDailySales ("daily", "itemsSold, revenue",
+                              "SELECT CAST(a.timeStampRecieved AS date), sales_shard(a.orderId), 1, CAST(a.unitPrice AS numeric)" +
+                              " FROM added a") + "," +
+               addItemSales ("sold", "sold, revenue",
+                             "SELECT CAST(a.timeStampRecieved AS date), a.itemName, sales_shard(a.orderId), 1," +
+                             " CAST(a.unitPrice AS numeric) FROM added a") +
+               " " +
+               "SELECT (SELECT COUNT(*) FROM added), (SELECT COUNT(*) FROM updated)," +
+               " (SELECT CAST(ROUND(CAST(total AS numeric) * 100) AS int) FROM updated)",
+               COUNTS, orderID, item.getItemName (), now, item.getPrice (), now, orderID, placed, placed);
+            if (counts[0] != counts[1])
+               throw new SQLException ("Order " + orderID + " was closed while adding " + item.getItemName ());
+            if (counts[0] > 0) {
+               repriced (orderID, counts[2]);
+               statusChanged (orderID, item.getItemName (), "Hasn't Started", now);
+            }
+            return counts[0] > 0;
+         }
+      });
+   }//end addOrderItem
+
+   /**
+    * Removes an item from an unpaid order and lowers the order total by
+    * the price it was ordered at, in one statement. An order left without
+    * items is cancelled.
+    *
+    * @param orderID the order to remove from
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @return the number of items left on the order, 0 when the order was
+    *         cancelled, or -1 when the item is not on an unpaid order
+    * @throws java.sql.SQLException when the removal failed
+    */
+   public int removeOrderItem (final int orderID, final java.sql.Timestamp placed, final String itemName) throws SQLException {
+      return transaction (new Work<Integer> () {
+         public Integer run () throws SQLException {
+            // the item count is read from the snapshot before the delete
+            int[] counts = executeQueryForRow (
+               "WITH removed AS (" +
+               "  DELETE FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ? AND I.itemName = ?" +
+               "  AND EXISTS (SELECT 1 FROM Orders O WHERE O.orderID = I.orderID AND O.timeStampRecieved = I.timeStampRecieved" +
+               "  AND NOT O.paid)" +
+               "  RETURNING I.*)," +
+               " updated AS (" +
+               "  UPDATE Orders O SET total = ROUND(CAST(O.total - r.unitPrice AS numeric), 2)" +
+               "  FROM removed r WHERE O.orderID = r.orderID AND O.timeStampRecieved = ? AND NOT O.paid" +
+               "  RETURNING O.orderID, O.total)," +
+               addDailySales ("daily", "itemsSold, revenue, finished, prepSeconds",
+                              "SELECT CAST(r.timeStampRecieved AS date), sales_shard(r.orderID), -1, -CAST(r.unitPrice AS numeric), -" +
+                              finishedOf ("r") + ", -" + prepSecondsOf ("r") + " FROM removed r") + "," +
+               addItemSales ("sold", "sold, revenue, finished, prepSeconds",
+                             "SELECT CAST(r.timeStampRecieved AS date), r.itemName, sales_shard(r.orderID), -1," +
+                             " -CAST(r.unitPrice AS numeric), -" +
+                             finishedOf ("r") + ", -" + prepSecondsOf ("r") + " FROM removed r") +
+               " " +
+               "SELECT (SELECT COUNT(*) FROM removed), (SELECT COUNT(*) FROM updated)," +
+               " (SELECT COUNT(*) FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?)," +
+               " (SELECT CAST(ROUND(CAST(total AS numeric) * 100) AS int) FROM updated)",
+               COUNTS, orderID, placed, itemName, placed, orderID, placed);
+            if (counts[0] != counts[1])
+               throw new SQLException ("Order " + orderID + " was closed while removing " + itemName);
+            if (counts[0] == 0)
+               return -1;
+            itemRemoved (orderID, itemName);
+            int left = counts[2] - counts[0];
+            if (left == 0 && executeQueryForInt (
+                  "WITH cancelled AS (DELETE FROM Orders O WHERE O.orderID = ? AND O.timeStampRecieved = ?" +
+                  "  AND NOT EXISTS (SELECT 1 FROM ItemStatus I WHERE I.orderID = O.orderID AND I.timeStampRecieved = ?)" +
+                  "  RETURNING O.orderID, O.timeStampRecieved)," +
+                  addDailySales ("daily", "orders",
+                                 "SELECT CAST(c.timeStampRecieved AS date), sales_shard(c.orderID), -1 FROM cancelled c") +
+                  " SELECT COUNT(*) FROM cancelled",
+                  orderID, placed, placed) == 0)
+               left = 1; // an item was added meanwhile.
+            if (left == 0)
+               closed (orderID);
+            else
+               repriced (orderID, counts[3]);
+            return left;
+         }
+      });
+   }//end removeOrderItem
+
+   // reports a new order total, in cents, to the open orders on commit
+   private void repriced (final int orderID, final int cents) {
+      afterCommit (new Runnable () {
+         public void run () {
+            _open.repriced (orderID, cents / 100.0f);
+         }
+      });
+   }
+
+   // reports an order that is no longer open, paid for or cancelled, to
+   // the open orders and the kitchen board on commit
+   private void closed (final int orderID) {
+      afterCommit (new Runnable () {
+         public void run () {
+            _open.closed (orderID);
+            _kitchen.closed (orderID);
+         }
+      });
+   }
+
+   // reports an item that moved to a status to the kitchen board on commit
+   private void statusChanged (final int orderID, final String itemName, final String status,
+                               final java.sql.Timestamp lastUpdated) {
+      afterCommit (new Runnable () {
+         public void run () {
+            _kitchen.changed (orderID, itemName, status, lastUpdated);
+         }
+      });
+   }
+
+   // reports an item taken off its order to the kitchen board on commit
+   private void itemRemoved (final int orderID, final String itemName) {
+      afterCommit (new Runnable () {
+         public void run () {
+            _kitchen.removed (orderID, itemName);
+         }
+      });
+   }
+
+   /*
+    * The sales rollups, DailySales and ItemSales, are added to by CTEs in
+    * the statements that change the orders, so they commit or roll back
+    * with the change. Rows are keyed on the day the order was placed and
+    * on the shard sales_shard() gives its id, so concurrent orders of one
+    * day, or of one item on a day, mostly lock different rows.
+    **/
+
+   // a CTE named name adding the rows of a query, the day, the shard and
+   // then the columns, to DailySales; one row per day and shard at most
+   private static String addDailySales (String name, String columns, String query) {
+      return addSales (name, "DailySales", "day, shard", columns, query);
+   }
+
+   // a CTE named name adding the rows of a query, the day, the item name,
+   // the shard and then the columns, to ItemSales; one row per day, item
+   // and shard at most
+   private static String addItemSales (String name, String columns, String query) {
+      return addSales (name, "ItemSales", "day, itemName, shard", columns, query);
+   }
+
+   private static String addSales (String name, String table, String key, String columns, String query) {
+      StringBuilder sql = new StringBuilder (" ").append (name).append (" AS (INSERT INTO ").append (table)
+         .append (" AS R (").append (key).append (", ").append (columns).append (") ").append (query)
+         .append (" ON CONFLICT (").append (key).append (") DO UPDATE SET ");
+      String[] names = columns.split (", ");
+      for (int i = 0; i < names.length; i++)
+         sql.append (i == 0 ? "" : ", ").append (names[i]).append (" = R.").append (names[i])
+            .append (" + EXCLUDED.").append (names[i]);
+      return sql.append (")").toString ();
+   }
+
+   /*
+    * The prep times count the items that are Finished now, each with the
+    * time from being added to its order to lastUpdated, the time it moved
+    * to Finished. Every statement that moves an item onto or off Finished,
+    * or removes a finished one, adds the difference, so the rollups always
+    * agree with rebuild_sales(), which computes the same from the items.
+    **/
+
+   // 1 when the item of a relation is finished, else 0
+   private static String finishedOf (String item) {
+      return "(CASE WHEN " + item + ".status = 'Finished' THEN 1 ELSE 0 END)";
+   }
+
+   // the prep seconds of the item of a relation when finished, else 0
+   private static String prepSecondsOf (String item) {
+      return "(CASE WHEN " + item + ".status = 'Finished' THEN EXTRACT(EPOCH FROM " + item + ".lastUpdated - " +
+             item + ".addedAt) ELSE 0 END)";
+   }
+
+   // the CTEs adding the rows of a relation of changes to the prep times;
+   // its columns are orderID, timeStampRecieved, itemName, finished and
+   // seconds
+   private static String addPrepTimes (String changes) {
+      return addDailySales ("dailyPrep", "finished, prepSeconds",
+                            "SELECT CAST(p.timeStampRecieved AS date), sales_shard(p.orderID), SUM(p.finished)," +
+                            " SUM(p.seconds) FROM " + changes + " p GROUP BY 1, 2") + "," +
+             addItemSales ("itemPrep", "finished, prepSeconds",
+                           "SELECT CAST(p.timeStampRecieved AS date), p.itemName, sales_shard(p.orderID)," +
+                           " SUM(p.finished), SUM(p.seconds) FROM " + changes + " p GROUP BY 1, 2, 3");
+   }
+
+   // reads the int columns of a single row
+   private static final RowMapper<int[]> COUNTS = new RowMapper<int[]> () {
+      public int[] map (ResultSet rs) throws SQLException {
+         int[] counts = new int[rs.getMetaData ().getColumnCount ()];
+         for (int i = 0; i < counts.length; i++)
+            counts[i] = rs.getInt (i + 1);
+         return counts;
+      }
+   };
+
+   /**
+    * @param orderID the order the item is on
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @param comment the new comment, replacing any earlier one
+    * @return false when the item is not on the order
+    * @throws java.sql.SQLException when the update failed
+    */
+   public boolean commentOrderItem (int orderID, java.sql.Timestamp placed, String itemName, String comment) throws SQLException {
+      return executeUpdate ("UPDATE ItemStatus SET comments = ? WHERE orderID = ? AND timeStampRecieved = ? AND itemName = ?",
+                            comment, orderID, placed, itemName) > 0;
+   }//end commentOrderItem
+
+   /**
+    * Cancels an unpaid order together with its items, taking them off the
+    * sales of the day it was placed on.
+    *
+    * @param orderID the order to cancel
+    * @param placed when the order was placed, which picks its partition
+    * @return false when the order does not exist or is already paid
+    * @throws java.sql.SQLException when the delete failed
+    */
+   public boolean deleteOrder (final int orderID, final java.sql.Timestamp placed) throws SQLException {
+      return transaction (new Work<Boolean> () {
+         public Boolean run () throws SQLException {
+            // the items are read from the snapshot before the cascade
+            if (executeQueryForInt (
+                  "WITH cancelled AS (" +
+                  "  DELETE FROM Orders O WHERE O.orderID = ? AND O.timeStampRecieved = ? AND NOT O.paid" +
+                  "  RETURNING O.orderID, O.timeStampRecieved)," +
+                  " items AS (SELECT I.* FROM ItemStatus I JOIN cancelled c" +
+                  "  ON I.orderID = c.orderID AND I.timeStampRecieved = c.timeStampRecieved WHERE I.timeStampRecieved = ?)," +
+                  addDailySales ("daily", "orders, itemsSold, revenue, finished, prepSeconds",
+                                 "SELECT CAST(c.timeStampRecieved AS date), sales_shard(c.orderID), -1, -(SELECT COUNT(*) FROM items)," +
+                                 " -(SELECT COALESCE(SUM(CAST(i.unitPrice AS numeric)), 0) FROM items i)," +
+                                 " -(SELECT COALESCE(SUM(" + finishedOf ("i") + "), 0) FROM items i)," +
+                                 " -(SELECT COALESCE(SUM(" + prepSecondsOf ("i") + "), 0) FROM items i) FROM cancelled c") + "," +
+                  addItemSales ("sold", "sold, revenue, finished, prepSeconds",
+                                "SELECT CAST(i.timeStampRecieved AS date), i.itemName, sales_shard(i.orderID), -1," +
+                                " -CAST(i.unitPrice AS numeric), -" +
+                                finishedOf ("i") + ", -" + prepSecondsOf ("i") + " FROM items i") +
+                  " SELECT COUNT(*) FROM cancelled",
+                  orderID, placed, placed) == 0)
+               return false;
+            executeUpdate ("DELETE FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?", orderID, placed);
+            closed (orderID);
+            return true;
+         }
+      });
+   }//end deleteOrder
+
+   /**
+    * Moves an item of an order to a status, stamped with the current time.
+    *
+    * @param orderID the order the item is on
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @param status Hasn't Started, Started or Finished
+    * @return false when the item is not on the order
+    * @throws java.sql.SQLException when the update failed
+    */
+   public boolean setItemStatus (final int orderID, final java.sql.Timestamp placed, final String itemName,
+                                 final String status) throws SQLException {
+      return transaction (new Work<Boolean> () {
+         public Boolean run () throws SQLException {
+            java.sql.Timestamp now = new java.sql.Timestamp (System.currentTimeMillis ());
+            // the row before the update is locked and read first, so a move
+            // off Finished takes back exactly what the move onto it added
+            if (executeQueryForInt (
+                  "WITH was AS (SELECT I.* FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ? AND I.itemName = ?" +
+                  "  FOR UPDATE)," +
+                  " moved AS (UPDATE ItemStatus I SET status = ?, lastUpdated = ? FROM was w" +
+                  "  WHERE I.orderID = w.orderID AND I.itemName = w.itemName AND I.timeStampRecieved = ?" +
+                  "  RETURNING I.*)," +
+                  " prep AS (SELECT m.orderID, m.timeStampRecieved, m.itemName, " + finishedOf ("m") + " - " + finishedOf ("w") +
+                  "  AS finished, " + prepSecondsOf ("m") + " - " + prepSecondsOf ("w") + " AS seconds" +
+                  "  FROM moved m JOIN was w ON w.itemName = m.itemName" +
+                  "  WHERE m.status = 'Finished' OR w.status = 'Finished')," +
+                  addPrepTimes ("prep") +
+                  " SELECT COUNT(*) FROM moved",
+                  orderID, placed, itemName, status, now, placed) == 0)
+               return false;
+            statusChanged (orderID, itemName, status, now);
+            return true;
+         }
+      });
+   }//end setItemStatus
+
+   /**
+    * Moves every pending item of an order to Started or Finished.
+    *
+    * @param orderID the order whose items move
+    * @param status Started or Finished
+    * @return the number of items that moved
+    * @throws java.sql.SQLException when the update failed
+    */
+   public int setOrderStatus (int orderID, String status) throws SQLException {
+      return setOrdersStatus (Collections.singletonList (orderID), status);
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Moves every pending item of many orders to Started or Finished with
+    * one UPDATE per IN_LIST_BUCKETS entries, all stamped with the same
+    * time, in one transaction. Items already at or past the status keep
+    * their lastUpdated.
+    *
+    * @param orderIDs the orders whose items move
+    * @param status Started or Finished
+    * @return the number of items that moved
+    * @throws java.sql.SQLException when the update failed
+    */
+   public int setOrdersStatus (final List<Integer> orderIDs, final String status) throws SQLException {
+      final String pending = pendingFor (status);
+      return transaction (new Work<Integer> () {
+         public Integer run () throws SQLException {
+            java.sql.Timestamp now = new java.sql.Timestamp (System.currentTimeMillis ());
+            int moved = 0;
+            int max = IN_LIST_BUCKETS[IN_LIST_BUCKETS.length - 1];
+            for (int from = 0; from < orderIDs.size (); from += max) {
+               List<Integer> chunk = orderIDs.subList (from, Math.min (from + max, orderIDs.size ()));
+               Object[] params = inParams (chunk, status, now);
+               moved += moveItems ("UPDATE ItemStatus I SET status = ?, lastUpdated = ? WHERE I.orderID IN (" +
+                                   inList (params.length - 2) + ") AND " + pending + " RETURNING *", status, now, params);
+            }
+            return moved;
+         }
+      });
+   }//end setOrdersStatus
+
+   /**
+    * Moves every pending unit of one menu item, on any order, to Started
+    * or Finished with one UPDATE and one shared time.
+    *
+    * @param itemName the name of the menu item
+    * @param status Started or Finished
+    * @return the number of items that moved
+    * @throws java.sql.SQLException when the update failed
+    */
+   public int setAllItemStatus (final String itemName, final String status) throws SQLException {
+      final String pending = pendingFor (status);
+      return transaction (new Work<Integer> () {
+         public Integer run () throws SQLException {
+            java.sql.Timestamp now = new java.sql.Timestamp (System.currentTimeMillis ());
+            return moveItems ("UPDATE ItemStatus I SET status = ?, lastUpdated = ? WHERE I.itemName = ? AND " +
+                              pending + " RETURNING *", status, now, status, now, itemName);
+         }
+      });
+   }//end setAllItemStatus
+
+   // IN list lengths the bulk updates are padded to, so a few statement
+   // templates (and their server-side plans) serve lists of any length
+   private static final int[] IN_LIST_BUCKETS = { 1, 4, 16, 64, 256 };
+
+   // the leading parameters followed by the values, padded with the last
+   // value to the smallest IN list length that holds them all
+   private static Object[] inParams (List<?> values, Object... leading) {
+      int size = IN_LIST_BUCKETS[IN_LIST_BUCKETS.length - 1];
+      for (int bucket : IN_LIST_BUCKETS) {
+         if (bucket >= values.size ()) {
+            size = bucket;
+            break;
+         }
+      }
+      Object[] params = new Object[leading.length + size];
+      System.arraycopy (leading, 0, params, 0, leading.length);
+      for (int i = 0; i < size; i++)
+         params[leading.length + i] = values.get (Math.min (i, values.size () - 1));
+      return params;
+   }
+
+   // n comma separated placeholders
+   private static String inList (int n) {
+      StringBuilder in = new StringBuilder ("?");
+      for (int i = 1; i < n; i++)
+         in.append (", ?");
+      return in.toString ();
+   }
+
+   // the items a bulk move to a status applies to
+   private static String pendingFor (String status) {
+      if ("Started".equals (status))
+         return "I.status = 'Hasn''t Started'";
+      if (KitchenBoard.FINISHED.equals (status))
+         return "I.status <> 'Finished'";
+      throw new IllegalArgumentException ("Items can only be moved to Started or Finished");
+   }
+
+   // runs a bulk UPDATE ... RETURNING * and reports the moved items; items
+   // moved to Finished, never from it, are added to the prep times
+   private int moveItems (String update, String status, java.sql.Timestamp now, Object... params) throws SQLException {
+      if (KitchenBoard.FINISHED.equals (status))
+         update = "WITH moved AS (" + update + ")," +
+                  " prep AS (SELECT m.orderID, m.timeStampRecieved, m.itemName, " + finishedOf ("m") + " AS finished, " +
+                  prepSecondsOf ("m") + " AS seconds FROM moved m)," +
+                  addPrepTimes ("prep") + " SELECT * FROM moved";
+      List<ItemStatusRow> moved = executeQueryAndMapResult (update, ItemStatusRow.MAPPER, params);
+      for (ItemStatusRow row : moved)
+         statusChanged (row.getOrderId (), row.getItemName (), status, now);
+      return moved.size ();
+   }
+
+   /**
+    * @param login the user
+    * @return the names of the user's favorite items, in name order
+    * @throws java.sql.SQLException when the query failed
+    */
+   public List<String> favorites (String login) throws SQLException {
+      return executeQueryAndMapResult ("SELECT F.itemName FROM UserFavorites F WHERE F.login = ? ORDER BY F.itemName",
+                                       FIRST_TEXT, login);
+   }
+
+   /**
+    * @param itemName the name of the menu item
+    * @return the logins of the users who favor the item, in login order
+    * @throws java.sql.SQLException when the query failed
+    */
+   public List<String> favoredBy (String itemName) throws SQLException {
+      return executeQueryAndMapResult ("SELECT F.login FROM UserFavorites F WHERE F.itemName = ? ORDER BY F.login",
+                                       FIRST_TEXT, itemName);
+   }
+
+   /**
+    * Replaces the favorite items of a user, in one transaction. All the
+    * names are checked against the menu with one query first; when any is
+    * not on the menu nothing changes.
+    *
+    * @param login the user
+    * @param itemNames the new favorites, possibly empty
+    * @return the names that are not on the menu, empty when the favorites
+    *         were replaced
+    * @throws java.sql.SQLException when the update failed
+    */
+   public List<String> setFavorites (final String login, List<String> itemNames) throws SQLException {
+      final List<String> names = new ArrayList<String> (new java.util.LinkedHashSet<String> (itemNames));
+      if (names.size () > MAX_FAVORITES)
+         throw new IllegalArgumentException ("At most " + MAX_FAVORITES + " favorite items");
+      return transaction (new Work<List<String>> () {
+         public List<String> run () throws SQLException {
+            List<String> unknown = new ArrayList<String> (names);
+            if (!names.isEmpty ()) {
+               Object[] params = inParams (names);
+               unknown.removeAll (executeQueryAndMapResult (
+                  "SELECT M.itemName FROM Menu M WHERE M.itemName IN (" + inList (params.length) + ")",
+                  FIRST_TEXT, params));
+            }
+            if (!unknown.isEmpty ())
+               return unknown;
+            executeUpdate ("DELETE FROM UserFavorites WHERE login = ?", login);
+            List<Object[]> rows = new ArrayList<Object[]> (names.size ());
+            for (String name : names)
+               rows.add (new Object[] { login, name });
+            if (!rows.isEmpty ())
+               executeBatch ("INSERT INTO UserFavorites (login, itemName) VALUES (?, ?)", rows);
+            return unknown;
+         }
+      });
+   }//end setFavorites
+
+   // reads the first column as text
+   private static final RowMapper<String> FIRST_TEXT = new RowMapper<String> () {
+      public String map (ResultSet rs) throws SQLException {
+         return rs.getString (1);
+      }
+   };
+
+   /**
+    * Marks an order paid and adds its total to the paid sales of the day
+    * it was placed on.
+    *
+    * @param orderID the order that was paid for
+    * @param placed when the order was placed, which picks its partition
+    * @return false when the order does not exist or was already paid
+    * @throws java.sql.SQLException when the update failed
+    */
+   public boolean markOrderPaid (int orderID, java.sql.Timestamp placed) throws SQLException {
+      if (executeQueryForInt (
+            "WITH paid AS (" +
+            "  UPDATE Orders O SET paid = true WHERE O.orderID = ? AND O.timeStampRecieved = ? AND NOT O.paid" +
+            "  RETURNING O.orderID, O.timeStampRecieved, O.total)," +
+            addDailySales ("daily", "paidOrders, paidRevenue",
+                           "SELECT CAST(p.timeStampRecieved AS date), sales_shard(p.orderID), 1," +
+                           " ROUND(CAST(p.total AS numeric), 2) FROM paid p") +
+            " SELECT COUNT(*) FROM paid",
+            orderID, placed) == 0)
+         return false;
+      closed (orderID);
+      return true;
+   }//end markOrderPaid
+
+
+   /**
+    * Runs a unit of work as one transaction. Every statement the work
+    * issues through this object on the calling thread goes to the same
+    * connection; the transaction commits when the work returns and rolls
+    * back when it throws. Nested calls join the enclosing transaction.
+    *
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.sql.SQLException when the work or the commit failed
+    */
+   public <T> T transaction (Work<T> work) throws SQLException {
+      if (this._pinned.get () != null)
+         return work.run ();
+
+      ConnectionPool.PooledConnection conn = this._pool.borrow ();
+      List<Runnable> committed = new ArrayList<Runnable> ();
+      T result;
+      this._pinned.set (conn);
+      this._afterCommit.set (committed);
+      try {
+         conn.connection ().setAutoCommit (false);
+         result = work.run ();
+         conn.connection ().commit ();
+      }catch (SQLException e) {
+         rollback (conn);
+         throw failed (conn, e);
+      }catch (RuntimeException e) {
+         rollback (conn);
+         throw e;
+      }catch (Error e) {
+         // setAutoCommit(true) below would commit the work done so far
+         rollback (conn);
+         throw e;
+      }finally {
+         this._pinned.remove ();
+         this._afterCommit.remove ();
+         try {
+            conn.connection ().setAutoCommit (true);
+         }catch (SQLException e) {
+            conn.markBroken ();
+         }
+         this._pool.release (conn);
+      }
+      // the work is committed whatever a callback does, and the connection
+      // is back in the pool before any of them waits for a lock
+      for (Runnable callback : committed) {
+         try {
+            callback.run ();
+         }catch (RuntimeException e) {
+            System.err.println ("Callback after commit failed: " + e);
+         }
+      }
+      return result;
+   }//end transaction
+
+   /**
+    * Runs a callback once the transaction of the calling thread commits,
+    * or right away outside of one. Callbacks run after the connection went
+    * back to the pool; one that throws is logged and does not fail the
+    * committed transaction. Callbacks of a transaction that rolls back are
+    * dropped.
+    *
+    * @param callback what to run after the commit
+    */
+   public void afterCommit (Runnable callback) {
+      List<Runnable> pending = this._afterCommit.get ();
+      if (pending != null)
+         pending.add (callback);
+      else
+         callback.run ();
+   }
+
+   /**
+    * @return the unpaid orders, kept up to date by the order methods and
+    *         read again every OpenOrders.RESYNC_INTERVAL_MS
+    */
+   public OpenOrders openOrders () {
+      return this._open;
+   }
+
+   /**
+    * @return the prep list of unfinished items, kept up to date by the
+    *         order methods and read again every
+    *         KitchenBoard.RESYNC_INTERVAL_MS
+    */
+   public KitchenBoard kitchen () {
+      return this._kitchen;
+   }
+
+   /**
+    * @return the listener for ItemStatus changes, which starts listening
+    *         with its first subscriber
+    */
+   public synchronized ItemStatusListener itemStatus () {
+      if (this._itemStatus == null)
+         this._itemStatus = new ItemStatusListener (this._pool);
+      return this._itemStatus;
+   }
+
+   /**
+    * @return the writer the console, the terminal server sessions and the
+    *         HTTP API place orders through, so orders placed at the same
+    *         time share a commit
+    */
+   public synchronized OrderService orders () {
+      if (this._orders == null)
+         this._orders = new OrderService (this);
+      return this._orders;
+   }
+
+   /**
+    * @return the cached menu, to be invalidated after writes to Menu
+    */
+   public MenuCache menu () {
+      return this._menu;
+   }
+
+   /**
+    * @return the connection pool backing this object
+    */
+   public ConnectionPool getPool () {
+      return this._pool;
+   }
+
+   /*
+    * Returns the connection pinned by an enclosing transaction, or borrows
+    * one from the pool for a single statement.
+    **/
+   private ConnectionPool.PooledConnection acquire () throws SQLException {
+      ConnectionPool.PooledConnection conn = this._pinned.get ();
+      return conn != null ? conn : this._pool.borrow ();
+   }
+
+   private void release (ConnectionPool.PooledConnection conn) {
+      if (this._pinned.get () != conn)
+         this._pool.release (conn);
+   }
+
+   /*
+    * Connection-class errors (SQLSTATE 08xxx) leave the connection unusable,
+    * so it is closed instead of going back to the pool.
+    **/
+   private static SQLException failed (ConnectionPool.PooledConnection conn, SQLException e) {
+      String state = e.getSQLState ();
+      if (state != null && state.startsWith ("08"))
+         conn.markBroken ();
+      return e;
+   }
+
+   private static void rollback (ConnectionPool.PooledConnection conn) {
+      try {
+         conn.connection ().rollback ();
+      }catch (SQLException e) {
+         conn.markBroken ();
+      }
+   }
+
+   /*
+    * Looks up the cached statement for a SQL template and binds the
+    * parameters to it. A null parameter is sent as an untyped NULL.
+    **/
+   private static PreparedStatement prepare (ConnectionPool.PooledConnection conn, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = conn.statements ().prepare (sql);
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   private static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      stmt.clearParameters ();
+      for (int i = 0; i < params.length; ++i) {
+         if (params[i] == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else
+            stmt.setObject (i + 1, params[i]);
+      }//end for
+   }//end bind
+
+   /**
+    * Method to close every pooled connection.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._menu.close ();
+      this._open.close ();
+      this._kitchen.close ();
+      OrderService orders;
+      synchronized (this) {
+         if (this._itemStatus != null)
+            this._itemStatus.close ();
+         orders = this._orders;
+      }
+      // commits what is still queued while the pool is open
+      if (orders != null)
+         orders.close ();
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -226,17 +1212,23 @@ public class Cafe {
     * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
     */
    public static void main (String[] args) {
-      if (args.length != 3) {
+      boolean maintain = args.length == 4 && args[3].equals ("--maintain");
+      if (args.length != 3 && !maintain && !(args.length == 5 && (args[3].equals ("--server") || args[3].equals ("--http")))) {
          System.err.println (
             "Usage: " +
             "java [-classpath <classpath>] " +
             Cafe.class.getName () +
-            " <dbname> <port> <user>");
+            " <dbname> <port> <user> [--server|--http <listen port>|--maintain]");
          return;
       }//end if
 
-      Greeting();
+      Terminal console = Terminal.console ();
+      if (!maintain)
+         Greeting(console);
       Cafe esql = null;
+      java.util.Timer maintenance = null;
+      PartitionMaintainer maintainer = null;
+      OrderArchiver archiver = null;
       try{
          // use postgres JDBC driver.
          Class.forName ("org.postgresql.Driver").newInstance ();
@@ -246,83 +1238,42 @@ public class Cafe {
          String dbport = args[1];
          String user = args[2];
          esql = new Cafe (dbname, dbport, user, "");
-	 String oldPass = "";
-	 String oldType = "";
-	 boolean loginChanged = false;
-	 boolean passChanged = false;
-	 boolean typeChanged = false;
-	 String sessionLogin = "";
-         boolean keepon = true;
-         while(keepon) {
-            // These are sample SQL statements
-            oldPass = "";
-	    oldType = "";
-            loginChanged = false;
-	    passChanged = false;
-	    typeChanged = false;
-	    sessionLogin = "";
-            System.out.println("MAIN MENU");
-            System.out.println("---------");
-            System.out.println("1. Create user");
-            System.out.println("2. Log in");
-            System.out.println("9. < EXIT");
-            String authorisedUser = null;
-            switch (readChoice()){
-               case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
-               case 9: keepon = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
-            }//end switch
-            if (authorisedUser != null) {
-              boolean usermenu = true;
-              while(usermenu) {
-                System.out.println("MAIN MENU");
-                System.out.println("---------");
-                System.out.println("1. Goto Menu");
-                System.out.println("2. Update Profile");
-                System.out.println("3. Place a Order");
-                System.out.println("4. Update a Order");
-                System.out.println(".........................");
-                System.out.println("9. Log out");
-                switch (readChoice()){
-                   case 1: Menu(esql, authorisedUser); break;
-                   case 2:
-		   sessionLogin = authorisedUser;
-		   if(esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = \'Manager\'", authorisedUser)) > 0){
-		      oldType = "Manager";
-		   } else if(esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = \'Employee\'", authorisedUser)) > 0){
-		      oldType = "Employee";
-		   } else {
-		      oldType = "Customer";
-		   }
-		   System.out.println("Please enter your password to continue");
-		   oldPass = in.readLine();
-		   if(esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.password = '%s'", authorisedUser, oldPass)) > 0){ 
-		   UpdateProfile(esql, authorisedUser, oldPass, oldType); 
-		   loginChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s'", sessionLogin)) == 0);
-           	   passChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.password = '%s'", sessionLogin, oldPass)) == 0);
-           	   typeChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = '%s'", sessionLogin, oldType)) == 0);
-           	   if(loginChanged || passChanged || typeChanged){
-              		usermenu = false;
-           	   }
-		   break;
-		   } else {
-		   System.out.println("Incorrect password!");
-		   break;
-		   }
-                   case 3: PlaceOrder(esql, authorisedUser); break;
-                   case 4: UpdateOrder(esql, authorisedUser); break;
-                   case 9: usermenu = false; break;
-                   default : System.out.println("Unrecognized choice!"); break;
-                }
-              }
-            }
-         }//end while
+         // every process creates the coming months' partitions, so orders
+         // keep landing somewhere without a --maintain process; detaching
+         // and archiving run in that one process per database only, one
+         // task at a time, until killed
+         maintenance = new java.util.Timer ("maintenance", true);
+         maintainer = new PartitionMaintainer (esql, maintain ? PartitionMaintainer.DEFAULT_RETENTION_MONTHS : 0);
+         maintainer.start (maintenance);
+         if (maintain) {
+            archiver = new OrderArchiver (esql, OrderArchiver.DEFAULT_MIN_AGE_DAYS,
+                                          OrderArchiver.DEFAULT_BATCH_SIZE, OrderArchiver.DEFAULT_PAUSE_MS);
+            archiver.start (maintenance);
+            Thread.currentThread ().join ();
+         } else if (args.length == 5 && args[3].equals ("--server")) {
+            // one process serving every register in the store
+            new TerminalServer (esql, Integer.parseInt (args[4])).serve ();
+         } else if (args.length == 5) {
+            // JSON for kiosks and kitchen displays, served until killed
+            new HttpApi (esql, Integer.parseInt (args[4])).start ();
+            Thread.currentThread ().join ();
+         } else {
+            runTerminal (esql, console);
+         }
       }catch(Exception e) {
          System.err.println (e.getMessage ());
       }finally{
          // make sure to cleanup the created table and close the connection.
          try{
+            if(archiver != null) {
+               archiver.stop ();
+            }//end if
+            if(maintainer != null) {
+               maintainer.stop ();
+            }//end if
+            if(maintenance != null) {
+               maintenance.cancel ();
+            }//end if
             if(esql != null) {
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
@@ -334,8 +1285,67 @@ public class Cafe {
       }//end try
    }//end main
 
-   public static void Greeting(){
-      System.out.println(
+   /**
+    * Runs the menus of one terminal until the user exits, reading from and
+    * writing to that terminal only.
+    *
+    * @param esql the database the menus work on
+    * @param term the terminal of the session
+    * @throws java.io.IOException when the terminal hung up
+    */
+   public static void runTerminal (Cafe esql, Terminal term) throws java.io.IOException {
+      boolean keepon = true;
+      while(keepon) {
+         // These are sample SQL statements
+         term.out.println("MAIN MENU");
+         term.out.println("---------");
+         term.out.println("1. Create user");
+         term.out.println("2. Log in");
+         term.out.println("9. < EXIT");
+         Session authorisedUser = null;
+         switch (readChoice(term)){
+            case 1: CreateUser(esql, term); break;
+            case 2: authorisedUser = LogIn(esql, term); break;
+            case 9: keepon = false; break;
+            default : term.out.println("Unrecognized choice!"); break;
+         }//end switch
+         if (authorisedUser != null) {
+           boolean usermenu = true;
+           while(usermenu) {
+             term.out.println("MAIN MENU");
+             term.out.println("---------");
+             term.out.println("1. Goto Menu");
+             term.out.println("2. Update Profile");
+             term.out.println("3. Place a Order");
+             term.out.println("4. Update a Order");
+             term.out.println(".........................");
+             term.out.println("9. Log out");
+             switch (readChoice(term)){
+                case 1: Menu(esql, term, authorisedUser); break;
+                case 2:
+		   term.out.println("Please enter your password to continue");
+		   if(authorisedUser.checkPassword(term.readLine())){ 
+		   UpdateProfile(esql, term, authorisedUser); 
+        	   if(!authorisedUser.isValid()){ //login, password or type changed
+           		usermenu = false;
+        	   }
+		   break;
+		   } else {
+		   term.out.println("Incorrect password!");
+		   break;
+		   }
+                case 3: PlaceOrder(esql, term, authorisedUser.getLogin()); break;
+                case 4: UpdateOrder(esql, term, authorisedUser); break;
+                case 9: usermenu = false; break;
+                default : term.out.println("Unrecognized choice!"); break;
+             }
+           }
+         }
+      }//end while
+   }//end runTerminal
+
+   public static void Greeting(Terminal term){
+      term.out.println(
          "\n\n*******************************************************\n" +
          "              User Interface      	               \n" +
          "*******************************************************\n");
@@ -346,16 +1356,16 @@ public class Cafe {
     * @int
     **/
 
-   public static int readChoice() {
+   public static int readChoice(Terminal term) throws Terminal.Hangup {
       int input;
       // returns only if a correct value is given.
       do {
-         System.out.print("Please make your choice: ");
+         term.out.print("Please make your choice: ");
          try { // read the integer, parse it and break.
-            input = Integer.parseInt(in.readLine());
+            input = Integer.parseInt(term.readLine());
             break;
-         }catch (Exception e) {
-            System.out.println("Your input is invalid!");
+         }catch (NumberFormatException e) {
+            term.out.println("Your input is invalid!");
             continue;
          }//end try
       }while (true);
@@ -365,154 +1375,148 @@ public class Cafe {
    /*
     * Creates a new user with privided login, passowrd and phoneNum
     **/
-   public static void CreateUser(Cafe esql){
+   public static void CreateUser(Cafe esql, Terminal term){
       try{
-         System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-         System.out.print("\tEnter user phone: ");
-         String phone = in.readLine();
+         term.out.print("\tEnter user login: ");
+         String login = term.readLine();
+         term.out.print("\tEnter user password: ");
+         String password = term.readLine();
+         term.out.print("\tEnter user phone: ");
+         String phone = term.readLine();
          
 	    String type="Customer";
-	    String favItems="";
 
-				 String query = String.format("INSERT INTO USERS (phoneNum, login, password, favItems, type) VALUES ('%s','%s','%s','%s','%s')", phone, login, password, favItems, type);
+				 String query = "INSERT INTO USERS (phoneNum, login, password, type) VALUES (?,?,?,?)";
 
-         esql.executeUpdate(query);
-         System.out.println ("User successfully created!");
+         esql.executeUpdate(query, phone, login, password, type);
+         term.out.println ("User successfully created!");
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
    }//end CreateUser
 
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return User session or null is the user does not exist
     **/
-   public static String LogIn(Cafe esql){
+   public static Session LogIn(Cafe esql, Terminal term){
       try{
-         System.out.print("\tEnter user login: ");
-         String login = in.readLine();
-         System.out.print("\tEnter user password: ");
-         String password = in.readLine();
-
-         String query = String.format("SELECT * FROM USERS WHERE login = '%s' AND password = '%s'", login, password);
-         int userNum = esql.executeQuery(query);
-	 if (userNum > 0)
-		return login;
-         return null;
+         term.out.print("\tEnter user login: ");
+         String login = term.readLine();
+         term.out.print("\tEnter user password: ");
+         String password = term.readLine();
+
+         return Session.logIn(esql, login, password);
       }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
          return null;
       }
    }//end
 
 // Rest of the functions definition go in here
 
-   public static void Menu(Cafe esql, String sessionLogin){
+   public static void Menu(Cafe esql, Terminal term, Session session){
      try{
      boolean inItemMenu = true; //Boolean to keep looping the menu
-     String query = String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = 'Manager'", sessionLogin); //Query to check if the logged in user is a manager
-     int managerCheck =  esql.executeQuery(query);
-     if(managerCheck > 0){ //If they are a manager
+     if(session.isManager()){ //If they are a manager
          while(inItemMenu){
-            System.out.println("SEARCH MENU");
-            System.out.println("-----------");
-            System.out.println("1. Search item by name");
-            System.out.println("2. Search item by type");
-            System.out.println("3. Add item");
-            System.out.println("4. Update item");
-            System.out.println("5. Delete item");
-            System.out.println("9. Back to main menu");
-            switch (readChoice()){
-               case 1: itemNameSearch(esql); break;
-               case 2: itemTypeSearch(esql); break;
-               case 3: addItem(esql); break;
-               case 4: updateItem(esql); break;
-               case 5: deleteItem(esql); break;
+            term.out.println("SEARCH MENU");
+            term.out.println("-----------");
+            term.out.println("1. Search item by name");
+            term.out.println("2. Search item by type");
+            term.out.println("3. Add item");
+            term.out.println("4. Update item");
+            term.out.println("5. Delete item");
+            term.out.println("6. Sales reports");
+            term.out.println("9. Back to main menu");
+            switch (readChoice(term)){
+               case 1: itemNameSearch(esql, term); break;
+               case 2: itemTypeSearch(esql, term); break;
+               case 3: addItem(esql, term); break;
+               case 4: updateItem(esql, term); break;
+               case 5: deleteItem(esql, term); break;
+               case 6: displaySalesReports(esql, term); break;
                case 9: inItemMenu = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
+               default : term.out.println("Unrecognized choice!"); break;
             }
          }
      } else {
          while(inItemMenu){
-            System.out.println("SEARCH MENU");
-            System.out.println("-----------");
-            System.out.println("1. Search item by name");
-            System.out.println("2. Search item by type");
-            System.out.println("9. Back to main menu");
-            switch (readChoice()){
-               case 1: itemNameSearch(esql); break;
-               case 2: itemTypeSearch(esql); break;
+            term.out.println("SEARCH MENU");
+            term.out.println("-----------");
+            term.out.println("1. Search item by name");
+            term.out.println("2. Search item by type");
+            term.out.println("9. Back to main menu");
+            switch (readChoice(term)){
+               case 1: itemNameSearch(esql, term); break;
+               case 2: itemTypeSearch(esql, term); break;
                case 9: inItemMenu = false; break;
-               default : System.out.println("Unrecognized choice!"); break;
+               default : term.out.println("Unrecognized choice!"); break;
             }
          }
         
      }
      }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
 
-  public static void printSearchResults(List<List<String>> results){
+  public static void printSearchResults(Terminal term, List<MenuItem> results){
 	for(int i = 0; i < results.size(); i++){
-		System.out.println("------------------------------------------------------------------------------");
-		System.out.println("Item Name: " + results.get(i).get(0));
-		System.out.println("Type: " + results.get(i).get(1));
-		System.out.println("Price: " + results.get(i).get(2));
-		System.out.println("Description: " + results.get(i).get(3));
-		System.out.println("Image URL: " + results.get(i).get(4));
+		term.out.println("------------------------------------------------------------------------------");
+		term.out.println("Item Name: " + results.get(i).getItemName());
+		term.out.println("Type: " + results.get(i).getType());
+		term.out.println("Price: " + results.get(i).getPrice());
+		term.out.println("Description: " + results.get(i).getDescription());
+		term.out.println("Image URL: " + results.get(i).getImageURL());
 
 
 	}
 
   }
 
-  public static void itemNameSearch(Cafe esql){
+  public static void itemNameSearch(Cafe esql, Terminal term){
      try{
      boolean inputNotRead = true; //bool to check if input is < 50 characters
      String input = "";
      while (inputNotRead){ //gets input
-     System.out.println("Enter name of item to search (item name should not be more than 50 characters):");
-      input = in.readLine();
+     term.out.println("Enter name of item to search (item name should not be more than 50 characters):");
+      input = term.readLine();
       if(input.length() > 50){
-         System.out.println("Item name should not be over 50 characters");
+         term.out.println("Item name should not be over 50 characters");
       } else {
          inputNotRead = false;
       }
      }
-     String query = String.format("SELECT *  FROM Menu M WHERE M.itemName = '%s'", input); //query to find tuples with item name matching input
-    printSearchResults(esql.executeQueryAndReturnResult(query));
+     MenuItem item = esql.menu().byName(input); //cached menu item with name matching input
+     printSearchResults(term, item == null ? Collections.<MenuItem>emptyList() : Collections.singletonList(item));
      }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
 
-  public static void itemTypeSearch(Cafe esql){
+  public static void itemTypeSearch(Cafe esql, Terminal term){
    try{
      boolean inputNotRead = true; //bool to check if input is < 20 characters
      String input = "";
      while (inputNotRead){ //gets input
-     System.out.println("Enter type of item to search (type name should not be more than 20 characters):");
-      input = in.readLine();
+     term.out.println("Enter type of item to search (type name should not be more than 20 characters):");
+      input = term.readLine();
       if(input.length() > 20){
-         System.out.println("Item type should not be over 20 characters");
+         term.out.println("Item type should not be over 20 characters");
       } else {
          inputNotRead = false;
       }
      }
-     String query = String.format("SELECT *  FROM Menu M WHERE M.type = '%s'", input); //query to find tuples with item name matching input
-     printSearchResults(esql.executeQueryAndReturnResult(query)); 
+     printSearchResults(term, esql.menu().byType(input)); //cached menu items with type matching input
      }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
 
   }
 
-  public static void addItem(Cafe esql){
+  public static void addItem(Cafe esql, Terminal term){
     try{
       String itemName = "";
       String type = "";
@@ -524,16 +1528,16 @@ public class Cafe {
       double roundPrice = 0;
       boolean invalidInput = true;
       while(invalidInput){ //Loop to check for valid item name
-      	System.out.println("Enter name of item to insert, must be less than 50 characters (type EXIT to quit and cancel item creation)");
-      	itemName = in.readLine();
+      	term.out.println("Enter name of item to insert, must be less than 50 characters (type EXIT to quit and cancel item creation)");
+      	itemName = term.readLine();
       	if(itemName.equals("EXIT")){ //Checks if user wants to quit
 	   return;
         } else
         if(itemName.length() > 50 || itemName.length() < 1){ //Checks if itemName is within domain
-	   System.out.println("Item name must not be greater than 50 characters and not empty");
+	   term.out.println("Item name must not be greater than 50 characters and not empty");
 	} else
-        if(esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", itemName)) > 0){ //Checks if itemName already exists since it is primary key
-	   System.out.println("Item name should be unique, there already exists an item with the same name in the menu.");
+        if(esql.menu().containsName(itemName)){ //Checks if itemName already exists since it is primary key
+	   term.out.println("Item name should be unique, there already exists an item with the same name in the menu.");
         } else { //If every condition is satisfied, break out of loop
            invalidInput = false;
         }
@@ -541,13 +1545,13 @@ public class Cafe {
 
       invalidInput = true;
       while(invalidInput){ //Loop to check for valid item type
-        System.out.println("Enter type of item to insert, must be less than 20 characters (type EXIT to quit and cancel item creation)");
-        type = in.readLine();
+        term.out.println("Enter type of item to insert, must be less than 20 characters (type EXIT to quit and cancel item creation)");
+        type = term.readLine();
         if(type.equals("EXIT")){ //Checks if user wants to quit
            return;
         } else
         if(type.length() > 20 || type.length() < 1){ //Checks if type is within domain
-           System.out.println("Item type must not be greater than 20 characters and not empty");
+           term.out.println("Item type must not be greater than 20 characters and not empty");
         } else { //If every condition is satisfied, break out of loop
            invalidInput = false;
         }
@@ -556,12 +1560,12 @@ public class Cafe {
       invalidInput = true;
       while(invalidInput){ //Loop to check for valid item price
        do{        
-	System.out.println("Enter price of item to insert (type -1 to quit and cancel item creation)");
+	term.out.println("Enter price of item to insert (type -1 to quit and cancel item creation)");
 	try{
-           price = Double.parseDouble(in.readLine());
+           price = Double.parseDouble(term.readLine());
 	   break;
-        } catch (Exception e){
-	   System.out.println("Please enter a numerical value");
+        } catch (NumberFormatException e){
+	   term.out.println("Please enter a numerical value");
            continue;
 	}
         }while(true);
@@ -569,11 +1573,11 @@ public class Cafe {
            return;
         } else
         if(price < 0){ //Checks if type is within domain
-           System.out.println("Item price must not be negative");
+           term.out.println("Item price must not be negative");
         } else 
         if (price == 0){
-	   System.out.println("***WARNING*** You seem to be creating an item with a price of 0, type \"CONFIRM\" to procceed, or type anything else to exit item creation");
-           userInput = in.readLine();
+	   term.out.println("***WARNING*** You seem to be creating an item with a price of 0, type \"CONFIRM\" to procceed, or type anything else to exit item creation");
+           userInput = term.readLine();
            if(!userInput.equals("CONFIRM")){
               return;
            }
@@ -587,14 +1591,14 @@ public class Cafe {
            if(numPlaces > 2){ //If more than 2 decimal places
 	      truncPrice = (Math.floor(price*100.00))/100.00;
 	      roundPrice = (Math.round(price*100.00))/100.00;
-	      System.out.println("Your price has more than two decimal places, which is not applicable for a price, would you like to truncade the price to two decimal places or round the price to two decimal places?");
-	      System.out.println("OPTIONS");
-	      System.out.println("1. Truncade (" + price + " --> " + truncPrice + ")");
-	      System.out.println("2. Round (" + price + " --> " + roundPrice + ")");
-           switch(readChoice()){
+	      term.out.println("Your price has more than two decimal places, which is not applicable for a price, would you like to truncade the price to two decimal places or round the price to two decimal places?");
+	      term.out.println("OPTIONS");
+	      term.out.println("1. Truncade (" + price + " --> " + truncPrice + ")");
+	      term.out.println("2. Round (" + price + " --> " + roundPrice + ")");
+           switch(readChoice(term)){
                 case 1: price = truncPrice; priceFix = false; break;
                 case 2: price = roundPrice; priceFix = false; break;
-                default: System.out.println("Unrecognized choice!"); break;
+                default: term.out.println("Unrecognized choice!"); break;
            }
 	  
 	 } else {
@@ -608,14 +1612,14 @@ public class Cafe {
 }
     invalidInput = true;
     while(invalidInput){ //Loop to check for valid description
-	System.out.println("Enter description of item to insert, type NONE or hit enter for no description (description must be at most 400 characters)");
-	description = in.readLine();
+	term.out.println("Enter description of item to insert, type NONE or hit enter for no description (description must be at most 400 characters)");
+	description = term.readLine();
 	if(description.equals("NONE")){ //Checks if description is NONE
 	   description = "";
 	   invalidInput = false;
 	} else
 	if(description.length() > 400){ //Checks if description is within domain
-	   System.out.println("Description must be at most 400 characters");
+	   term.out.println("Description must be at most 400 characters");
 	} else { //Break out of loop otherwise
 	   invalidInput = false;
 	}
@@ -623,59 +1627,60 @@ public class Cafe {
 
     invalidInput = true;
     while(invalidInput){ //Loop to check for valid image URL
-        System.out.println("Enter image URL of item to insert, type NONE or hit enter for no image URL (image URL must be at most 256 characters)");
-        imageURL = in.readLine();
+        term.out.println("Enter image URL of item to insert, type NONE or hit enter for no image URL (image URL must be at most 256 characters)");
+        imageURL = term.readLine();
         if(imageURL.equals("NONE")){ //Checks if image url is NONE
            imageURL = "";
            invalidInput = false;
         } else
         if(imageURL.length() > 256){ //Checks if image URL is within domain
-           System.out.println("Image URL must be at most 256 characters");
+           term.out.println("Image URL must be at most 256 characters");
         } else { //Break out of loop otherwise
            invalidInput = false;
         }
     }
 
-    esql.executeUpdate(String.format("INSERT INTO Menu (itemName, type, price, description, imageURL) VALUES ('%s', '%s', '%s', '%s', '%s')", itemName, type, price, description, imageURL));
+    esql.executeUpdate("INSERT INTO Menu (itemName, type, price, description, imageURL) VALUES (?, ?, ?, ?, ?)", itemName, type, price, description, imageURL);
+    esql.menu().invalidate();
  
 
     }catch(Exception e){
-       System.err.println (e.getMessage ());
+       term.err.println (e.getMessage ());
     }   
   }
 
-  public static void updateItem(Cafe esql){
+  public static void updateItem(Cafe esql, Terminal term) throws Terminal.Hangup {
       while(true){
-	System.out.println("UPDATE MENU");
-	System.out.println("-----------");
-	System.out.println("1. Update Specific Item");
-	System.out.println("2. Change Item Type");
-	System.out.println("9. Back to main menu");
-	switch(readChoice()){
-	   case 1: updateSpecific(esql); break;
-	   case 2: changeType(esql); break;
+	term.out.println("UPDATE MENU");
+	term.out.println("-----------");
+	term.out.println("1. Update Specific Item");
+	term.out.println("2. Change Item Type");
+	term.out.println("9. Back to main menu");
+	switch(readChoice(term)){
+	   case 1: updateSpecific(esql, term); break;
+	   case 2: changeType(esql, term); break;
 	   case 9: return; 
-	   default : System.out.println("Unrecognized choice!"); break;
+	   default : term.out.println("Unrecognized choice!"); break;
 	}
       }   	
   }
 
-  public static void updateSpecific(Cafe esql){
+  public static void updateSpecific(Cafe esql, Terminal term){
     try{
      boolean invalidItem = true;
      String input = "";
      while(invalidItem){
-	System.out.println("Enter name of item to update (item names are not more than 50 characters)");
-	System.out.println("Type EXIT to exit update process");
-	input = in.readLine();
+	term.out.println("Enter name of item to update (item names are not more than 50 characters)");
+	term.out.println("Type EXIT to exit update process");
+	input = term.readLine();
 	if(input.equals("EXIT")){
 	   return;
 	} else
 	if(input.length() > 50){
-	   System.out.println("Item name can not be over 50 characters");
+	   term.out.println("Item name can not be over 50 characters");
 	} else
-	if(esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", input)) == 0){
-	   System.out.println("Item with that name does not exist. Item name is CaSe sensitive.");
+	if(!esql.menu().containsName(input)){
+	   term.out.println("Item with that name does not exist. Item name is CaSe sensitive.");
 	} else {
 	   invalidItem = false;
 	}
@@ -691,8 +1696,8 @@ public class Cafe {
       double roundPrice = 0;
       boolean invalidInput = true;
       while(invalidInput){ //Loop to check for valid item name
-      	System.out.println("ENTER \"SKIP\" TO KEEP OLD ITEM NAME--Enter new item name, must be less than 50 characters (type EXIT to quit and cancel item update)");
-      	itemName = in.readLine();
+      	term.out.println("ENTER \"SKIP\" TO KEEP OLD ITEM NAME--Enter new item name, must be less than 50 characters (type EXIT to quit and cancel item update)");
+      	itemName = term.readLine();
       	if(itemName.equals("EXIT")){ //Checks if user wants to quit
 	   return;
         } else
@@ -700,10 +1705,10 @@ public class Cafe {
 	   invalidInput = false;
 	} else
         if(itemName.length() > 50 || itemName.length() < 1){ //Checks if itemName is within domain
-	   System.out.println("Item name must not be greater than 50 characters and not empty");
+	   term.out.println("Item name must not be greater than 50 characters and not empty");
 	} else
-        if(esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", itemName)) > 0){ //Checks if itemName already exists since it is primary key
-	   System.out.println("Item name should be unique, there already exists an item with the same name in the menu.");
+        if(esql.menu().containsName(itemName)){ //Checks if itemName already exists since it is primary key
+	   term.out.println("Item name should be unique, there already exists an item with the same name in the menu.");
         } else { //If every condition is satisfied, break out of loop
            invalidInput = false;
         }
@@ -711,8 +1716,8 @@ public class Cafe {
 
       invalidInput = true;
       while(invalidInput){ //Loop to check for valid item type
-        System.out.println("ENTER \"SKIP\" TO KEEP OLD ITEM TYPE--Enter new item type, must be less than 20 characters (type EXIT to quit and cancel item update)");
-        type = in.readLine();
+        term.out.println("ENTER \"SKIP\" TO KEEP OLD ITEM TYPE--Enter new item type, must be less than 20 characters (type EXIT to quit and cancel item update)");
+        type = term.readLine();
         if(type.equals("EXIT")){ //Checks if user wants to quit
            return;
         } else
@@ -720,7 +1725,7 @@ public class Cafe {
 	   invalidInput = false;
 	} else
         if(type.length() > 20 || type.length() < 1){ //Checks if type is within domain
-           System.out.println("Item name must not be greater than 20 characters and not empty");
+           term.out.println("Item name must not be greater than 20 characters and not empty");
         } else { //If every condition is satisfied, break out of loop
            invalidInput = false;
         }
@@ -729,12 +1734,12 @@ public class Cafe {
       invalidInput = true;
       while(invalidInput){ //Loop to check for valid item price
        do{        
-	System.out.println("ENTER \"-2\" TO KEEP OLD ITEM PRICE--Enter new item price (type -1 to quit and cancel item update)");
+	term.out.println("ENTER \"-2\" TO KEEP OLD ITEM PRICE--Enter new item price (type -1 to quit and cancel item update)");
 	try{
-           price = Double.parseDouble(in.readLine());
+           price = Double.parseDouble(term.readLine());
 	   break;
-        } catch (Exception e){
-	   System.out.println("Please enter a numerical value");
+        } catch (NumberFormatException e){
+	   term.out.println("Please enter a numerical value");
            continue;
 	}
         }while(true);
@@ -745,11 +1750,11 @@ public class Cafe {
 	   invalidInput = false;
 	} else
         if(price < 0){ //Checks if type is within domain
-           System.out.println("Item price must not be negative");
+           term.out.println("Item price must not be negative");
         } else 
         if (price == 0){
-	   System.out.println("***WARNING*** You seem to be setting an item price to 0, type \"CONFIRM\" to procceed, or type anything else to cancel item update");
-           userInput = in.readLine();
+	   term.out.println("***WARNING*** You seem to be setting an item price to 0, type \"CONFIRM\" to procceed, or type anything else to cancel item update");
+           userInput = term.readLine();
            if(!userInput.equals("CONFIRM")){
               return;
            }
@@ -763,14 +1768,14 @@ public class Cafe {
            if(numPlaces > 2){ //If more than 2 decimal places
 	      truncPrice = (Math.floor(price*100.00))/100.00;
 	      roundPrice = (Math.round(price*100.00))/100.00;
-	      System.out.println("Your price has more than two decimal places, which is not applicable for a price, would you like to truncade the price to two decimal places or round the price to two decimal places?");
-	      System.out.println("OPTIONS");
-	      System.out.println("1. Truncade (" + price + " --> " + truncPrice + ")");
-	      System.out.println("2. Round (" + price + " --> " + roundPrice + ")");
-           switch(readChoice()){
+	      term.out.println("Your price has more than two decimal places, which is not applicable for a price, would you like to truncade the price to two decimal places or round the price to two decimal places?");
+	      term.out.println("OPTIONS");
+	      term.out.println("1. Truncade (" + price + " --> " + truncPrice + ")");
+	      term.out.println("2. Round (" + price + " --> " + roundPrice + ")");
+           switch(readChoice(term)){
                 case 1: price = truncPrice; priceFix = false; break;
                 case 2: price = roundPrice; priceFix = false; break;
-                default: System.out.println("Unrecognized choice!"); break;
+                default: term.out.println("Unrecognized choice!"); break;
            }
 	  
 	 } else {
@@ -782,8 +1787,8 @@ public class Cafe {
 	}
     invalidInput = true;
     while(invalidInput){ //Loop to check for valid description
-	System.out.println("Enter \"SKIP\" TO KEEP OLD DESCRIPTION--Enter new description of item, type NONE or hit enter for no description (description must be at most 400 characters)");
-	description = in.readLine();
+	term.out.println("Enter \"SKIP\" TO KEEP OLD DESCRIPTION--Enter new description of item, type NONE or hit enter for no description (description must be at most 400 characters)");
+	description = term.readLine();
 	if(description.equals("SKIP")){
 	  invalidInput = false;
 	} else
@@ -792,7 +1797,7 @@ public class Cafe {
 	   invalidInput = false;
 	} else
 	if(description.length() > 400){ //Checks if description is within domain
-	   System.out.println("Description must be at most 400 characters");
+	   term.out.println("Description must be at most 400 characters");
 	} else { //Break out of loop otherwise
 	   invalidInput = false;
 	}
@@ -800,8 +1805,8 @@ public class Cafe {
 
     invalidInput = true;
     while(invalidInput){ //Loop to check for valid image URL
-        System.out.println("ENTER \"SKIP\" TO KEEP OLD IMAGE URL--Enter image URL of item to insert, type NONE or hit enter for no image URL (image URL must be at most 256 characters)");
-        imageURL = in.readLine();
+        term.out.println("ENTER \"SKIP\" TO KEEP OLD IMAGE URL--Enter image URL of item to insert, type NONE or hit enter for no image URL (image URL must be at most 256 characters)");
+        imageURL = term.readLine();
 	if(imageURL.equals("SKIP")){
 	   invalidInput = false;
 	} else
@@ -810,132 +1815,129 @@ public class Cafe {
            invalidInput = false;
         } else
         if(imageURL.length() > 256){ //Checks if image URL is within domain
-           System.out.println("Image URL must be at most 256 characters");
+           term.out.println("Image URL must be at most 256 characters");
         } else { //Break out of loop otherwise
            invalidInput = false;
         }
     }
 
     if(!type.equals("SKIP")){
-        esql.executeUpdate(String.format("UPDATE Menu SET type = '%s' WHERE itemName = '%s'", type, input));
+        esql.executeUpdate("UPDATE Menu SET type = ? WHERE itemName = ?", type, input);
     }
     if(price != -2){
-        esql.executeUpdate(String.format("UPDATE Menu SET price = '%s' WHERE itemName = '%s'", price, input));
+        esql.executeUpdate("UPDATE Menu SET price = ? WHERE itemName = ?", price, input);
     }
     if(!description.equals("SKIP")){
-        esql.executeUpdate(String.format("UPDATE Menu SET description = '%s' WHERE itemName = '%s'", description, input));
+        esql.executeUpdate("UPDATE Menu SET description = ? WHERE itemName = ?", description, input);
     }
     if(!imageURL.equals("SKIP")){
-        esql.executeUpdate(String.format("UPDATE Menu SET imageURL = '%s' WHERE itemName = '%s'", imageURL, input));
+        esql.executeUpdate("UPDATE Menu SET imageURL = ? WHERE itemName = ?", imageURL, input);
     }
     if(!itemName.equals("SKIP")){
-        esql.executeUpdate(String.format("UPDATE Menu SET itemName = '%s' WHERE itemName = '%s'", itemName, input));
+        esql.executeUpdate("UPDATE Menu SET itemName = ? WHERE itemName = ?", itemName, input);
     }
+    esql.menu().invalidate();
 
 
      } catch(Exception e){
-	System.err.println(e.getMessage());
+	term.err.println(e.getMessage());
      }
     
   }
 
-  public static void changeType(Cafe esql){
+  public static void changeType(Cafe esql, Terminal term){
     try{
 	String input = "";
 	String type = "";
 	boolean invalidInput = true;
         while(invalidInput){
-	   System.out.println("Enter item type to change (type \"EXIT\" to quit)");
-	   input = in.readLine();
+	   term.out.println("Enter item type to change (type \"EXIT\" to quit)");
+	   input = term.readLine();
 	   if(input.equals("EXIT")){
 		return;
-	   } else if(esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.type = '%s'", input)) == 0){
-		System.out.println("Item type does not exist");
+	   } else if(!esql.menu().containsType(input)){
+		term.out.println("Item type does not exist");
 	   } else {
 		invalidInput = false;
 	   }
 	}
 	invalidInput = true;
 	while(invalidInput){
-	   System.out.println("Enter new item type, must be less than 20 characters (type EXIT to quit)");
-	   type = in.readLine();
+	   term.out.println("Enter new item type, must be less than 20 characters (type EXIT to quit)");
+	   type = term.readLine();
            if(type.equals("EXIT")){ //Checks if user wants to quit
            	return;
            } else
            if(type.length() > 20 || type.length() < 1){ //Checks if type is within domain
-           	System.out.println("Item type must not be greater than 20 characters and not empty");
+           	term.out.println("Item type must not be greater than 20 characters and not empty");
            } else { //If every condition is satisfied, break out of loop
            	invalidInput = false;
            }
         }
-	esql.executeUpdate(String.format("UPDATE Menu SET type = '%s' WHERE type = '%s'", type, input));
+	esql.executeUpdate("UPDATE Menu SET type = ? WHERE type = ?", type, input);
+	esql.menu().invalidate();
 	
     } catch (Exception e){
-	System.err.println(e.getMessage());
+	term.err.println(e.getMessage());
     }
   }
 
-  public static void deleteItem(Cafe esql){
+  public static void deleteItem(Cafe esql, Terminal term){
       try{	
 	String input = "";
 	boolean invalidInput = true;
 	while(invalidInput){
-	   System.out.println("Enter name of item to delete, type \"EXIT\" to exit");
-	   input = in.readLine();
+	   term.out.println("Enter name of item to delete, type \"EXIT\" to exit");
+	   input = term.readLine();
 	   if(input.equals("EXIT")){
 		return;
-	   } else if (esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.itemName = '%s'", input)) == 0){
-		System.out.println("Item name not found");
+	   } else if (!esql.menu().containsName(input)){
+		term.out.println("Item name not found");
 	   } else {
-		esql.executeUpdate(String.format("DELETE FROM Menu M WHERE M.itemname = '%s'", input));
+		esql.executeUpdate("DELETE FROM Menu M WHERE M.itemname = ?", input);
+		esql.menu().invalidate();
 		invalidInput = false;
 	   }
 	}
       } catch (Exception e){
-	System.err.println(e.getMessage());
+	term.err.println(e.getMessage());
 	}
   }
 
-  public static void UpdateProfile(Cafe esql, String sessionLogin, String oldPass, String oldType){
+  public static void UpdateProfile(Cafe esql, Terminal term, Session session){
     try{
-    String query = String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = 'Manager'", sessionLogin); //Query to check if the logged in user is a manager
-    int managerCheck =  esql.executeQuery(query);
+    String sessionLogin = session.getLogin();
+    boolean managerCheck =  session.isManager();
     boolean updateMenu = true;
-    boolean loginChanged = false;
-    boolean passChanged = false;
-    boolean typeChanged = false;
     boolean invalidInput = true;
     String input = "";
     while(updateMenu){
-    if(managerCheck > 0){
-	System.out.println("UPDATE");
-	System.out.println("-----------");
-	System.out.println("1. Update self");
-	System.out.println("2. Update other user");
-	System.out.println("9. Back to main menu");
-	switch(readChoice()){
+    if(managerCheck){
+	term.out.println("UPDATE");
+	term.out.println("-----------");
+	term.out.println("1. Update self");
+	term.out.println("2. Update other user");
+	term.out.println("9. Back to main menu");
+	switch(readChoice(term)){
 	   case 1: 
-	   updateManager(esql, sessionLogin);
-	   loginChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s'", sessionLogin)) == 0);
-	   passChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.password = '%s'", sessionLogin, oldPass)) == 0);
-	   typeChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.type = '%s'", sessionLogin, oldType)) == 0);
-	   if(loginChanged || passChanged || typeChanged){
+	   updateManager(esql, term, session, sessionLogin);
+	   if(!session.isValid()){
 	      return;
 	   }
 	   break;
 	   case 2:
 	   invalidInput = true;
 	   while(invalidInput){
-	   	System.out.println("Enter login of another user to edit their profile, or enter \"EXIT\" to quit");
-		input = in.readLine();
+	   	term.out.println("Enter login of another user to edit their profile, or enter \"EXIT\" to quit");
+		input = term.readLine();
 		if(input.equals("EXIT")){
 		  invalidInput = false;
 		} else if (input.equals(sessionLogin)){
-		    System.out.println("You cannot choose yourself!");
-		} else if(esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s'", input)) == 0){
-		    System.out.println("User does not exist!");
+		    term.out.println("You cannot choose yourself!");
+		} else if(!esql.exists("SELECT 1 FROM Users U WHERE U.login = ?", input)){
+		    term.out.println("User does not exist!");
 		} else {
-	   	updateManager(esql, input); break;
+	   	updateManager(esql, term, session, input); break;
 		}
 	   }
 	   break;
@@ -943,15 +1945,14 @@ public class Cafe {
 	}
 	
     } else {
-        System.out.println("UPDATE");
-        System.out.println("-----------");
-        System.out.println("1. Update self");
-        System.out.println("9. Back to main menu");
-        switch(readChoice()){
+        term.out.println("UPDATE");
+        term.out.println("-----------");
+        term.out.println("1. Update self");
+        term.out.println("9. Back to main menu");
+        switch(readChoice(term)){
            case 1: 
-           selfUpdate(esql, sessionLogin);
-           passChanged = (esql.executeQuery(String.format("SELECT * FROM Users U WHERE U.login = '%s' AND U.password = '%s'", sessionLogin, oldPass)) == 0);
-           if(passChanged){
+           selfUpdate(esql, term, session);
+           if(!session.isValid()){
               return;
            }
            break;
@@ -962,69 +1963,77 @@ public class Cafe {
     }
    }
         }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
-  public static void selfUpdate(Cafe esql, String sessionLogin){
+  public static void selfUpdate(Cafe esql, Terminal term, Session session){
 	try{
+	String sessionLogin = session.getLogin();
+	boolean changed = false;
 	boolean inMenu = true;
 	String input = "EXIT";
 	String phoneNum = "EXIT";
 	String password = "EXIT";
         while(inMenu){
-           System.out.println("UPDATE PROFILE");
-           System.out.println("-----------");
-           System.out.println("1. Update phone number");
-           System.out.println("2. Update password - IF PASSWORD CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
-           System.out.println("3. Update favorite items");
-           System.out.println("9. Back to main menu");
-	   switch(readChoice()){
+           term.out.println("UPDATE PROFILE");
+           term.out.println("-----------");
+           term.out.println("1. Update phone number");
+           term.out.println("2. Update password - IF PASSWORD CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
+           term.out.println("3. Update favorite items");
+           term.out.println("9. Back to main menu");
+	   switch(readChoice(term)){
 		case 1:
-                System.out.println("Enter new phone number, or enter \"EXIT\" to quit");
-                input = in.readLine();
+                term.out.println("Enter new phone number, or enter \"EXIT\" to quit");
+                input = term.readLine();
                 if(!input.equals("EXIT")){
-                  if(esql.executeQuery(String.format("SELECT * From Users U WHERE U.phoneNum = '%s'", input)) > 0){
-                        System.out.println("Another user with the same phone number exists!");
+                  if(esql.exists("SELECT 1 FROM Users U WHERE U.phoneNum = ?", input)){
+                        term.out.println("Another user with the same phone number exists!");
                    } else if(input.length() > 16){
-                        System.out.println("Login should be less than 16 characters");
+                        term.out.println("Login should be less than 16 characters");
                    } else{
                    phoneNum = input;
                    }
                 }
                 break;
                 case 2:
-                System.out.println("Enter new password, or enter \"EXIT\" to quit");
-                input = in.readLine();
+                term.out.println("Enter new password, or enter \"EXIT\" to quit");
+                input = term.readLine();
                 if(!input.equals("EXIT")){
                    if(input.length() > 50 || input.length() < 1){
-                        System.out.println("Password should be between 1-50 characters");
+                        term.out.println("Password should be between 1-50 characters");
                    } else {
                         password = input;
                    }
                 }
                 break;
                 case 3:
-                   changeFavItems(esql, sessionLogin); break;
-		default : System.out.println("Unrecognized choice!"); break;
+                   changed |= changeFavItems(esql, term, sessionLogin); break;
+		default : term.out.println("Unrecognized choice!"); break;
 		case 9: inMenu = false; break;
 	   }
 	}
 	if(!phoneNum.equals("EXIT")){
-                esql.executeUpdate(String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s'", phoneNum, sessionLogin));
+                esql.executeUpdate("UPDATE Users SET phoneNum = ? WHERE login = ?", phoneNum, sessionLogin);
+                changed = true;
         }
         if(!password.equals("EXIT")){
-                esql.executeUpdate(String.format("UPDATE Users SET password = '%s' WHERE login = '%s'", password, sessionLogin));
+                esql.executeUpdate("UPDATE Users SET password = ? WHERE login = ?", password, sessionLogin);
+                changed = true;
+        }
+        if(changed){ //reload the cached profile, a new password ends the session
+                session.refresh(esql);
         }
 
 
 
         }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
 
-  public static void updateManager(Cafe esql, String sessionLogin){
+  public static void updateManager(Cafe esql, Terminal term, Session session, String sessionLogin){
 	try{
+	boolean changed = false;
 	boolean inMenu = true;
 	String input = "EXIT";
 	String login = "EXIT";
@@ -1033,137 +2042,147 @@ public class Cafe {
 	String type = "EXIT";
 	
 	while(inMenu){
-	   System.out.println("UPDATE");
-	   System.out.println("-----------");
-	   System.out.println("1. Update login - IF YOUR LOGIN CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
-	   System.out.println("2. Update phone number");
-	   System.out.println("3. Update password - IF YOUR PASSWORD CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
-	   System.out.println("4. Update favorite items");
-	   System.out.println("5. Update type - IF YOUR TYPE CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
-	   System.out.println("9. Back to main menu");
-	   switch(readChoice()){
+	   term.out.println("UPDATE");
+	   term.out.println("-----------");
+	   term.out.println("1. Update login - IF YOUR LOGIN CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
+	   term.out.println("2. Update phone number");
+	   term.out.println("3. Update password - IF YOUR PASSWORD CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
+	   term.out.println("4. Update favorite items");
+	   term.out.println("5. Update type - IF YOUR TYPE CHANGED, YOU WILL BE REQUIRED TO LOGIN AGAIN");
+	   term.out.println("9. Back to main menu");
+	   switch(readChoice(term)){
 		case 1:
-		System.out.println("Enter new login, or enter \"EXIT\" to quit");
-		input = in.readLine();
+		term.out.println("Enter new login, or enter \"EXIT\" to quit");
+		input = term.readLine();
 		if(!input.equals("EXIT")){
-		   if(esql.executeQuery(String.format("SELECT * From Users U WHERE U.login = '%s'", input)) > 0){
-			System.out.println("Another user with the same login exists!");
+		   if(esql.exists("SELECT 1 FROM Users U WHERE U.login = ?", input)){
+			term.out.println("Another user with the same login exists!");
 		   } else if(input.length() > 50 || input.length() < 1){
-			System.out.println("Login should be between 1-50 characters");
+			term.out.println("Login should be between 1-50 characters");
 		   } else{
 		   login = input;
 		   }
 		}
 		break;
 		case 2:
-		System.out.println("Enter new phone number, or enter \"EXIT\" to quit");
-		input = in.readLine();
+		term.out.println("Enter new phone number, or enter \"EXIT\" to quit");
+		input = term.readLine();
 		if(!input.equals("EXIT")){
-		  if(esql.executeQuery(String.format("SELECT * From Users U WHERE U.phoneNum = '%s'", input)) > 0){
-                        System.out.println("Another user with the same phone number exists!");
+		  if(esql.exists("SELECT 1 FROM Users U WHERE U.phoneNum = ?", input)){
+                        term.out.println("Another user with the same phone number exists!");
                    } else if(input.length() > 16){
-                        System.out.println("Phone number should be less than 16 characters");
+                        term.out.println("Phone number should be less than 16 characters");
                    } else{
 		   phoneNum = input;
 		   }
 		}
 		break;
                 case 3:
-                System.out.println("Enter new password, or enter \"EXIT\" to quit");
-                input = in.readLine();
+                term.out.println("Enter new password, or enter \"EXIT\" to quit");
+                input = term.readLine();
                 if(!input.equals("EXIT")){
 		   if(input.length() > 50 || input.length() < 1){
-                        System.out.println("Password should be between 1-50 characters");
+                        term.out.println("Password should be between 1-50 characters");
 		   } else {
                         password = input;
 		   }
                 }
                 break;
 		case 4:
-		   changeFavItems(esql, sessionLogin);
+		   changed |= changeFavItems(esql, term, sessionLogin);
 		break;
 		case 5:
-                System.out.println("Enter new type, or enter \"EXIT\" to quit");
-                input = in.readLine();
+                term.out.println("Enter new type, or enter \"EXIT\" to quit");
+                input = term.readLine();
                 if(!input.equals("EXIT")){
 		   if(input.equals("Manager") || input.equals("Employee") || input.equals("Customer")){
                    type = input;
 		   } else {
-		   System.out.println("Type should be Manager, Employee, or Customer");
+		   term.out.println("Type should be Manager, Employee, or Customer");
 		   }
                 }
                 break;
 		case 9:
 		inMenu = false; break;
-		default : System.out.println("Unrecognized choice!"); break;
+		default : term.out.println("Unrecognized choice!"); break;
 
 	   }
 	}
 	if(!login.equals("EXIT")){
-		esql.executeUpdate(String.format("UPDATE Users SET login = '%s' WHERE login = '%s'", login, sessionLogin));
+		esql.executeUpdate("UPDATE Users SET login = ? WHERE login = ?", login, sessionLogin);
+		changed = true;
 	}
         if(!phoneNum.equals("EXIT")){
-                esql.executeUpdate(String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s'", phoneNum, sessionLogin));
+                esql.executeUpdate("UPDATE Users SET phoneNum = ? WHERE login = ?", phoneNum, sessionLogin);
+                changed = true;
         }
         if(!password.equals("EXIT")){
-                esql.executeUpdate(String.format("UPDATE Users SET password = '%s' WHERE login = '%s'", password, sessionLogin));
+                esql.executeUpdate("UPDATE Users SET password = ? WHERE login = ?", password, sessionLogin);
+                changed = true;
         }
 	if(!type.equals("EXIT")){
-                esql.executeUpdate(String.format("UPDATE Users SET type = '%s' WHERE login = '%s'", type, sessionLogin));
+                esql.executeUpdate("UPDATE Users SET type = ? WHERE login = ?", type, sessionLogin);
+                changed = true;
         }
 
+	if(changed && sessionLogin.equals(session.getLogin())){ //reload the cached profile if it was our own
+		session.refresh(esql);
+	}
+
 	}catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
 
 
-  public static void changeFavItems(Cafe esql, String sessionLogin){
+  /*
+   * Edits the favorite items of a user
+   * @return true if the list was changed
+   **/
+  public static boolean changeFavItems(Cafe esql, Terminal term, String sessionLogin){
+     boolean changed = false;
      try{
      boolean menu = true;
-     boolean readingInputs = true;
      String input = "";
-     String test = "";
-     String favItems = null;
 	while(menu){
-	   System.out.println("Favorite Items Menu");
-	   System.out.println("--------------");
-	   System.out.println("1. Set list of favorite items (this will remove your current list)");
-	   System.out.println("2. Remove list of favorite items");
-	   System.out.println("9. Back to main menu");
-	   switch(readChoice()){
+	   term.out.println("Favorite Items Menu");
+	   term.out.println("--------------");
+	   term.out.println("Current favorites: " + esql.favorites(sessionLogin));
+	   term.out.println("1. Set list of favorite items (this will remove your current list)");
+	   term.out.println("2. Remove list of favorite items");
+	   term.out.println("9. Back to main menu");
+	   switch(readChoice(term)){
 	      case 1:
-		test = "";
-	      	while(readingInputs){
-		   System.out.println("Enter an item to put on list, or type EXIT to stop adding");
-		   input = in.readLine();
+		List<String> favorites = new ArrayList<String>();
+	      	while(true){
+		   term.out.println("Enter an item to put on list, or type EXIT to stop adding");
+		   input = term.readLine();
 		   if(input.equals("EXIT")){
-			readingInputs = false;
 			break;
-		   } else {
-			if(test.length() == 0){
-			test += input;
-			} else {
-			test += ", " + input;
-			}
-			if(esql.executeQuery(String.format("SELECT * FROM Menu M WHERE M.itemname = '%s'", input)) == 0){
-			   System.out.println("That item is not on our item menu!");
-			} else if(test.length() > 400){
-			   System.out.println("List of item names too long!");
-			} else {
-			   favItems = test;
-			}
+		   } else if(!esql.menu().containsName(input)){
+			term.out.println("That item is not on our item menu!");
+		   } else if(favorites.size() >= MAX_FAVORITES){
+			term.out.println("List of favorite items too long!");
+		   } else if(!favorites.contains(input)){
+			favorites.add(input);
 		   }
 		}
-		esql.executeUpdate(String.format("UPDATE Users SET favItems = '%s' WHERE login = '%s'", favItems, sessionLogin));
+		List<String> unknown = esql.setFavorites(sessionLogin, favorites); // one query checks every item
+		if(!unknown.isEmpty()){
+		   term.out.println("No longer on our item menu: " + unknown);
+		   break;
+		}
+		changed = true;
 		break;
-	     case 2: esql.executeUpdate(String.format("UPDATE Users SET favItems = NULL WHERE login = '%s'", sessionLogin)); break;
-	     case 9: return;
+	     case 2: esql.setFavorites(sessionLogin, Collections.<String>emptyList()); changed = true; break;
+	     case 9: return changed;
+	     default : term.out.println("Unrecognized choice!"); break;
 	   }
 	}
 	     }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
+     return changed;
   }
 
 public static boolean existsInOrder(List<String> orderList, String item) {
@@ -1175,66 +2194,78 @@ public static boolean existsInOrder(List<String> orderList, String item) {
     return false;
 }
 
-public static void PlaceOrder(Cafe esql, String sessionLogin){
-    List<List<String>> menu = new ArrayList<List<String>> ();
+// Waits for an operation of the order writer, failing with its own error
+  private static <T> T await(java.util.concurrent.Future<T> result) throws Exception {
+      try {
+          return result.get();
+      }catch (java.util.concurrent.ExecutionException e) {
+          if (e.getCause() instanceof Exception)
+              throw (Exception) e.getCause();
+          throw e;
+      }
+  }
+
+public static void PlaceOrder(Cafe esql, Terminal term, String sessionLogin){
+    List<MenuItem> menu = new ArrayList<MenuItem> ();
     boolean inItemMenu = true;
 
         try{
-            menu = esql.executeQueryAndReturnResult("SELECT * FROM Menu"); // Get menu options to display to customer
+            menu = esql.menu().all(); // Get menu options to display to customer
          double total = 0;
          List<String> orderList = new ArrayList<String> (); 
 
          while(inItemMenu){
-            System.out.println("PLACE ORDER MENU");
-            System.out.println("-----------");
-            System.out.println("Current total: $" + new java.text.DecimalFormat("#.##").format(total)); // Display current total and item list of the order
-            System.out.println("Order: " + orderList);
+            term.out.println("PLACE ORDER MENU");
+            term.out.println("-----------");
+            term.out.println("Current total: $" + new java.text.DecimalFormat("#.##").format(total)); // Display current total and item list of the order
+            term.out.println("Order: " + orderList);
             for (int i = 1; i <= menu.size(); i++) { // Output list of items on the menu
-               String itemName = menu.get(i - 1).get(0);
-               System.out.println(i + ". " + itemName);
+               String itemName = menu.get(i - 1).getItemName();
+               term.out.println(i + ". " + itemName);
             }
 	  
-            System.out.println("---------"); 
+            term.out.println("---------"); 
             int lastChoice = menu.size() + 1; 
-            System.out.println(lastChoice + ". Back to main menu");
+            term.out.println(lastChoice + ". Back to main menu");
             if (orderList.size() > 0) {
-                System.out.println((lastChoice + 1) + ". Confirm order");
+                term.out.println((lastChoice + 1) + ". Confirm order");
             }            
-            System.out.println("//Select an item from above to add// ");
-            int a = readChoice();
+            term.out.println("//Select an item from above to add// ");
+            int a = readChoice(term);
             
 	    if (a == lastChoice) { // Exit Place Order view
                 inItemMenu = false;
             }
             else if (a < lastChoice) { // Get information of chosen item
-                String item = menu.get(a - 1).get(0).trim();
-                float price = Float.parseFloat(menu.get(a - 1).get(2));
-
-		System.out.println("----------------------------------");
-                System.out.println("ITEM: " + item);
-                System.out.println("PRICE: " + price);
-                System.out.println("Would you like to add " + item + " to your order?");
-                System.out.println("1. Add item");
-                System.out.println("2. Go back");
-
-                a = readChoice();
+                MenuItem chosen = menu.get(a - 1);
+                String item = chosen.getItemName();
+                float price = chosen.getPrice();
+
+		term.out.println("----------------------------------");
+                term.out.println("ITEM: " + item);
+                term.out.println("PRICE: " + price);
+                term.out.println("Would you like to add " + item + " to your order?");
+                term.out.println("1. Add item");
+                term.out.println("2. Go back");
+
+                a = readChoice(term);
                 boolean confirmation = true;                
                 
                 while (confirmation) {
                     switch(a) { // Add item to temporary list if confirmed
                         case 1: if (!existsInOrder(orderList, item)) {
-				    System.out.println(item + " added!");
+				    term.out.println(item + " added!");
                                     total += price;
                                     orderList.add(item);
                                 }
                                 else {
-				    System.out.println(item + " has already been added to your order");
+				    term.out.println(item + " has already been added to your order");
                                 }
-                                System.out.println("----------------------------------");
+                                term.out.println("----------------------------------");
                                 confirmation = false;
                                 break;
                         case 2: confirmation = false; break;
-                        default: System.out.println("Unrecognized choice!"); a = readChoice(); break; 
+                        default: term.out.println("Unrecognized choice!"); a = readChoice(term); break; 
                     } 
                 }
             }
@@ -1242,204 +2273,203 @@ public static void PlaceOrder(Cafe esql, String sessionLogin){
                 boolean confirmation = true;
 
 		while (confirmation) {
-                    System.out.println("----------------------------------");
-                    System.out.println("Current total: " + new java.text.DecimalFormat("#.##").format(total));
-                    System.out.println("Order: " + orderList);
-                    System.out.println("Confirm order?");
-                    System.out.println("1. Confirm");
-                    System.out.println("2. Go back");
+                    term.out.println("----------------------------------");
+                    term.out.println("Current total: " + new java.text.DecimalFormat("#.##").format(total));
+                    term.out.println("Order: " + orderList);
+                    term.out.println("Confirm order?");
+                    term.out.println("1. Confirm");
+                    term.out.println("2. Go back");
                
-                    a = readChoice();
+                    a = readChoice(term);
                     
                     switch(a) { // Final confirmation. Add order to Orders table and each item in the temporary list to ItemStatus
                         case 1: confirmation = false; inItemMenu = false;
                                 
-                                esql.executeUpdate(String.format("INSERT INTO Orders (login, paid, timeStampRecieved, total) VALUES ('%s', '%s', '%s', '%s')", sessionLogin.trim(), false, new java.sql.Timestamp(new java.util.Date().getTime()), new java.text.DecimalFormat("#.##").format(total)));
-                                                                
-                                List<List<String>> order = esql.executeQueryAndReturnResult(String.format("SELECT * FROM Orders O WHERE O.login = '%s' AND O.orderID = (SELECT MAX(O2.orderID) FROM ORDERS O2)", sessionLogin));
-                                for (int i = 0; i < orderList.size(); i++) {
-                                    esql.executeUpdate(String.format("INSERT INTO ItemStatus(orderId, itemName, lastUpdated, status) VALUES ('%s', '%s', '%s', '%s')", order.get(0).get(0), orderList.get(i).trim(), new java.sql.Timestamp(new java.util.Date().getTime()), "Hasn''t Started"));
-                                }
+                                // through the shared writer, which commits the orders of
+                                // concurrent sessions together
+                                int orderID = await(esql.orders().placeOrder(sessionLogin, orderList));
 
-                                System.out.println("Order confirmed!"); break;
+                                term.out.println("Order confirmed! Your order ID is " + orderID); break;
                         case 2: confirmation = false; break;
-                        default: System.out.println("Unrecognized choice!");  break;
+                        default: term.out.println("Unrecognized choice!");  break;
                     }
                 }
             }
             else if (a == (lastChoice + 1) && (orderList.size() == 0)) { // User chooses to confirm order but there are no items in the order
-            	System.out.println("Your order list is empty!");
+            	term.out.println("Your order list is empty!");
             }
             else {
-                System.out.println("Unrecognized choice!");
+                term.out.println("Unrecognized choice!");
             }
          }
 
      }catch(Exception e){
-         System.err.println (e.getMessage ());
+         term.err.println (e.getMessage ());
       }
   }
 
-  public static void UpdateOrder(Cafe esql, String sessionLogin){
+  public static void UpdateOrder(Cafe esql, Terminal term, Session session){
 
       try {
-          List<List<String>> userOrdersList = esql.executeQueryAndReturnResult(String.format("SELECT * FROM Orders O WHERE O.login = '%s'", sessionLogin));       
-          List<List<String>> usersItemStatusList = esql.executeQueryAndReturnResult(String.format("SELECT * FROM ItemStatus I WHERE I.orderID = ANY (SELECT O.orderID FROM ORDERS O WHERE O.login = '%s')", sessionLogin));
-          
-          String query = String.format("SELECT * FROM Users U WHERE (U.login = '%s' AND (U.type = 'Manager' OR U.type = 'Employee'))", sessionLogin); //Query to check if the logged in user is a manager
-          int managerCheck =  esql.executeQuery(query);
+          String sessionLogin = session.getLogin();
+          boolean managerCheck =  session.isStaff(); //Managers and employees can update customers' orders
           boolean updateMenu = true;
 
           while(updateMenu){
-              System.out.println("");
-              System.out.println("UPDATE ORDERS");
-              System.out.println("-----------");
-              if(managerCheck > 0){
-	          System.out.println("1. Update your orders");
-	          System.out.println("2. Order History");
-                  System.out.println("3. Update Customer's order");
-                  System.out.println("4. Customer Order history");
-                  System.out.println("---------");
-                  System.out.println("9. Back to main menu");                  
-
-	          switch(readChoice()){
-	              case 1: updateUserOrder(esql, sessionLogin); break;
-	              case 2: displayOrderHistory(esql, sessionLogin); break;
-                      case 3: updateCustomerOrder(esql, sessionLogin); break;
-                      case 4: displayCustomerOrderHistory(esql, sessionLogin); break;
+              term.out.println("");
+              term.out.println("UPDATE ORDERS");
+              term.out.println("-----------");
+              if(managerCheck){
+	          term.out.println("1. Update your orders");
+	          term.out.println("2. Order History");
+                  term.out.println("3. Update Customer's order");
+                  term.out.println("4. Customer Order history");
+                  term.out.println("5. Kitchen prep list");
+                  term.out.println("6. Watch item status");
+                  term.out.println("---------");
+                  term.out.println("9. Back to main menu");                  
+
+	          switch(readChoice(term)){
+	              case 1: updateUserOrder(esql, term, sessionLogin); break;
+	              case 2: displayOrderHistory(esql, term, sessionLogin); break;
+                      case 3: updateCustomerOrder(esql, term, sessionLogin); break;
+                      case 4: displayCustomerOrderHistory(esql, term, sessionLogin); break;
+                      case 5: displayKitchenBoard(esql, term); break;
+                      case 6: watchItemStatus(esql, term, null); break;
 	              case 9: updateMenu = false; break;
-                      default: System.out.println("Unrecognized choice!"); break;
+                      default: term.out.println("Unrecognized choice!"); break;
 	          }
               } else {
-                  System.out.println("1. Update your orders");
-                  System.out.println("2. Order History");
-                  System.out.println("---------");
-                  System.out.println("9. Back to main menu");
-
-                  switch(readChoice()){
-                      case 1: updateUserOrder(esql, sessionLogin); break;
-                      case 2: displayOrderHistory(esql, sessionLogin); break;
+                  term.out.println("1. Update your orders");
+                  term.out.println("2. Order History");
+                  term.out.println("---------");
+                  term.out.println("9. Back to main menu");
+
+                  switch(readChoice(term)){
+                      case 1: updateUserOrder(esql, term, sessionLogin); break;
+                      case 2: displayOrderHistory(esql, term, sessionLogin); break;
                       case 9: updateMenu = false; break;
-                      default: System.out.println("Unrecognized choice!"); break;
+                      default: term.out.println("Unrecognized choice!"); break;
                   }
               } 
           }      
       }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
       }
   }
 
 // User updates an UNPAID Order based on orderid
-  public static void updateUserOrder(Cafe esql, String sessionLogin) {
+  public static void updateUserOrder(Cafe esql, Terminal term, String sessionLogin) {
       try {
           boolean updateMenu = true;
           int orderID = 0;
 
           while (updateMenu) {
               do {
-                  System.out.print("Enter the order ID: ");
+                  term.out.print("Enter the order ID: ");
                   try { // read the integer, parse it and break.
-                      orderID = Integer.parseInt(in.readLine());
+                      orderID = Integer.parseInt(term.readLine());
                       break;
-                  }catch (Exception e) {
-                      System.out.println("Your input is invalid!");
+                  }catch (NumberFormatException e) {
+                      term.out.println("Your input is invalid!");
                       continue;
                   }//end try
               }while (true);
               
-              String queryInOrders = String.format("SELECT * FROM Orders O WHERE (O.login = '%s' AND O.orderid = '%s')", sessionLogin, orderID);
-              List<List<String>> chosenOrder = esql.executeQueryAndReturnResult(queryInOrders);
+              String queryInOrders = "SELECT * FROM Orders O WHERE (O.login = ? AND O.orderid = ?)";
+              OrderRow chosenOrder = esql.executeQueryForRow(queryInOrders, OrderRow.MAPPER, sessionLogin, orderID);
 
-              if (chosenOrder.size() == 0) {
-                  System.out.println(String.format("Order with ID '%s' does not exist", orderID));
+              if (chosenOrder == null) {
+                  term.out.println(String.format("Order with ID '%s' does not exist", orderID));
                   updateMenu = false;
               }
-              else if(chosenOrder.get(0).get(2).equals("t")) {
-                  System.out.println(String.format("Order with ID '%s' is already paid for", orderID));
-                  System.out.println("Cannot update order");
+              else if(chosenOrder.isPaid()) {
+                  term.out.println(String.format("Order with ID '%s' is already paid for", orderID));
+                  term.out.println("Cannot update order");
                   updateMenu = false;
               }
               else {
                   boolean itemMenu = true;
+                  java.sql.Timestamp placed = chosenOrder.getTimeStampRecieved(); // the order's partition from here on
                   
                   while (itemMenu) {
-                      queryInOrders = String.format("SELECT * FROM Orders O WHERE (O.login = '%s' AND O.orderid = '%s')", sessionLogin, orderID);
-                      chosenOrder = esql.executeQueryAndReturnResult(queryInOrders);
-                      float orderTotal = Float.parseFloat(chosenOrder.get(0).get(4));
+                      chosenOrder = esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderid = ? AND O.timeStampRecieved = ?",
+                                                            OrderRow.MAPPER, orderID, placed);
+                      float orderTotal = chosenOrder.getTotal();
                       
-                      System.out.println("");
-                      System.out.println("------------------");
-                      System.out.println("ORDER " + orderID);
-                      System.out.println("- - - -");
-                      System.out.println("Total: " + orderTotal);
-                      System.out.println("- - - -");
-
-                      String queryItemList = String.format("SELECT * FROM ItemStatus I WHERE I.orderID = '%s'", orderID);
-                      List<List<String>> itemList = esql.executeQueryAndReturnResult(queryItemList);
-                      System.out.println("Items in order " + orderID + ": ");
+                      term.out.println("");
+                      term.out.println("------------------");
+                      term.out.println("ORDER " + orderID);
+                      term.out.println("- - - -");
+                      term.out.println("Total: " + orderTotal);
+                      term.out.println("- - - -");
+
+                      String queryItemList = "SELECT * FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?";
+                      List<ItemStatusRow> itemList = esql.executeQueryAndMapResult(queryItemList, ItemStatusRow.MAPPER, orderID, placed);
+                      term.out.println("Items in order " + orderID + ": ");
                       for( int i = 1; i < (itemList.size() + 1); i++) {
-   		          String itemName = itemList.get(i - 1).get(1).trim();
-                          String itemLastUpdated = itemList.get(i - 1).get(2);
-                          String itemStatus = itemList.get(i - 1).get(3).trim();
-                          String itemComments = itemList.get(i - 1).get(4);
-
-                          System.out.println(i + ". " + itemName);
-                          System.out.println("    Last updated: " + itemLastUpdated);
-                          System.out.println("    Status: " + itemStatus);
-                          System.out.println("    Comments: " + itemComments);       
-                          System.out.println("* * * * * * * * * * *");         
+   		          String itemName = itemList.get(i - 1).getItemName();
+                          java.sql.Timestamp itemLastUpdated = itemList.get(i - 1).getLastUpdated();
+                          String itemStatus = itemList.get(i - 1).getStatus();
+                          String itemComments = itemList.get(i - 1).getComments();
+
+                          term.out.println(i + ". " + itemName);
+                          term.out.println("    Last updated: " + itemLastUpdated);
+                          term.out.println("    Status: " + itemStatus);
+                          term.out.println("    Comments: " + itemComments);       
+                          term.out.println("* * * * * * * * * * *");         
                       }
                      
-                      System.out.println("1. Remove an item");
-                      System.out.println("2. Add an item");
-                      System.out.println("3. Add comment to an item");
-                      System.out.println("4. Cancel order");
-                      System.out.println("-----");
-                      System.out.println("9. Go back");
-
-                     switch (readChoice()) {
-                         case 1: if(removeAnItemOrder(esql, sessionLogin, orderID, itemList)) {
+                      term.out.println("1. Remove an item");
+                      term.out.println("2. Add an item");
+                      term.out.println("3. Add comment to an item");
+                      term.out.println("4. Cancel order");
+                      term.out.println("-----");
+                      term.out.println("9. Go back");
+
+                     switch (readChoice(term)) {
+                         case 1: if(removeAnItemOrder(esql, term, sessionLogin, orderID, placed, itemList)) {
                                      itemMenu = false;
                                      updateMenu = false;
                                  }
 			         break;
-                         case 2: addAnItemOrder(esql, sessionLogin, orderID, itemList); break;
-                         case 3: addCommentOrder(esql, sessionLogin, orderID, itemList); break;
-                         case 4: if(cancelOrder(esql, sessionLogin, orderID)) {
+                         case 2: addAnItemOrder(esql, term, sessionLogin, orderID, placed, itemList); break;
+                         case 3: addCommentOrder(esql, term, sessionLogin, orderID, placed, itemList); break;
+                         case 4: if(cancelOrder(esql, term, sessionLogin, orderID, placed)) {
 				     itemMenu = false;
                                      updateMenu = false;
                                  } 
                                  break;
                          case 9: itemMenu = false; updateMenu = false; break;
-                         default: System.out.println("Unrecognized choice!");  break;
+                         default: term.out.println("Unrecognized choice!");  break;
                      }
                  }
               }
           }
       }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
       }
   }
 
 // Removes an item from a customer's order
-public static boolean removeAnItemOrder (Cafe esql, String sessionLogin, int orderID, List<List<String>> itemList) {
+public static boolean removeAnItemOrder (Cafe esql, Terminal term, String sessionLogin, int orderID, java.sql.Timestamp placed, List<ItemStatusRow> itemList) {
     boolean removeMenu = true;
 
     try {
         while (removeMenu) {
-            System.out.println("");
-            System.out.println("REMOVE ITEM FROM ORDER");
-            System.out.println("----------------------");
+            term.out.println("");
+            term.out.println("REMOVE ITEM FROM ORDER");
+            term.out.println("----------------------");
 
             for (int i = 1; i <= itemList.size(); i++) { // Output list of items on the order
-               String itemName = itemList.get(i - 1).get(1);
-               System.out.println(i + ". " + itemName);
+               String itemName = itemList.get(i - 1).getItemName();
+               term.out.println(i + ". " + itemName);
             }
-            System.out.println("------");
-            System.out.println((itemList.size() + 2) +". Go back");
-	    System.out.println("//Select an item from above to remove// ");
+            term.out.println("------");
+            term.out.println((itemList.size() + 2) +". Go back");
+	    term.out.println("//Select an item from above to remove// ");
            
-            int a = readChoice();
+            int a = readChoice(term);
             
             if (a == (itemList.size() + 2)) {
                 removeMenu = false;
@@ -1448,144 +2478,141 @@ public static boolean removeAnItemOrder (Cafe esql, String sessionLogin, int ord
                 boolean confirmRemove = true;
 
                 while (confirmRemove) {
-		    String item = itemList.get(a - 1).get(1);
-                    System.out.println("");
-                    System.out.println("Confirm removal of " + item.trim() + "?");
-                    System.out.println("1. Yes, remove this item");
-                    System.out.println("2. No, don't remove this item");
-                    int b = readChoice();
+		    String item = itemList.get(a - 1).getItemName();
+                    term.out.println("");
+                    term.out.println("Confirm removal of " + item + "?");
+                    term.out.println("1. Yes, remove this item");
+                    term.out.println("2. No, don't remove this item");
+                    int b = readChoice(term);
  
                     switch(b) {
-                        case 1: String query = String.format("SELECT M.price FROM Menu M WHERE M.itemName = '%s'", item);
-                                List<List<String>> itemInfo = esql.executeQueryAndReturnResult(query);
-                                double price = Float.parseFloat(itemInfo.get(0).get(0));
-                                
-                                query = String.format("DELETE FROM ItemStatus I WHERE (I.orderID = '%s' AND I.itemName = '%s')", orderID, item);
-                                esql.executeUpdate(query);
-                                itemList.remove(a - 1);
+                        case 1: int left = esql.removeOrderItem(orderID, placed, item);
 
-                                query = String.format("UPDATE Orders SET total = total - '%s' WHERE orderID = '%s'", price, orderID);
-                                esql.executeUpdate(query);
-                                System.out.println(item.trim() + " has been removed from order " + orderID);
-                                System.out.println("----------------------------------------------");
+                                if (left < 0) {
+                                    term.out.println(item + " is no longer on unpaid order " + orderID);
+                                    removeMenu = false;
+                                    return true;
+                                }
+                                itemList.remove(a - 1);
+                                term.out.println(item + " has been removed from order " + orderID);
+                                term.out.println("----------------------------------------------");
 
-                                if (itemList.size() == 0) {
-                                    query = String.format("DELETE FROM Orders WHERE orderID = '%s'", orderID);
-                                    esql.executeUpdate(query);
-                                    System.out.println("Cancelled order " + orderID + " due to all items being removed");
+                                if (left == 0) {
+                                    term.out.println("Cancelled order " + orderID + " due to all items being removed");
                                     removeMenu = false;
                                     return true;
                                 }
                                 confirmRemove = false;
                                 break;
                         case 2: confirmRemove = false; break;
-                        default: System.out.println("Unrecognized choice!"); break;
+                        default: term.out.println("Unrecognized choice!"); break;
                     }
                 }
             }
             else {
-                System.out.println("Unrecognized choice!");
+                term.out.println("Unrecognized choice!");
             }
         }
     }catch(Exception e) {
-        System.err.println (e.getMessage ());
+        term.err.println (e.getMessage ());
     }
     return false;
 }
 
 // Adds an item to a customer's order
-public static void addAnItemOrder (Cafe esql, String sessionLogin, int orderID, List<List<String>> itemList) {
+public static void addAnItemOrder (Cafe esql, Terminal term, String sessionLogin, int orderID, java.sql.Timestamp placed, List<ItemStatusRow> itemList) {
     boolean addMenu = true;
     List<String> orderList = new ArrayList<String> ();
 
     for (int i = 0; i < itemList.size(); i++) {
-        orderList.add(itemList.get(i).get(1).trim());
+        orderList.add(itemList.get(i).getItemName());
     }    
 
     try {
         while (addMenu) {
-           System.out.println("");
-           System.out.println("ADD ITEM TO ORDER");
-           System.out.println("----------------------");
-           List<List<String>> menu = esql.executeQueryAndReturnResult("SELECT * FROM Menu"); 
-           float total = Float.parseFloat(esql.executeQueryAndReturnResult(String.format("SELECT O.total FROM Orders O WHERE O.orderID = '%s'", orderID)).get(0).get(0));             
+           term.out.println("");
+           term.out.println("ADD ITEM TO ORDER");
+           term.out.println("----------------------");
+           List<MenuItem> menu = esql.menu().all();
           
            for (int i = 1; i <= menu.size(); i++) { // Output list of items on the menu
-               String itemName = menu.get(i - 1).get(0);
-               System.out.println(i + ". " + itemName);
+               String itemName = menu.get(i - 1).getItemName();
+               term.out.println(i + ". " + itemName);
             }
 
-            System.out.println("---------"); 
+            term.out.println("---------"); 
             int lastChoice = menu.size() + 1; 
-            System.out.println(lastChoice + ". Go back");            
+            term.out.println(lastChoice + ". Go back");            
  
-            int a = readChoice();
+            int a = readChoice(term);
             
 	    if (a == lastChoice) { // Exit Place Order view
                 addMenu = false;
             } else if (a < lastChoice) { // Get information of chosen item
-                String item = menu.get(a - 1).get(0).trim();
-                float price = Float.parseFloat(menu.get(a - 1).get(2));
-
-		System.out.println("----------------------------------");
-                System.out.println("ITEM: " + item.trim());
-                System.out.println("PRICE: " + price);
-                System.out.println("Would you like to add " + item.trim() + "to your order?");
-                System.out.println("1. Add item");
-                System.out.println("2. Go back");
-
-                System.out.println("//Select an item from above to add// ");
-                a = readChoice();
+                MenuItem chosen = menu.get(a - 1);
+                String item = chosen.getItemName();
+                float price = chosen.getPrice();
+
+		term.out.println("----------------------------------");
+                term.out.println("ITEM: " + item);
+                term.out.println("PRICE: " + price);
+                term.out.println("Would you like to add " + item + "to your order?");
+                term.out.println("1. Add item");
+                term.out.println("2. Go back");
+
+                term.out.println("//Select an item from above to add// ");
+                a = readChoice(term);
                 boolean confirmation = true;                
                 
                 while (confirmation) {
                     switch(a) { // Confirm added item and update order total
                         case 1: if (!existsInOrder(orderList, item)) {
-                                    System.out.println(item.trim() + " added!"); 
-                                    total += price;
-                                    orderList.add(item);
-
-                                    esql.executeUpdate(String.format("INSERT INTO ItemStatus(orderId, itemName, lastUpdated, status) VALUES ('%s', '%s', '%s', '%s')", orderID, item.trim(), new java.sql.Timestamp(new java.util.Date().getTime()), "Hasn''t Started"));
-                                    esql.executeUpdate(String.format("UPDATE Orders SET total = '%s' WHERE orderID = '%s'", total, orderID));
+                                    // total is raised in the database, so concurrent edits add up
+                                    if (esql.addOrderItem(orderID, placed, chosen)) {
+                                        term.out.println(item + " added!");
+                                        orderList.add(item);
+                                    } else {
+                                        term.out.println("Order " + orderID + " can no longer be changed");
+                                    }
                                     addMenu = false;
                                 } else {
-                                    System.out.println(item.trim() + " has already been added to your order");
+                                    term.out.println(item + " has already been added to your order");
                                 }
                                 confirmation = false;
                                 break;
                         case 2: confirmation = false; break;
-                        default: System.out.println("Unrecognized choice!"); a = readChoice(); break; 
+                        default: term.out.println("Unrecognized choice!"); a = readChoice(term); break; 
                     } 
                 }
             } else {
-                System.out.println("Unrecognized choice!");
+                term.out.println("Unrecognized choice!");
             }
         }
     }catch(Exception e) {
-        System.err.println (e.getMessage ());
+        term.err.println (e.getMessage ());
     }
 }
 
 // Adds a comment to a customer's order
-public static void addCommentOrder (Cafe esql, String sessionLogin, int orderID, List<List<String>> itemList) {
+public static void addCommentOrder (Cafe esql, Terminal term, String sessionLogin, int orderID, java.sql.Timestamp placed, List<ItemStatusRow> itemList) {
     boolean addMenu = true;
 
     try {
         while (addMenu) {
-            System.out.println("");
-            System.out.println("ADD COMMENT");
-            System.out.println("-------------");
+            term.out.println("");
+            term.out.println("ADD COMMENT");
+            term.out.println("-------------");
         
             for (int i = 1; i <= itemList.size(); i++) { // Output list in order
-               String itemName = itemList.get(i - 1).get(1);
-               System.out.println(i + ". " + itemName);
+               String itemName = itemList.get(i - 1).getItemName();
+               term.out.println(i + ". " + itemName);
             }
             
-            System.out.println("-------");
-            System.out.println((itemList.size() + 2) +". Go back");
-            System.out.println("//Select an item to add a comment to// ");
+            term.out.println("-------");
+            term.out.println((itemList.size() + 2) +". Go back");
+            term.out.println("//Select an item to add a comment to// ");
 
-            int a = readChoice();
+            int a = readChoice(term);
 
             if (a == itemList.size() + 2) {
                 addMenu = false;
@@ -1593,62 +2620,59 @@ public static void addCommentOrder (Cafe esql, String sessionLogin, int orderID,
             else if ((a > 0) && (a < (itemList.size() + 1))) {
                 String comment = "";                
 
-                String item = itemList.get(a - 1).get(1).trim();
-                System.out.println("");
+                String item = itemList.get(a - 1).getItemName();
+                term.out.println("");
                 boolean correctLength = true;
 
                 while (correctLength){
-                    System.out.println("Write your comment for " + item + ": ");
-                    comment = in.readLine();
+                    term.out.println("Write your comment for " + item + ": ");
+                    comment = term.readLine();
 
                     if (comment.length() >= 130) {
-                        System.out.println("Comment is too long!");    
+                        term.out.println("Comment is too long!");    
                     }
                     else {
                         correctLength = false;
                     }
                 }
 
-                String query = String.format("UPDATE ItemStatus SET comments = '%s' WHERE orderID = '%s' AND itemName = '%s'", comment, orderID, item);
-                esql.executeUpdate(query);          
+                esql.commentOrderItem(orderID, placed, item, comment);
                 addMenu = false;  
       
-                System.out.println("Comment to " + item + " has been added!");
+                term.out.println("Comment to " + item + " has been added!");
             }
             else {
-                System.out.println("Unrecognized choice!");
+                term.out.println("Unrecognized choice!");
             }
         } 
     }catch(Exception e) {
-        System.err.println (e.getMessage ());
+        term.err.println (e.getMessage ());
     }
 }
 
 // Cancels and entire order
-public static boolean cancelOrder(Cafe esql, String sessionLogin, int orderID) {
+public static boolean cancelOrder(Cafe esql, Terminal term, String sessionLogin, int orderID, java.sql.Timestamp placed) {
     boolean cancelMenu = true;
     try {
     while (cancelMenu) {
-        System.out.println("");
-        System.out.println("Confirm cancellation of order " + orderID + "?");
-        System.out.println("1. Yes, cancel");
-        System.out.println("2. No, don't cancel");
+        term.out.println("");
+        term.out.println("Confirm cancellation of order " + orderID + "?");
+        term.out.println("1. Yes, cancel");
+        term.out.println("2. No, don't cancel");
 	
-	switch(readChoice()) {
-            case 1: String deleteQuery = String.format("DELETE FROM ItemStatus I WHERE I.orderID = '%s'", orderID);
-                    esql.executeUpdate(deleteQuery);
-                    deleteQuery = String.format("DELETE FROM Orders O WHERE O.orderID = '%s'", orderID);
-		    esql.executeUpdate(deleteQuery);
-                    //esql.executeQueryAndPrintResult(String.format("SELECT* FROM ItemStatus I WHERE I.orderID = '%s'", orderID));
-                    System.out.println("Your order " + orderID + " has been canceled");
+	switch(readChoice(term)) {
+            case 1: if (esql.deleteOrder(orderID, placed))
+                        term.out.println("Your order " + orderID + " has been canceled");
+                    else
+                        term.out.println("Order " + orderID + " can no longer be canceled");
                     cancelMenu = false;
                     return true;
             case 2: cancelMenu = false; break;
-            default: System.out.println("Unrecognized choice!");  break;            
+            default: term.out.println("Unrecognized choice!");  break;            
         }
     }
     }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
     }
     return false;
 }
@@ -1656,133 +2680,175 @@ public static boolean cancelOrder(Cafe esql, String sessionLogin, int orderID) {
 
 
 // Display recent 5 orders from current User
-  public static void displayOrderHistory(Cafe esql, String sessionLogin) {
-      System.out.println("");
-      System.out.println("YOUR ORDERS:");
-      System.out.println("-------------");
-      String query = String.format("SELECT * FROM Orders O WHERE O.login = '%s' ORDER BY O.timeStampRecieved DESC LIMIT 5", sessionLogin);      
+  public static void displayOrderHistory(Cafe esql, Terminal term, String sessionLogin) {
+      term.out.println("");
+      term.out.println("YOUR ORDERS:");
+      term.out.println("-------------");
+      browseOrders(term, OrderHistory.forUser(esql, sessionLogin, OrderHistory.PAGE_SIZE));
+  }
+
+// Shows a list of orders one page at a time, newest first
+  public static void browseOrders(Terminal term, OrderHistory history) {
       try{
-          esql.executeQueryAndPrintResult(query);
+          OrderHistory.Page page = history.newest();
+          while (true) {
+              printOrders(term, page.getRows());
+              if (!page.hasOlder() && !page.hasNewer())
+                  return;
+              term.out.println("---------");
+              if (page.hasOlder())
+                  term.out.println("1. Older orders");
+              if (page.hasNewer())
+                  term.out.println("2. Newer orders");
+              term.out.println("9. Go back");
+              int choice = readChoice(term);
+              if (choice == 9)
+                  return;
+              else if (choice == 1 && page.hasOlder())
+                  page = history.older(page);
+              else if (choice == 2 && page.hasNewer())
+                  page = history.newer(page);
+              else
+                  term.out.println("Unrecognized choice!");
+          }
       }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
       }
   }
 
-  public static void updateCustomerOrder(Cafe esql, String sessionLogin) {
+// Prints orders as rows of tab separated columns
+  public static void printOrders(Terminal term, List<OrderRow> orders) {
+      if (orders.isEmpty()) {
+          term.out.println("No orders.");
+          return;
+      }
+      term.out.println("orderid\tlogin\tpaid\ttimestamprecieved\ttotal\t");
+      for (OrderRow order : orders)
+          term.out.println(order.getOrderId() + "\t" + order.getLogin() + "\t" + order.isPaid() + "\t" +
+                             order.getTimeStampRecieved() + "\t" + order.getTotal() + "\t");
+  }
+
+  public static void updateCustomerOrder(Cafe esql, Terminal term, String sessionLogin) {
       try {
           boolean updateMenu = true;
           int orderID = 0;
 
           while (updateMenu) {
               do {
-                  System.out.print("Enter the order ID: ");
+                  term.out.print("Enter the order ID: ");
                   try { // read the integer, parse it and break.
-                      orderID = Integer.parseInt(in.readLine());
+                      orderID = Integer.parseInt(term.readLine());
                       break;
-                  }catch (Exception e) {
-                      System.out.println("Your input is invalid!");
+                  }catch (NumberFormatException e) {
+                      term.out.println("Your input is invalid!");
                       continue;
                   }//end try
               }while (true);
               
-              String queryInOrders = String.format("SELECT * FROM Orders O WHERE O.orderid = '%s'", orderID);
-              List<List<String>> chosenOrder = esql.executeQueryAndReturnResult(queryInOrders);
+              String queryInOrders = "SELECT * FROM Orders O WHERE O.orderid = ?";
+              OrderRow chosenOrder = esql.executeQueryForRow(queryInOrders, OrderRow.MAPPER, orderID);
 
-              if (chosenOrder.size() == 0) {
-                  System.out.println(String.format("Order with ID '%s' does not exist", orderID));
+              if (chosenOrder == null) {
+                  term.out.println(String.format("Order with ID '%s' does not exist", orderID));
                   updateMenu = false;
               }
               else {
                   boolean itemMenu = true;
+                  java.sql.Timestamp placed = chosenOrder.getTimeStampRecieved(); // the order's partition from here on
                   
                   while (itemMenu) {
-                      chosenOrder = esql.executeQueryAndReturnResult(queryInOrders);
-                      String orderIsPaid = chosenOrder.get(0).get(2);
-                      float orderTotal = Float.parseFloat(chosenOrder.get(0).get(4));
+                      chosenOrder = esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderid = ? AND O.timeStampRecieved = ?",
+                                                            OrderRow.MAPPER, orderID, placed);
+                      boolean orderIsPaid = chosenOrder.isPaid();
+                      float orderTotal = chosenOrder.getTotal();
                       
-                      System.out.println("");
-                      System.out.println("------------------");
-                      System.out.println("ORDER " + orderID);
-                      System.out.println("- - - -");
-                      System.out.println("Paid: " + orderIsPaid);
-                      System.out.println("Total: " + orderTotal);
-                      System.out.println("- - - -");
-
-                      String queryItemList = String.format("SELECT * FROM ItemStatus I WHERE I.orderID = '%s'", orderID);
-                      List<List<String>> itemList = esql.executeQueryAndReturnResult(queryItemList);
-                      System.out.println("Items in order " + orderID + ": ");
+                      term.out.println("");
+                      term.out.println("------------------");
+                      term.out.println("ORDER " + orderID);
+                      term.out.println("- - - -");
+                      term.out.println("Paid: " + orderIsPaid);
+                      term.out.println("Total: " + orderTotal);
+                      term.out.println("- - - -");
+
+                      String queryItemList = "SELECT * FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?";
+                      List<ItemStatusRow> itemList = esql.executeQueryAndMapResult(queryItemList, ItemStatusRow.MAPPER, orderID, placed);
+                      term.out.println("Items in order " + orderID + ": ");
                       for( int i = 1; i < (itemList.size() + 1); i++) {
-   		          String itemName = itemList.get(i - 1).get(1).trim();
-                          String itemLastUpdated = itemList.get(i - 1).get(2);
-                          String itemStatus = itemList.get(i - 1).get(3).trim();
-                          String itemComments = itemList.get(i - 1).get(4);
-
-                          System.out.println(i + ". " + itemName);
-                          System.out.println("    Last updated: " + itemLastUpdated);
-                          System.out.println("    Status: " + itemStatus);
-                          System.out.println("    Comments: " + itemComments);       
-                          System.out.println("* * * * * * * * * * *");         
+   		          String itemName = itemList.get(i - 1).getItemName();
+                          java.sql.Timestamp itemLastUpdated = itemList.get(i - 1).getLastUpdated();
+                          String itemStatus = itemList.get(i - 1).getStatus();
+                          String itemComments = itemList.get(i - 1).getComments();
+
+                          term.out.println(i + ". " + itemName);
+                          term.out.println("    Last updated: " + itemLastUpdated);
+                          term.out.println("    Status: " + itemStatus);
+                          term.out.println("    Comments: " + itemComments);       
+                          term.out.println("* * * * * * * * * * *");         
                       }
                      
-                      System.out.println("1. Change order status (paid/unpaid)");
-                      System.out.println("2. Change item status");
-                      System.out.println("-----");
-                      System.out.println("9. Go back");
-
-                     switch (readChoice()) {
-                         case 1: if (orderIsPaid.equals("f")) {
+                      term.out.println("1. Change order status (paid/unpaid)");
+                      term.out.println("2. Change item status");
+                      term.out.println("3. Start every item");
+                      term.out.println("4. Finish every item");
+                      term.out.println("-----");
+                      term.out.println("9. Go back");
+
+                     switch (readChoice(term)) {
+                         case 1: if (!orderIsPaid) {
                                      boolean confirmChange = true;
                                      
                                      while(confirmChange) {
-                                         System.out.println("");
-                                         System.out.println("Confirm changing order from unpaid to paid?");
-                                         System.out.println("1. Yes, order is paid");
-                                         System.out.println("2. No, order is still unpaid");
-                                         switch(readChoice()) {
+                                         term.out.println("");
+                                         term.out.println("Confirm changing order from unpaid to paid?");
+                                         term.out.println("1. Yes, order is paid");
+                                         term.out.println("2. No, order is still unpaid");
+                                         switch(readChoice(term)) {
                                              case 1: confirmChange = false; 
-                                                     System.out.println("Order has been set to Paid!");
-                                                     esql.executeUpdate(String.format("UPDATE Orders SET paid = true WHERE orderID = '%s'", orderID));
+                                                     esql.markOrderPaid(orderID, placed);
+                                                     term.out.println("Order has been set to Paid!");
                                                      break;
                                              case 2: confirmChange = false; break;
-                                             default: System.out.println("Unrecognized choice!");  break;
+                                             default: term.out.println("Unrecognized choice!");  break;
                                          }
                                      }
                                  }
                                  else {
-                                     System.out.println("Order is already paid for!");
+                                     term.out.println("Order is already paid for!");
                                  }
                                  break;
-                         case 2: changeItemStatus(esql, sessionLogin, orderID, itemList); break;
+                         case 2: changeItemStatus(esql, term, sessionLogin, orderID, placed, itemList); break;
+                         case 3: term.out.println(esql.setOrderStatus(orderID, "Started") + " items started"); break;
+                         case 4: term.out.println(esql.setOrderStatus(orderID, "Finished") + " items finished"); break;
                          case 9: itemMenu = false; updateMenu = false; break;
-                         default: System.out.println("Unrecognized choice!");  break;
+                         default: term.out.println("Unrecognized choice!");  break;
                      }
                  }
               }
           }
       }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
       }
   }  
  
   // Change status of item
-  public static void changeItemStatus (Cafe esql, String sessionLogin, int orderID, List<List<String>> itemList) {
+  public static void changeItemStatus (Cafe esql, Terminal term, String sessionLogin, int orderID, java.sql.Timestamp placed, List<ItemStatusRow> itemList) {
       boolean changeMenu = true;
   
       try {
           while (changeMenu) {
-              System.out.println("");
-              System.out.println("CHANGE ITEM STATUS");
-              System.out.println("---------------------");
+              term.out.println("");
+              term.out.println("CHANGE ITEM STATUS");
+              term.out.println("---------------------");
 
               for (int i = 1; i <= itemList.size(); i++) { // Output list of items on the order
-                  String itemName = itemList.get(i - 1).get(1);
-                  System.out.println(i + ". " + itemName);
+                  String itemName = itemList.get(i - 1).getItemName();
+                  term.out.println(i + ". " + itemName);
               }
-              System.out.println("------");
-              System.out.println((itemList.size() + 2) +". Go back");
-	      System.out.println("//Select an item to change it's status// ");
+              term.out.println("------");
+              term.out.println((itemList.size() + 2) +". Go back");
+	      term.out.println("//Select an item to change it's status// ");
            
-              int a = readChoice();
+              int a = readChoice(term);
             
               if (a == (itemList.size() + 2)) {
                   changeMenu = false;
@@ -1790,49 +2856,222 @@ public static boolean cancelOrder(Cafe esql, String sessionLogin, int orderID) {
 	      else if ((a > 0) && (a < (itemList.size() + 1))) { // Confirming removal of an item
                   boolean confirmRemove = true;
                   while (confirmRemove) {
-		      String item = itemList.get(a - 1).get(1).trim();
-                      String itemStatus = itemList.get(a - 1).get(3).trim();
+		      String item = itemList.get(a - 1).getItemName();
+                      String itemStatus = itemList.get(a - 1).getStatus();
 
-                      System.out.println("");
-                      System.out.println("Change status of " + item.trim() + " to which? (current status is \"" + itemStatus.trim() +"\")");
-                      System.out.println("1. Hasn't started");
-                      System.out.println("2. Started");
-                      System.out.println("3. Finished");
-                      int b = readChoice();
+                      term.out.println("");
+                      term.out.println("Change status of " + item + " to which? (current status is \"" + itemStatus +"\")");
+                      term.out.println("1. Hasn't started");
+                      term.out.println("2. Started");
+                      term.out.println("3. Finished");
+                      int b = readChoice(term);
 
                       switch(b) {
                           case 1: itemStatus = "Hasn't started"; 
-                                  esql.executeUpdate(String.format("UPDATE ItemStatus SET status = '%s', lastUpdated = '%s' WHERE orderID = '%s' AND itemName = '%s'", "Hasn''t Started", new java.sql.Timestamp(new java.util.Date().getTime()), orderID, item));
+                                  esql.setItemStatus(orderID, placed, item, "Hasn't Started");
                                   confirmRemove = false; break;
                           case 2: itemStatus = "Started"; 
-                                  esql.executeUpdate(String.format("UPDATE ItemStatus SET status = '%s' , lastUpdated = '%s' WHERE orderID = '%s' AND itemName = '%s'", itemStatus, new java.sql.Timestamp(new java.util.Date().getTime()), orderID, item));
+                                  esql.setItemStatus(orderID, placed, item, itemStatus);
                                   confirmRemove = false; break;
                           case 3: itemStatus = "Finished"; 
-                                  esql.executeUpdate(String.format("UPDATE ItemStatus SET status = '%s', lastUpdated = '%s' WHERE orderID = '%s' AND itemName = '%s'", itemStatus, new java.sql.Timestamp(new java.util.Date().getTime()), orderID, item));
+                                  esql.setItemStatus(orderID, placed, item, itemStatus);
                                   confirmRemove = false; break;
-                          default: System.out.println("Unrecognized choice!"); break;
+                          default: term.out.println("Unrecognized choice!"); break;
                       }
-                      System.out.println(item + " status set to " + itemStatus);
+                      term.out.println(item + " status set to " + itemStatus);
                   }
             }
             else {
-                System.out.println("Unrecognized choice!");
+                term.out.println("Unrecognized choice!");
             }
         }
       }catch(Exception e) {
-        System.err.println (e.getMessage ());
+        term.err.println (e.getMessage ());
+      }
+  }
+
+// Sales per day or per item over the last days, read from the rollups
+  public static void displaySalesReports(Cafe esql, Terminal term) {
+      try{
+          while (true) {
+              term.out.println("");
+              term.out.println("SALES REPORTS");
+              term.out.println("-------------");
+              term.out.println("1. Sales per day");
+              term.out.println("2. Sales per item");
+              term.out.println("9. Go back");
+              int choice = readChoice(term);
+              if (choice != 1 && choice != 2)
+                  return;
+              term.out.print("Enter the number of days to report: ");
+              int days = Integer.parseInt(term.readLine());
+              long now = System.currentTimeMillis();
+              java.sql.Date to = new java.sql.Date(now);
+              java.sql.Date from = new java.sql.Date(now - (days - 1) * 24L * 60 * 60 * 1000);
+              if (choice == 1) {
+                  List<SalesReport.Day> rows = SalesReport.days(esql, from, to);
+                  term.out.println("day\torders\titems\trevenue\tpaid\tpaidrevenue\tavgprepmin\t");
+                  for (SalesReport.Day day : rows)
+                      term.out.println(day.getDay() + "\t" + day.getOrders() + "\t" + day.getItemsSold() + "\t" +
+                                         String.format("%.2f", day.getRevenue()) + "\t" + day.getPaidOrders() + "\t" +
+                                         String.format("%.2f", day.getPaidRevenue()) + "\t" +
+                                         minutes(day.getAveragePrepSeconds()) + "\t");
+                  term.out.println(rows.size() + " days with orders");
+              } else {
+                  List<SalesReport.Item> rows = SalesReport.items(esql, from, to);
+                  term.out.println("itemname\tsold\trevenue\tavgprepmin\t");
+                  for (SalesReport.Item item : rows)
+                      term.out.println(item.getItemName() + "\t" + item.getSold() + "\t" +
+                                         String.format("%.2f", item.getRevenue()) + "\t" +
+                                         minutes(item.getAveragePrepSeconds()) + "\t");
+                  term.out.println(rows.size() + " items sold");
+              }
+          }
+      }catch(Exception e) {
+          term.err.println (e.getMessage ());
+      }
+  }
+
+// Seconds as minutes with one decimal, or - when there are none
+  public static String minutes(double seconds) {
+      return seconds < 0 ? "-" : String.format("%.1f", seconds / 60);
+  }
+
+// Unfinished items across all orders, grouped by item, longest waiting first
+  public static void displayKitchenBoard(Cafe esql, Terminal term) {
+      try{
+          while (true) {
+              term.out.println("");
+              term.out.println("KITCHEN PREP LIST");
+              term.out.println("-----------------");
+              List<KitchenBoard.Line> lines = esql.kitchen().lines(); // kept in memory, no query
+              if (lines.isEmpty())
+                  term.out.println("Nothing to prepare.");
+              else
+                  term.out.println("itemname\twaiting\toldest\t");
+              for (KitchenBoard.Line line : lines)
+                  term.out.println(line.getItemName() + "\t" + line.getWaiting() + "\t" + line.getOldest() + "\t");
+              term.out.println("---------");
+              term.out.println("1. Refresh");
+              term.out.println("2. Start an item on every order");
+              term.out.println("3. Finish an item on every order");
+              term.out.println("9. Go back");
+              int choice = readChoice(term);
+              if (choice == 2 || choice == 3) {
+                  term.out.print("Enter the item name: ");
+                  String itemName = term.readLine();
+                  int moved = esql.setAllItemStatus(itemName, choice == 2 ? "Started" : "Finished");
+                  term.out.println(moved + " " + itemName + (choice == 2 ? " started" : " finished"));
+              } else if (choice != 1) {
+                  return;
+              }
+          }
+      }catch(Exception e) {
+          term.err.println (e.getMessage ());
       }
   }
 
-  public static void displayCustomerOrderHistory (Cafe esql, String sessionLogin) {
-      System.out.println("");
-      System.out.println("CUSTOMERS' UNPAID ORDERS (WITHIN 24 HOURS)");
-      System.out.println("------------------");
-      String query = "SELECT * FROM Orders WHERE timeStampRecieved >= NOW() - \'1 DAY\'::INTERVAL AND paid = \'f\'";
+// Prints item status changes as they happen until the user presses Enter,
+// of one order or, without one, of every order
+  public static void watchItemStatus(final Cafe esql, final Terminal term, final OrderRow order) {
+      final int orderID = order == null ? -1 : order.getOrderId();
+      final java.util.concurrent.BlockingQueue<ItemStatusListener.Change> changes =
+          new java.util.concurrent.LinkedBlockingQueue<ItemStatusListener.Change>();
+      ItemStatusListener.Subscriber subscriber = new ItemStatusListener.Subscriber() {
+          public void changed(ItemStatusListener.Change change) {
+              changes.add(change); // printed by the watch's own thread
+          }
+      };
+      // prints while the session thread waits for Enter, so neither polls
+      Thread printer = new Thread("item-status-watch") {
+          public void run() {
+              java.util.Map<String, String> shown = new java.util.HashMap<String, String>();
+              try {
+                  if (orderID >= 0)
+                      changedItems(esql, order, shown); // what the '?' changes are compared to
+                  while (true) {
+                      ItemStatusListener.Change change = changes.take();
+                      if (change.getOp() != '?') {
+                          term.out.println(change);
+                      } else {
+                          changes.clear(); // one reload covers every change so far
+                          if (orderID < 0)
+                              term.out.println(change);
+                          else
+                              for (String line : changedItems(esql, order, shown))
+                                  term.out.println(line);
+                      }
+                      term.out.flush();
+                  }
+              }catch(InterruptedException e) {
+                  // back to the menu
+              }catch(SQLException e) {
+                  term.err.println (e.getMessage ());
+              }
+          }
+      };
+      printer.setDaemon(true);
+      esql.itemStatus().subscribe(orderID, subscriber);
       try{
-          esql.executeQueryAndPrintResult(query);
+          term.out.println("");
+          term.out.println("WATCHING ITEM STATUS (press Enter to go back)");
+          term.out.println("----------------------");
+          printer.start();
+          term.readLine();
+      }catch(Exception e) {
+          term.err.println (e.getMessage ());
+      }finally {
+          esql.itemStatus().unsubscribe(subscriber);
+          printer.interrupt();
+      }
+  }
+
+// Re-reads the items of an order and describes the ones whose status
+// differs from the shown one, for drivers whose changes carry no payload
+  private static List<String> changedItems(Cafe esql, OrderRow order, java.util.Map<String, String> shown)
+          throws SQLException {
+      int orderID = order.getOrderId();
+      List<String> lines = new ArrayList<String>();
+      java.util.Set<String> gone = new java.util.HashSet<String>(shown.keySet());
+      for (ItemStatusRow item : esql.executeQueryAndMapResult(
+              "SELECT * FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ?", ItemStatusRow.MAPPER,
+              orderID, order.getTimeStampRecieved())) {
+          gone.remove(item.getItemName());
+          String before = shown.put(item.getItemName(), item.getStatus());
+          if (before == null)
+              lines.add("order " + orderID + ": " + item.getItemName() + " added");
+          else if (!before.equals(item.getStatus()))
+              lines.add("order " + orderID + ": " + item.getItemName() + " " + item.getStatus());
+      }
+      for (String itemName : gone) {
+          shown.remove(itemName);
+          lines.add("order " + orderID + ": " + itemName + " removed");
+      }
+      return lines;
+  }
+
+  public static void displayCustomerOrderHistory (Cafe esql, Terminal term, String sessionLogin) {
+      term.out.println("");
+      term.out.println("CUSTOMERS' UNPAID ORDERS (WITHIN 24 HOURS)");
+      term.out.println("------------------");
+      java.sql.Timestamp since = new java.sql.Timestamp(System.currentTimeMillis() - 24L * 60 * 60 * 1000);
+      try{
+          List<OrderRow> unpaid = esql.openOrders().since(since); // no query once the open orders were read
+          int shown = 0;
+          while (true) {
+              int end = Math.min(shown + OrderHistory.PAGE_SIZE, unpaid.size());
+              printOrders(term, unpaid.subList(shown, end));
+              shown = end;
+              if (shown >= unpaid.size())
+                  return;
+              term.out.println("---------");
+              term.out.println(String.format("1. Older orders (%d more)", unpaid.size() - shown));
+              term.out.println("9. Go back");
+              if (readChoice(term) != 1)
+                  return;
+          }
       }catch(Exception e) {
-          System.err.println (e.getMessage ());
+          term.err.println (e.getMessage ());
       }
   } 
 }//end
@@ -0,0 +1,359 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps a bounded pool of physical connections to the
+ * database. Connections are opened lazily up to the maximum size, checked
+ * before they are handed out when they have been idle for a while, and
+ * closed again by a background evictor once they sit idle for too long
+ * (never dropping below the minimum size). Each pooled connection owns its
+ * own prepared statement cache.
+ *
+ */
+public class ConnectionPool {
+
+   public static final int DEFAULT_MIN_SIZE = 1;
+   public static final int DEFAULT_MAX_SIZE = 8;
+   public static final long DEFAULT_BORROW_TIMEOUT_MS = 5000;
+   public static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+   // connections idle for less than this are handed out without a check
+   private static final long VALIDATION_INTERVAL_MS = 30 * 1000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _borrowTimeout;
+   private final long _idleTimeout;
+
+   // idle connections, most recently returned first
+   private final LinkedList<PooledConnection> _idle = new LinkedList<PooledConnection>();
+
+   // number of physical connections currently open (idle or borrowed)
+   private int _open = 0;
+   private boolean _closed = false;
+
+   // borrow metrics
+   private long _borrows = 0;
+   private long _borrowTimeouts = 0;
+   private long _totalWaitNanos = 0;
+   private long _maxWaitNanos = 0;
+
+   private final Timer _evictor;
+
+   /**
+    * Creates a new pool and opens the minimum number of connections
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open even when idle
+    * @param maxSize the maximum number of connections open at once
+    * @param borrowTimeout milliseconds to wait for a free connection
+    * @param idleTimeout milliseconds before an idle connection is closed
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public ConnectionPool(String url, String user, String passwd, int minSize, int maxSize,
+                         long borrowTimeout, long idleTimeout) throws SQLException {
+      if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+         throw new IllegalArgumentException("Invalid pool size " + minSize + ".." + maxSize);
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._minSize = minSize;
+      this._maxSize = maxSize;
+      this._borrowTimeout = borrowTimeout;
+      this._idleTimeout = idleTimeout;
+
+      try {
+         for (int i = 0; i < minSize; ++i) {
+            this._idle.add(open());
+            this._open++;
+         }
+      }catch (SQLException e) {
+         // the pool is never handed out, close what was opened so far
+         for (PooledConnection conn : this._idle)
+            conn.close();
+         this._idle.clear();
+         this._open = 0;
+         throw e;
+      }
+
+      this._evictor = new Timer("connection-pool-evictor", true);
+      long period = Math.max(1000, idleTimeout / 2);
+      this._evictor.schedule(new TimerTask() {
+         public void run() {
+            evictIdle();
+         }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Takes a connection out of the pool, opening a new one if none is idle
+    * and the pool is below its maximum size, or waiting for one to be
+    * returned otherwise.
+    *
+    * @return a validated connection, to be handed back with release
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + this._borrowTimeout * 1000000L;
+      while (true) {
+         PooledConnection candidate = null;
+         boolean mayOpen = false;
+         synchronized (this) {
+            while (!this._closed && this._idle.isEmpty() && this._open >= this._maxSize) {
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  this._borrowTimeouts++;
+                  throw new SQLException("Timed out after " + this._borrowTimeout +
+                                         "ms waiting for a database connection");
+               }
+               try {
+                  wait(remaining / 1000000L + 1);
+               }catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }
+            }
+            if (this._closed)
+               throw new SQLException("Connection pool is closed");
+            if (!this._idle.isEmpty()) {
+               candidate = this._idle.removeFirst();
+            } else {
+               this._open++;
+               mayOpen = true;
+            }
+         }
+
+         if (mayOpen) {
+            try {
+               candidate = open();
+            }catch (SQLException e) {
+               synchronized (this) {
+                  this._open--;
+                  notifyAll();
+               }
+               throw e;
+            }
+         } else if (!validate(candidate)) {
+            discard(candidate);
+            continue;
+         }
+         recordWait(System.nanoTime() - start);
+         return candidate;
+      }
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool. Connections that were
+    * marked broken, or that come back after the pool was closed, are closed.
+    *
+    * @param conn the connection returned by borrow
+    */
+   public void release(PooledConnection conn) {
+      if (conn.isBroken()) {
+         discard(conn);
+         return;
+      }
+      conn.touch();
+      synchronized (this) {
+         if (!this._closed) {
+            this._idle.addFirst(conn);
+            notifyAll();
+            return;
+         }
+      }
+      discard(conn);
+   }//end release
+
+   /**
+    * Closes every idle connection and stops handing out new ones.
+    * Borrowed connections are closed when they are released.
+    */
+   public void close() {
+      List<PooledConnection> toClose;
+      synchronized (this) {
+         this._closed = true;
+         toClose = new ArrayList<PooledConnection>(this._idle);
+         this._idle.clear();
+         notifyAll();
+      }
+      this._evictor.cancel();
+      for (PooledConnection conn : toClose)
+         discard(conn);
+   }//end close
+
+   /**
+    * @return the number of physical connections currently open
+    */
+   public synchronized int getOpenCount() {
+      return this._open;
+   }
+
+   /**
+    * @return the number of connections waiting in the pool
+    */
+   public synchronized int getIdleCount() {
+      return this._idle.size();
+   }
+
+   /**
+    * @return the number of borrows that gave up waiting for a connection
+    */
+   public synchronized long getBorrowTimeouts() {
+      return this._borrowTimeouts;
+   }
+
+   /**
+    * @return the longest time in milliseconds a borrow had to wait
+    */
+   public synchronized double getMaxWaitMillis() {
+      return this._maxWaitNanos / 1000000.0;
+   }
+
+   /**
+    * @return the average time in milliseconds a borrow had to wait
+    */
+   public synchronized double getAverageWaitMillis() {
+      return this._borrows == 0 ? 0 : (this._totalWaitNanos / (double) this._borrows) / 1000000.0;
+   }
+
+   public synchronized String toString() {
+      return String.format("open=%d idle=%d max=%d borrows=%d timeouts=%d avgWait=%.3fms maxWait=%.3fms",
+                           this._open, this._idle.size(), this._maxSize, this._borrows,
+                           this._borrowTimeouts, getAverageWaitMillis(), getMaxWaitMillis());
+   }
+
+   private synchronized void recordWait(long nanos) {
+      this._borrows++;
+      this._totalWaitNanos += nanos;
+      if (nanos > this._maxWaitNanos)
+         this._maxWaitNanos = nanos;
+   }
+
+   /**
+    * Opens a connection that is not part of the pool, for long lived uses
+    * such as LISTEN. The caller closes it.
+    *
+    * @return a new physical connection
+    * @throws java.sql.SQLException when failed to make a connection.
+    */
+   public Connection openUnpooled() throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }
+
+   private PooledConnection open() throws SQLException {
+      return new PooledConnection(DriverManager.getConnection(this._url, this._user, this._passwd));
+   }
+
+   /*
+    * Checks a connection that has been idle for a while with a trivial
+    * query; connections returned recently are trusted as they are.
+    **/
+   private boolean validate(PooledConnection conn) {
+      if (System.currentTimeMillis() - conn.lastUsed() < VALIDATION_INTERVAL_MS)
+         return true;
+      try {
+         ResultSet rs = conn.statements().prepare("SELECT 1").executeQuery();
+         rs.close();
+         return true;
+      }catch (SQLException e) {
+         return false;
+      }
+   }//end validate
+
+   private void discard(PooledConnection conn) {
+      synchronized (this) {
+         this._open--;
+         notifyAll();
+      }
+      conn.close();
+   }
+
+   /*
+    * Closes connections idle for longer than the idle timeout, keeping at
+    * least the minimum number open.
+    **/
+   private void evictIdle() {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      long cutoff = System.currentTimeMillis() - this._idleTimeout;
+      synchronized (this) {
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext() && this._open - expired.size() > this._minSize) {
+            PooledConnection conn = it.next();
+            if (conn.lastUsed() < cutoff) {
+               it.remove();
+               expired.add(conn);
+            }
+         }
+      }
+      for (PooledConnection conn : expired)
+         discard(conn);
+   }//end evictIdle
+
+   /**
+    * A physical connection owned by the pool together with its statement
+    * cache.
+    */
+   public static class PooledConnection {
+
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private long _lastUsed;
+      private boolean _broken = false;
+
+      PooledConnection(Connection connection) {
+         this._connection = connection;
+         this._statements = new StatementCache(connection, StatementCache.DEFAULT_CAPACITY);
+         this._lastUsed = System.currentTimeMillis();
+      }
+
+      public Connection connection() {
+         return this._connection;
+      }
+
+      public StatementCache statements() {
+         return this._statements;
+      }
+
+      /**
+       * Marks the connection as unusable so the pool closes it on release.
+       */
+      public void markBroken() {
+         this._broken = true;
+      }
+
+      public boolean isBroken() {
+         return this._broken;
+      }
+
+      long lastUsed() {
+         return this._lastUsed;
+      }
+
+      void touch() {
+         this._lastUsed = System.currentTimeMillis();
+      }
+
+      void close() {
+         this._statements.clear();
+         try {
+            this._connection.close();
+         }catch (SQLException e) {
+            // ignored.
+         }
+      }
+   }//end PooledConnection
+}//end ConnectionPool
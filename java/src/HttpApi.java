@@ -0,0 +1,576 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * This class serves the menu and order operations as JSON over HTTP on
+ * localhost, for kiosks and kitchen displays. Parameters come from the
+ * query string and, for POST, from a form-encoded body of at most
+ * MAX_BODY bytes; a longer one gets 413. Every call but
+ * the menu search carries the caller's login and password, in a Basic
+ * Authorization header or in a POST body, never in the query string,
+ * which ends up in access logs; a query string carrying them is refused.
+ * Verified credentials are remembered for LOGIN_TTL_MS, so a kiosk
+ * polling the API does not look its user up on every call.
+ *
+ *   GET  /menu[?name=..|?type=..]             menu items
+ *   GET  /orders[?limit=5]                    the caller's latest orders,
+ *                                             archived ones included
+ *   POST /orders  item...                     place an order
+ *   GET  /items?orderid[&timestamprecieved]   items of an order
+ *   POST /status  orderid, item, status       change an item status
+ *                                             (staff only); without item
+ *                                             every pending item of the
+ *                                             orders (orderid repeats),
+ *                                             without orderid every
+ *                                             pending unit of the item
+ *   GET  /kitchen                             unfinished items by name
+ *                                             (staff only)
+ *
+ * A call on one order may pass the timestamprecieved /orders lists with
+ * it, which confines the lookup of the order to its month's partition.
+ *
+ * Results are read in full, at most MAX_LIMIT rows, before the response
+ * starts, so no connection or transaction is held while a slow client
+ * reads and a failed query still gets an error status. Handlers run on
+ * virtual threads when the JVM has them.
+ *
+ */
+public class HttpApi {
+
+   private static final String[] STATUSES = { "Hasn't Started", "Started", "Finished" };
+
+   // most rows one call returns
+   private static final int MAX_LIMIT = 100;
+
+   // most bytes a POST body may have
+   private static final int MAX_BODY = 64 * 1024;
+
+   // how long verified credentials are trusted without asking Users again
+   private static final long LOGIN_TTL_MS = 60 * 1000;
+
+   // most remembered logins before the oldest are forgotten
+   private static final int MAX_LOGINS = 1024;
+
+   private final Cafe _esql;
+   private final OrderService _orders;
+   private final int _port;
+
+   // verified logins by login name
+   private final ConcurrentHashMap<String, Login> _logins = new ConcurrentHashMap<String, Login>();
+
+   /**
+    * @param esql the database the operations work on
+    * @param port the local port to listen on
+    */
+   public HttpApi(Cafe esql, int port) {
+      this._esql = esql;
+      this._orders = esql.orders();
+      this._port = port;
+   }
+
+   /**
+    * Starts serving and returns; requests are handled on the server's
+    * executor threads.
+    *
+    * @throws java.io.IOException when the port could not be bound
+    */
+   public HttpServer start() throws IOException {
+      HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), this._port), 256);
+      server.createContext("/menu", handler(new Endpoint() {
+         public void handle(Call call) throws Exception {
+            menu(call);
+         }
+      }));
+      server.createContext("/orders", handler(new Endpoint() {
+         public void handle(Call call) throws Exception {
+            if (call.isPost())
+               placeOrder(call);
+            else
+               orders(call);
+         }
+      }));
+      server.createContext("/items", handler(new Endpoint() {
+         public void handle(Call call) throws Exception {
+            items(call);
+         }
+      }));
+      server.createContext("/status", handler(new Endpoint() {
+         public void handle(Call call) throws Exception {
+            if (!call.isPost())
+               throw new HttpError(405, "Use POST");
+            status(call);
+         }
+      }));
+      server.createContext("/kitchen", handler(new Endpoint() {
+         public void handle(Call call) throws Exception {
+            kitchen(call);
+         }
+      }));
+      server.setExecutor(TerminalServer.newSessionExecutor());
+      server.start();
+      System.out.println("Serving HTTP on localhost:" + this._port);
+      return server;
+   }//end start
+
+   private void menu(Call call) throws Exception {
+      String name = call.param("name");
+      String type = call.param("type");
+      List<MenuItem> items;
+      if (name != null) {
+         MenuItem item = this._esql.menu().byName(name);
+         items = item == null ? Collections.<MenuItem>emptyList() : Collections.singletonList(item);
+      } else if (type != null) {
+         items = this._esql.menu().byType(type);
+      } else {
+         items = this._esql.menu().all();
+      }
+      JsonWriter json = call.respond(200);
+      json.beginObject().name("items").beginArray();
+      for (MenuItem item : items) {
+         json.beginObject()
+             .name("itemName").value(item.getItemName())
+             .name("type").value(item.getType())
+             .name("price").value(item.getPrice())
+             .name("description").value(item.getDescription())
+             .name("imageURL").value(item.getImageURL())
+             .endObject();
+      }
+      json.endArray().endObject();
+   }//end menu
+
+   private void orders(Call call) throws Exception {
+      Session session = logIn(call);
+      int limit = call.intParam("limit", OrderHistory.PAGE_SIZE);
+      if (limit < 1)
+         throw new HttpError(400, "Parameter limit must be positive");
+      OrderHistory.Page page = OrderHistory.forUser(this._esql, session.getLogin(), Math.min(limit, MAX_LIMIT)).newest();
+      JsonWriter json = call.respond(200);
+      json.beginObject().name("orders").beginArray();
+      for (OrderRow order : page.getRows()) {
+         json.beginObject()
+             .name("orderid").value(order.getOrderId())
+             .name("login").value(order.getLogin())
+             .name("paid").value(order.isPaid())
+             .name("timestamprecieved").value(order.getTimeStampRecieved().toString())
+             .name("total").value(order.getTotal())
+             .endObject();
+      }
+      json.endArray().name("more").value(page.hasOlder()).endObject();
+   }//end orders
+
+   private void placeOrder(Call call) throws Exception {
+      Session session = logIn(call);
+      List<String> items = call.params("item");
+      if (items.isEmpty())
+         throw new HttpError(400, "An order needs at least one item");
+      if (new java.util.HashSet<String>(items).size() != items.size())
+         throw new HttpError(400, "An item can only be ordered once");
+      int orderID = call.await(this._orders.placeOrder(session.getLogin(), items));
+      call.respond(200).beginObject().name("orderid").value(orderID).endObject();
+   }
+
+   private void items(Call call) throws Exception {
+      Session session = logIn(call);
+      OrderRow order = order(call);
+      if (!session.isStaff() && !session.getLogin().equals(order.getLogin()))
+         throw new HttpError(404, "No order " + order.getOrderId());
+      List<ItemStatusRow> items = this._esql.executeQueryAndMapResult(
+         "SELECT * FROM ItemStatus I WHERE I.orderID = ? AND I.timeStampRecieved = ? ORDER BY I.itemName LIMIT ?",
+         ItemStatusRow.MAPPER, order.getOrderId(), order.getTimeStampRecieved(), MAX_LIMIT);
+      JsonWriter json = call.respond(200);
+      json.beginObject().name("items").beginArray();
+      for (ItemStatusRow item : items) {
+         json.beginObject()
+             .name("orderid").value(item.getOrderId())
+             .name("itemname").value(item.getItemName())
+             .name("lastupdated").value(item.getLastUpdated().toString())
+             .name("status").value(item.getStatus())
+             .name("comments").value(item.getComments())
+             .name("unitprice").value(item.getUnitPrice())
+             .endObject();
+      }
+      json.endArray().endObject();
+   }//end items
+
+   private void status(Call call) throws Exception {
+      Session session = logIn(call);
+      if (!session.isStaff())
+         throw new HttpError(403, "Only staff can change item status");
+      String item = call.param("item");
+      String status = null;
+      for (String known : STATUSES)
+         if (known.equalsIgnoreCase(call.required("status")))
+            status = known;
+      if (status == null)
+         throw new HttpError(400, "Unknown status");
+      if (item != null && call.param("orderid") != null) {
+         OrderRow order = order(call);
+         boolean updated = this._esql.setItemStatus(order.getOrderId(), order.getTimeStampRecieved(), item, status);
+         call.respond(200).beginObject().name("updated").value(updated).endObject();
+         return;
+      }
+      int moved;
+      try {
+         if (item != null) {
+            moved = this._esql.setAllItemStatus(item, status);
+         } else {
+            List<Integer> orderIDs = new ArrayList<Integer>();
+            for (String orderID : call.params("orderid"))
+               orderIDs.add(parseInt("orderid", orderID));
+            if (orderIDs.isEmpty())
+               throw new HttpError(400, "Missing parameter orderid");
+            moved = this._esql.setOrdersStatus(orderIDs, status);
+         }
+      } catch (IllegalArgumentException e) {
+         throw new HttpError(400, e.getMessage());
+      }
+      call.respond(200).beginObject().name("moved").value(moved).endObject();
+   }
+
+   private void kitchen(Call call) throws Exception {
+      Session session = logIn(call);
+      if (!session.isStaff())
+         throw new HttpError(403, "Only staff can see the kitchen prep list");
+      List<KitchenBoard.Line> lines = this._esql.kitchen().lines();
+      JsonWriter json = call.respond(200);
+      json.beginObject().name("items").beginArray();
+      for (KitchenBoard.Line line : lines) {
+         json.beginObject()
+             .name("itemName").value(line.getItemName())
+             .name("waiting").value(line.getWaiting())
+             .name("oldest").value(line.getOldest().toString())
+             .endObject();
+      }
+      json.endArray().endObject();
+   }
+
+   /*
+    * Checks the credentials of a call, answering from the logins verified
+    * in the last LOGIN_TTL_MS when the password matches the one verified.
+    * Wrong credentials are never remembered.
+    **/
+   private Session logIn(Call call) throws HttpError, SQLException {
+      String[] credentials = call.credentials();
+      String login = credentials[0];
+      byte[] digest = Login.digest(credentials[1]);
+      long now = System.currentTimeMillis();
+      Login known = this._logins.get(login);
+      if (known != null && known.expires > now && MessageDigest.isEqual(known.digest, digest))
+         return known.session;
+      Session session = Session.logIn(this._esql, login, credentials[1]);
+      if (session == null) {
+         this._logins.remove(login);
+         throw new HttpError(401, "Wrong login or password");
+      }
+      if (this._logins.size() >= MAX_LOGINS)
+         for (Map.Entry<String, Login> entry : this._logins.entrySet())
+            if (entry.getValue().expires <= now)
+               this._logins.remove(entry.getKey());
+      if (this._logins.size() < MAX_LOGINS)
+         this._logins.put(login, new Login(session, digest, now + LOGIN_TTL_MS));
+      return session;
+   }//end logIn
+
+   /*
+    * Reads the live order a call names, in its month's partition when the
+    * call passes timestamprecieved, else by probing every month once; the
+    * statements on the order that follow use its time and stay in that
+    * partition either way.
+    **/
+   private OrderRow order(Call call) throws Exception {
+      int orderID = call.requiredInt("orderid");
+      String placed = call.param("timestamprecieved");
+      OrderRow order;
+      if (placed == null) {
+         order = this._esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderID = ?", OrderRow.MAPPER, orderID);
+      } else {
+         java.sql.Timestamp time;
+         try {
+            time = java.sql.Timestamp.valueOf(placed);
+         } catch (IllegalArgumentException e) {
+            throw new HttpError(400, "Parameter timestamprecieved must be a time as /orders lists it");
+         }
+         order = this._esql.executeQueryForRow("SELECT * FROM Orders O WHERE O.orderID = ? AND O.timeStampRecieved = ?",
+                                               OrderRow.MAPPER, orderID, time);
+      }
+      if (order == null)
+         throw new HttpError(404, "No order " + orderID);
+      return order;
+   }//end order
+
+   private static int parseInt(String name, String value) throws HttpError {
+      try {
+         return Integer.parseInt(value);
+      } catch (NumberFormatException e) {
+         throw new HttpError(400, "Parameter " + name + " must be a number");
+      }
+   }
+
+   /*
+    * Decodes the base64 of a Basic Authorization header; java.util.Base64
+    * is not there on Java 7.
+    **/
+   private static byte[] decodeBase64(String encoded) throws HttpError {
+      String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      int end = encoded.length();
+      while (end > 0 && encoded.charAt(end - 1) == '=')
+         end--;
+      if (encoded.length() % 4 != 0 || encoded.length() - end > 2)
+         throw new HttpError(401, "Malformed Authorization header");
+      java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+      int bits = 0, buffer = 0;
+      for (int i = 0; i < end; i++) {
+         int value = alphabet.indexOf(encoded.charAt(i));
+         if (value < 0)
+            throw new HttpError(401, "Malformed Authorization header");
+         buffer = (buffer << 6) | value;
+         bits += 6;
+         if (bits >= 8) {
+            bits -= 8;
+            out.write((buffer >> bits) & 0xff);
+         }
+      }
+      return out.toByteArray();
+   }//end decodeBase64
+
+   private static HttpHandler handler(final Endpoint endpoint) {
+      return new HttpHandler() {
+         public void handle(HttpExchange exchange) throws IOException {
+            Call call = new Call(exchange);
+            try {
+               call.readBody();
+               endpoint.handle(call);
+            } catch (HttpError e) {
+               call.error(e.status, e.getMessage());
+            } catch (Exception e) {
+               call.error(500, e.getMessage());
+            } finally {
+               call.close();
+            }
+         }
+      };
+   }
+
+   /**
+    * One route.
+    */
+   private interface Endpoint {
+      void handle(Call call) throws Exception;
+   }
+
+   /**
+    * Credentials verified recently, kept by the digest of their password.
+    */
+   private static class Login {
+      final Session session;
+      final byte[] digest;
+      final long expires;
+
+      Login(Session session, byte[] digest, long expires) {
+         this.session = session;
+         this.digest = digest;
+         this.expires = expires;
+      }
+
+      static byte[] digest(String password) {
+         try {
+            return MessageDigest.getInstance("SHA-256").digest(password.getBytes(Charset.forName("UTF-8")));
+         } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has SHA-256.
+         }
+      }
+   }//end Login
+
+   /**
+    * A failure reported to the client with an HTTP status.
+    */
+   private static class HttpError extends Exception {
+
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      HttpError(int status, String message) {
+         super(message);
+         this.status = status;
+      }
+   }
+
+   /**
+    * One request and its response.
+    */
+   private static class Call {
+      private final HttpExchange _exchange;
+      private final Map<String, List<String>> _params = new HashMap<String, List<String>>();
+      private final Map<String, List<String>> _form = new HashMap<String, List<String>>();
+      private Writer _writer = null;
+
+      Call(HttpExchange exchange) throws IOException {
+         this._exchange = exchange;
+         parse(exchange.getRequestURI().getRawQuery(), this._params);
+      }
+
+      /*
+       * Reads the form of a POST body, refusing bodies of more than
+       * MAX_BODY bytes before anything is read when the client declares
+       * the length, and while reading when it does not.
+       **/
+      void readBody() throws IOException, HttpError {
+         if (!isPost())
+            return;
+         String length = this._exchange.getRequestHeaders().getFirst("Content-Length");
+         if (length != null) {
+            try {
+               if (Long.parseLong(length.trim()) > MAX_BODY)
+                  throw new HttpError(413, "Request body larger than " + MAX_BODY + " bytes");
+            } catch (NumberFormatException e) {
+               throw new HttpError(400, "Malformed Content-Length");
+            }
+         }
+         InputStream body = this._exchange.getRequestBody();
+         ByteArrayOutputStream form = new ByteArrayOutputStream();
+         byte[] buffer = new byte[4096];
+         int read;
+         while ((read = body.read(buffer)) > 0) {
+            if (form.size() + read > MAX_BODY)
+               throw new HttpError(413, "Request body larger than " + MAX_BODY + " bytes");
+            form.write(buffer, 0, read);
+         }
+         String encoded = new String(form.toByteArray(), Charset.forName("UTF-8"));
+         parse(encoded, this._form);
+         parse(encoded, this._params);
+      }
+
+      boolean isPost() {
+         return "POST".equalsIgnoreCase(this._exchange.getRequestMethod());
+      }
+
+      String param(String name) {
+         List<String> values = this._params.get(name);
+         return values == null ? null : values.get(0);
+      }
+
+      List<String> params(String name) {
+         List<String> values = this._params.get(name);
+         return values == null ? Collections.<String>emptyList() : values;
+      }
+
+      String required(String name) throws HttpError {
+         String value = param(name);
+         if (value == null)
+            throw new HttpError(400, "Missing parameter " + name);
+         return value;
+      }
+
+      int intParam(String name, int fallback) throws HttpError {
+         return param(name) == null ? fallback : requiredInt(name);
+      }
+
+      int requiredInt(String name) throws HttpError {
+         return parseInt(name, required(name));
+      }
+
+      /*
+       * Returns the login and password of the caller, from a Basic
+       * Authorization header or else from the POST body.
+       **/
+      String[] credentials() throws HttpError {
+         String query = this._exchange.getRequestURI().getRawQuery();
+         if (query != null && (("&" + query).contains("&login=") || ("&" + query).contains("&password=")))
+            throw new HttpError(400, "Send login and password in an Authorization header or a POST body");
+         String header = this._exchange.getRequestHeaders().getFirst("Authorization");
+         if (header != null) {
+            if (!header.regionMatches(true, 0, "Basic ", 0, 6))
+               throw new HttpError(401, "Only Basic authorization is supported");
+            String decoded = new String(decodeBase64(header.substring(6).trim()), Charset.forName("UTF-8"));
+            int colon = decoded.indexOf(':');
+            if (colon < 0)
+               throw new HttpError(401, "Malformed Authorization header");
+            return new String[] { decoded.substring(0, colon), decoded.substring(colon + 1) };
+         }
+         List<String> login = this._form.get("login");
+         List<String> password = this._form.get("password");
+         if (login == null || password == null)
+            throw new HttpError(401, "Missing login and password");
+         return new String[] { login.get(0), password.get(0) };
+      }//end credentials
+
+      <T> T await(java.util.concurrent.Future<T> result) throws Exception {
+         try {
+            return result.get();
+         } catch (ExecutionException e) {
+            if (e.getCause() instanceof IllegalArgumentException)
+               throw new HttpError(400, e.getCause().getMessage());
+            if (e.getCause() instanceof Exception)
+               throw (Exception) e.getCause();
+            throw e;
+         }
+      }
+
+      /*
+       * Sends the headers and returns a writer for the body, which is
+       * streamed with chunked encoding.
+       **/
+      JsonWriter respond(int status) throws IOException {
+         this._exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+         this._exchange.sendResponseHeaders(status, 0);
+         this._writer = new OutputStreamWriter(new BufferedOutputStream(this._exchange.getResponseBody(), 8192), "UTF-8");
+         return new JsonWriter(this._writer);
+      }
+
+      void error(int status, String message) throws IOException {
+         if (this._writer != null)
+            return; // the response already started, only closing it is left.
+         if (status == 401)
+            this._exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"cafe\"");
+         respond(status).beginObject().name("error").value(message).endObject();
+      }
+
+      void close() throws IOException {
+         try {
+            if (this._writer != null)
+               this._writer.close();
+         } finally {
+            this._exchange.close();
+         }
+      }
+
+      private static void parse(String encoded, Map<String, List<String>> params) throws IOException {
+         if (encoded == null || encoded.length() == 0)
+            return;
+         for (String pair : encoded.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), "UTF-8");
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+            List<String> values = params.get(name);
+            if (values == null) {
+               values = new ArrayList<String>();
+               params.put(name, values);
+            }
+            values.add(value);
+         }
+      }
+   }//end Call
+}//end HttpApi
@@ -0,0 +1,284 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * This class pushes changes to ItemStatus to the screens that watch them.
+ * A trigger on ItemStatus sends a NOTIFY on the item_status channel for
+ * every row written, with a payload of the form
+ *
+ *   <op>,<orderid>,<status>,<itemName>
+ *
+ * where op is I, U or D. One connection outside the pool LISTENs to the
+ * channel and hands every change to the subscribers of its order, so a
+ * screen learns about a change within milliseconds and nothing re-reads
+ * ItemStatus to find out.
+ *
+ * The connection is only open while someone is subscribed: the first
+ * subscriber starts the listener thread and the last one to unsubscribe
+ * stops it.
+ *
+ * The driver is called reflectively since it is only on the runtime class
+ * path. Drivers that can wait for a notification do so; older ones only
+ * see notifications after a statement, so the connection sends an empty
+ * one, which touches no table, POLL_INTERVAL_MS after the last
+ * notification, doubling the wait up to MAX_POLL_INTERVAL_MS while none
+ * arrive. Drivers too old to read payloads deliver changes with only the
+ * op set to '?', meaning "something changed, reload".
+ *
+ * The 7.3 driver bundled in lib/ is such a driver on both counts: every
+ * change arrives as '?', and a quiet channel still costs a round trip
+ * every MAX_POLL_INTERVAL_MS while anyone is subscribed. A current driver
+ * on the class path gets the blocking wait and the payloads without
+ * changes here.
+ *
+ */
+public class ItemStatusListener {
+
+   public static final String CHANNEL = "item_status";
+
+   // wait between empty statements on drivers that cannot block, right
+   // after a notification and at most while none arrive
+   public static final long POLL_INTERVAL_MS = 50;
+   public static final long MAX_POLL_INTERVAL_MS = 1000;
+
+   // wait before reconnecting after the connection failed
+   private static final long RETRY_DELAY_MS = 1000;
+
+   /**
+    * Receives changes. Called on the listener thread, so implementations
+    * hand the change off and return quickly.
+    */
+   public interface Subscriber {
+      void changed(Change change);
+   }
+
+   private final ConnectionPool _pool;
+   private final List<Subscription> _subscriptions = new CopyOnWriteArrayList<Subscription>();
+   private Thread _thread = null;
+   private volatile boolean _closed = false;
+
+   /**
+    * @param pool the pool whose database is listened to
+    */
+   public ItemStatusListener(ConnectionPool pool) {
+      this._pool = pool;
+   }
+
+   /**
+    * Subscribes to the changes of one order, starting the listener if it
+    * is not running yet.
+    *
+    * @param orderID the order to watch, or -1 for every order
+    * @param subscriber receives the changes
+    */
+   public synchronized void subscribe(int orderID, Subscriber subscriber) {
+      this._subscriptions.add(new Subscription(orderID, subscriber));
+      if (this._thread == null && !this._closed) {
+         this._thread = new Thread("item-status-listener") {
+            public void run() {
+               listen(this);
+            }
+         };
+         this._thread.setDaemon(true);
+         this._thread.start();
+      }
+   }//end subscribe
+
+   /**
+    * Stops delivering to a subscriber, for every order it watches, and
+    * stops the listener when no subscriber is left.
+    *
+    * @param subscriber the subscriber to remove
+    */
+   public synchronized void unsubscribe(Subscriber subscriber) {
+      for (Subscription subscription : this._subscriptions)
+         if (subscription.subscriber == subscriber)
+            this._subscriptions.remove(subscription);
+      if (this._subscriptions.isEmpty() && this._thread != null) {
+         this._thread.interrupt(); // it closes its own connection on the way out.
+         this._thread = null;
+      }
+   }//end unsubscribe
+
+   /**
+    * Stops the listener and closes its connection.
+    */
+   public void close() {
+      Thread thread;
+      synchronized (this) {
+         this._closed = true;
+         thread = this._thread;
+      }
+      if (thread != null) {
+         thread.interrupt();
+         try {
+            thread.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }//end close
+
+   /*
+    * Keeps a listening connection open until close() or the last
+    * unsubscribe, reconnecting after failures.
+    **/
+   private void listen(Thread self) {
+      while (running(self)) {
+         Connection conn = null;
+         try {
+            conn = this._pool.openUnpooled();
+            Statement stmt = conn.createStatement();
+            stmt.execute("LISTEN " + CHANNEL);
+            Object pg = unwrap(conn);
+            Method wait = method("getNotifications", int.class);
+            Method poll = method("getNotifications");
+            long idle = POLL_INTERVAL_MS;
+            while (running(self)) {
+               Object[] notifications;
+               if (wait != null) {
+                  notifications = (Object[]) wait.invoke(pg, (int) RETRY_DELAY_MS);
+               } else {
+                  stmt.execute(";");
+                  notifications = (Object[]) poll.invoke(pg);
+                  if (notifications != null && notifications.length > 0)
+                     idle = POLL_INTERVAL_MS;
+                  Thread.sleep(idle);
+                  idle = Math.min(idle * 2, MAX_POLL_INTERVAL_MS);
+               }
+               if (notifications != null)
+                  for (Object notification : notifications)
+                     deliver(Change.parse(payload(notification)));
+            }
+         } catch (InterruptedException e) {
+            // closed or unsubscribed
+         } catch (Exception e) {
+            if (running(self)) {
+               System.err.println("Item status listener failed, reconnecting: " + e.getMessage());
+               try {
+                  Thread.sleep(RETRY_DELAY_MS);
+               } catch (InterruptedException closed) {
+                  // closed or unsubscribed
+               }
+            }
+         } finally {
+            if (conn != null)
+               try {
+                  conn.close();
+               } catch (SQLException e) {
+                  // ignored.
+               }
+         }
+      }//end while
+   }//end listen
+
+   private synchronized boolean running(Thread self) {
+      return !this._closed && this._thread == self;
+   }
+
+   private void deliver(Change change) {
+      for (Subscription subscription : this._subscriptions) {
+         if (subscription.orderID >= 0 && change.getOrderId() >= 0 && subscription.orderID != change.getOrderId())
+            continue;
+         try {
+            subscription.subscriber.changed(change);
+         } catch (RuntimeException e) {
+            System.err.println("Item status subscriber failed: " + e.getMessage());
+         }
+      }
+   }
+
+   /*
+    * The driver's own connection class, which has getNotifications(),
+    * behind Connection.unwrap() on drivers that wrap it.
+    **/
+   private static Object unwrap(Connection conn) throws Exception {
+      Class<?> pg = Class.forName("org.postgresql.PGConnection");
+      if (pg.isInstance(conn))
+         return conn;
+      return conn.unwrap(pg);
+   }
+
+   private static Method method(String name, Class<?>... parameters) {
+      try {
+         return Class.forName("org.postgresql.PGConnection").getMethod(name, parameters);
+      } catch (Exception e) {
+         return null;
+      }
+   }
+
+   private static String payload(Object notification) {
+      try {
+         return (String) notification.getClass().getMethod("getParameter").invoke(notification);
+      } catch (Exception e) {
+         return null;
+      }
+   }
+
+   private static class Subscription {
+      final int orderID;
+      final Subscriber subscriber;
+
+      Subscription(int orderID, Subscriber subscriber) {
+         this.orderID = orderID;
+         this.subscriber = subscriber;
+      }
+   }
+
+   /**
+    * One change to an ItemStatus row, as sent by the trigger.
+    */
+   public static class Change {
+      private final char _op;
+      private final int _orderId;
+      private final String _status;
+      private final String _itemName;
+
+      Change(char op, int orderId, String status, String itemName) {
+         this._op = op;
+         this._orderId = orderId;
+         this._status = status;
+         this._itemName = itemName;
+      }
+
+      static Change parse(String payload) {
+         String[] fields = payload == null ? new String[0] : payload.split(",", 4);
+         if (fields.length < 4)
+            return new Change('?', -1, null, null);
+         try {
+            return new Change(fields[0].charAt(0), Integer.parseInt(fields[1]), fields[2], fields[3]);
+         } catch (NumberFormatException e) {
+            return new Change('?', -1, null, null);
+         }
+      }
+
+      // I for a new item, U for a changed one, D for a removed one, ? when unknown
+      public char getOp() {
+         return this._op;
+      }
+
+      // -1 when unknown
+      public int getOrderId() {
+         return this._orderId;
+      }
+
+      public String getStatus() {
+         return this._status;
+      }
+
+      public String getItemName() {
+         return this._itemName;
+      }
+
+      public String toString() {
+         if (this._op == '?')
+            return "items changed";
+         String what = this._op == 'I' ? "added" : this._op == 'D' ? "removed" : this._status;
+         return "order " + this._orderId + ": " + this._itemName + " " + what;
+      }
+   }//end Change
+}//end ItemStatusListener
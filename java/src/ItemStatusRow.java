@@ -0,0 +1,73 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * One row of the ItemStatus table: an item of an order and how far along
+ * it is.
+ *
+ */
+public class ItemStatusRow {
+
+   public static final RowMapper<ItemStatusRow> MAPPER = new RowMapper<ItemStatusRow>() {
+      public ItemStatusRow map(ResultSet rs) throws SQLException {
+         return new ItemStatusRow(rs.getInt("orderid"), rs.getString("itemName"), rs.getTimestamp("lastUpdated"),
+                                  rs.getString("status"), rs.getString("comments"), rs.getFloat("unitPrice"),
+                                  rs.getTimestamp("timeStampRecieved"));
+      }
+   };
+
+   private final int _orderId;
+   private final String _itemName;
+   private final Timestamp _lastUpdated;
+   private final String _status;
+   private final String _comments;
+   private final float _unitPrice;
+   private final Timestamp _timeStampRecieved;
+
+   public ItemStatusRow(int orderId, String itemName, Timestamp lastUpdated, String status, String comments,
+                        float unitPrice, Timestamp timeStampRecieved) {
+      this._orderId = orderId;
+      this._itemName = itemName;
+      this._lastUpdated = lastUpdated;
+      this._status = status;
+      this._comments = comments;
+      this._unitPrice = unitPrice;
+      this._timeStampRecieved = timeStampRecieved;
+   }
+
+   public int getOrderId() {
+      return this._orderId;
+   }
+
+   public String getItemName() {
+      return this._itemName;
+   }
+
+   public Timestamp getLastUpdated() {
+      return this._lastUpdated;
+   }
+
+   public String getStatus() {
+      return this._status;
+   }
+
+   public String getComments() {
+      return this._comments;
+   }
+
+   /**
+    * @return the price of the item when it was ordered
+    */
+   public float getUnitPrice() {
+      return this._unitPrice;
+   }
+
+   /**
+    * @return when the order of the item was placed, the partition key it
+    *         shares with its order
+    */
+   public Timestamp getTimeStampRecieved() {
+      return this._timeStampRecieved;
+   }
+}//end ItemStatusRow
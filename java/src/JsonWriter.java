@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * This class writes JSON straight to a Writer as values are produced,
+ * without building a document in memory. The caller is responsible for
+ * well-formed nesting; commas are added automatically.
+ *
+ */
+public class JsonWriter {
+
+   private final Writer _out;
+
+   // one entry per open object or array: whether it has a member yet
+   private boolean[] _hasMember = new boolean[8];
+   private int _depth = 0;
+
+   // a name was just written, the next value belongs to it
+   private boolean _afterName = false;
+
+   public JsonWriter(Writer out) {
+      this._out = out;
+   }
+
+   public JsonWriter beginObject() throws IOException {
+      return open('{');
+   }
+
+   public JsonWriter endObject() throws IOException {
+      return close('}');
+   }
+
+   public JsonWriter beginArray() throws IOException {
+      return open('[');
+   }
+
+   public JsonWriter endArray() throws IOException {
+      return close(']');
+   }
+
+   /**
+    * Writes the name of the next member of the current object.
+    */
+   public JsonWriter name(String name) throws IOException {
+      separate();
+      string(name);
+      this._out.write(':');
+      this._afterName = true;
+      return this;
+   }
+
+   public JsonWriter value(String value) throws IOException {
+      if (value == null)
+         return nullValue();
+      separate();
+      string(value);
+      return this;
+   }
+
+   public JsonWriter value(long value) throws IOException {
+      separate();
+      this._out.write(Long.toString(value));
+      return this;
+   }
+
+   /**
+    * Writes a float as its shortest decimal form, so that prices read
+    * from REAL columns are not widened to double, which would turn 3.99
+    * into 3.990000009536743.
+    */
+   public JsonWriter value(float value) throws IOException {
+      if (Float.isNaN(value) || Float.isInfinite(value))
+         return nullValue();
+      separate();
+      this._out.write(Float.toString(value));
+      return this;
+   }
+
+   public JsonWriter value(double value) throws IOException {
+      if (Double.isNaN(value) || Double.isInfinite(value))
+         return nullValue();
+      separate();
+      this._out.write(Double.toString(value));
+      return this;
+   }
+
+   public JsonWriter value(boolean value) throws IOException {
+      separate();
+      this._out.write(value ? "true" : "false");
+      return this;
+   }
+
+   public JsonWriter nullValue() throws IOException {
+      separate();
+      this._out.write("null");
+      return this;
+   }
+
+   public void flush() throws IOException {
+      this._out.flush();
+   }
+
+   private JsonWriter open(char bracket) throws IOException {
+      separate();
+      this._out.write(bracket);
+      if (this._depth == this._hasMember.length) {
+         boolean[] grown = new boolean[this._depth * 2];
+         System.arraycopy(this._hasMember, 0, grown, 0, this._depth);
+         this._hasMember = grown;
+      }
+      this._hasMember[this._depth++] = false;
+      return this;
+   }
+
+   private JsonWriter close(char bracket) throws IOException {
+      this._depth--;
+      this._out.write(bracket);
+      return this;
+   }
+
+   /*
+    * Writes the comma before every member but the first, except for the
+    * value that follows a name.
+    **/
+   private void separate() throws IOException {
+      if (this._afterName) {
+         this._afterName = false;
+         return;
+      }
+      if (this._depth > 0) {
+         if (this._hasMember[this._depth - 1])
+            this._out.write(',');
+         this._hasMember[this._depth - 1] = true;
+      }
+   }
+
+   private void string(String value) throws IOException {
+      this._out.write('"');
+      int start = 0;
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         String escape = null;
+         if (c == '"')
+            escape = "\\\"";
+         else if (c == '\\')
+            escape = "\\\\";
+         else if (c == '\n')
+            escape = "\\n";
+         else if (c == '\r')
+            escape = "\\r";
+         else if (c == '\t')
+            escape = "\\t";
+         else if (c < 0x20)
+            escape = String.format("\\u%04x", (int) c);
+         if (escape != null) {
+            this._out.write(value, start, i - start);
+            this._out.write(escape);
+            start = i + 1;
+         }
+      }
+      this._out.write(value, start, value.length() - start);
+      this._out.write('"');
+   }//end string
+}//end JsonWriter
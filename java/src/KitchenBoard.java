@@ -0,0 +1,299 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+
+/**
+ * This class keeps the kitchen prep list: every item that is not finished
+ * yet, across all unpaid orders, grouped by item name with how many are
+ * waiting and since when the oldest one has not moved. It is read once
+ * from the (status, lastUpdated) index and then kept up to date in memory
+ * by the order methods of Cafe, after their transaction committed, so the
+ * board can be redrawn as often as a screen likes without touching the
+ * table. Paying for an order takes its items off the board.
+ *
+ * Changes made by other processes, and items of paid orders whose status
+ * is changed afterwards, are set right by a background thread that reads
+ * the board again every RESYNC_INTERVAL_MS. read() computes the same list
+ * straight from the database in one query.
+ *
+ */
+public class KitchenBoard {
+
+   public static final String FINISHED = "Finished";
+
+   // how stale the board may get towards changes of other processes
+   public static final long RESYNC_INTERVAL_MS = 5000;
+
+   private static final String UNFINISHED =
+      "FROM ItemStatus I JOIN Orders O ON O.orderid = I.orderid AND O.timeStampRecieved = I.timeStampRecieved " +
+      "WHERE I.status IN ('Hasn''t Started', 'Started') AND NOT O.paid";
+
+   // unfinished items: order -> item name -> lastUpdated; null until first read
+   private Map<Integer, Map<String, Timestamp>> _byOrder = null;
+
+   // unfinished items: item name -> lastUpdated -> how many items share it
+   private final Map<String, TreeMap<Timestamp, Integer>> _byItem = new HashMap<String, TreeMap<Timestamp, Integer>>();
+
+   private final Cafe _esql;
+
+   // reads the board again; started by the first read
+   private Timer _resync = null;
+
+   // changes reported while the board is read, one list per read in
+   // progress, replayed on top of its result
+   private final Set<List<Runnable>> _missed =
+      Collections.newSetFromMap(new IdentityHashMap<List<Runnable>, Boolean>());
+
+   /**
+    * Creates an empty board that is read from the database on first use
+    *
+    * @param esql the database the unfinished items are read from
+    */
+   public KitchenBoard(Cafe esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return one line per item name with unfinished items, the line that
+    *         has waited longest first
+    * @throws java.sql.SQLException when the board had to be read and failed
+    */
+   public List<Line> lines() throws SQLException {
+      boolean read;
+      synchronized (this) {
+         read = this._byOrder != null;
+      }
+      if (!read)
+         reload();
+      synchronized (this) {
+         if (!read && this._resync == null) {
+            this._resync = new Timer("kitchen-board-resync", true);
+            this._resync.schedule(new TimerTask() {
+               public void run() {
+                  resync();
+               }
+            }, RESYNC_INTERVAL_MS, RESYNC_INTERVAL_MS);
+         }
+         return current();
+      }
+   }//end lines
+
+   private List<Line> current() {
+      List<Line> lines = new ArrayList<Line>(this._byItem.size());
+      for (Map.Entry<String, TreeMap<Timestamp, Integer>> item : this._byItem.entrySet()) {
+         int count = 0;
+         for (int n : item.getValue().values())
+            count += n;
+         lines.add(new Line(item.getKey(), count, item.getValue().firstKey()));
+      }
+      Collections.sort(lines);
+      return lines;
+   }//end current
+
+   /**
+    * Computes the prep list from the database in one query, without the
+    * in-memory board.
+    *
+    * @param esql the database to read
+    * @return one line per item name with unfinished items, oldest first
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static List<Line> read(Cafe esql) throws SQLException {
+      return esql.executeQueryAndMapResult(
+         "SELECT I.itemName, COUNT(*) AS waiting, MIN(I.lastUpdated) AS oldest " + UNFINISHED +
+         " GROUP BY I.itemName ORDER BY oldest, I.itemName",
+         Line.MAPPER);
+   }
+
+   /**
+    * Stops reading the board again.
+    */
+   public synchronized void close() {
+      if (this._resync != null)
+         this._resync.cancel();
+      this._resync = null;
+   }
+
+   /*
+    * The methods below are called after the change they report committed.
+    * Before the first read they only keep the change. A read, the first
+    * one or a resync, applies the changes reported while it ran on top of
+    * its board.
+    **/
+
+   synchronized void changed(final int orderID, final String itemName, final String status,
+                             final Timestamp lastUpdated) {
+      keep(new Runnable() {
+         public void run() {
+            changed(orderID, itemName, status, lastUpdated);
+         }
+      });
+      if (this._byOrder == null)
+         return;
+      take(orderID, itemName);
+      if (!FINISHED.equals(status))
+         put(orderID, itemName, lastUpdated);
+   }//end changed
+
+   synchronized void removed(final int orderID, final String itemName) {
+      keep(new Runnable() {
+         public void run() {
+            removed(orderID, itemName);
+         }
+      });
+      if (this._byOrder != null)
+         take(orderID, itemName);
+   }
+
+   // the order was paid for or cancelled
+   synchronized void closed(final int orderID) {
+      keep(new Runnable() {
+         public void run() {
+            closed(orderID);
+         }
+      });
+      if (this._byOrder == null)
+         return;
+      Map<String, Timestamp> items = this._byOrder.get(orderID);
+      if (items == null)
+         return;
+      for (String itemName : new ArrayList<String>(items.keySet()))
+         take(orderID, itemName);
+   }//end closed
+
+   // keeps a change for the reads in progress to apply again on their board
+   private void keep(Runnable change) {
+      for (List<Runnable> missed : this._missed)
+         missed.add(change);
+   }
+
+   private void put(int orderID, String itemName, Timestamp lastUpdated) {
+      Map<String, Timestamp> items = this._byOrder.get(orderID);
+      if (items == null) {
+         items = new HashMap<String, Timestamp>();
+         this._byOrder.put(orderID, items);
+      }
+      items.put(itemName, lastUpdated);
+      TreeMap<Timestamp, Integer> waiting = this._byItem.get(itemName);
+      if (waiting == null) {
+         waiting = new TreeMap<Timestamp, Integer>();
+         this._byItem.put(itemName, waiting);
+      }
+      Integer n = waiting.get(lastUpdated);
+      waiting.put(lastUpdated, n == null ? 1 : n + 1);
+   }//end put
+
+   private void take(int orderID, String itemName) {
+      Map<String, Timestamp> items = this._byOrder.get(orderID);
+      Timestamp lastUpdated = items == null ? null : items.remove(itemName);
+      if (lastUpdated == null)
+         return;
+      if (items.isEmpty())
+         this._byOrder.remove(orderID);
+      TreeMap<Timestamp, Integer> waiting = this._byItem.get(itemName);
+      int n = waiting.get(lastUpdated);
+      if (n > 1)
+         waiting.put(lastUpdated, n - 1);
+      else
+         waiting.remove(lastUpdated);
+      if (waiting.isEmpty())
+         this._byItem.remove(itemName);
+   }//end take
+
+   // runs on the resync thread
+   private void resync() {
+      try {
+         reload();
+      } catch (SQLException e) {
+         System.err.println("Reading the kitchen board failed: " + e.getMessage());
+      }
+   }
+
+   /*
+    * Replaces the board with a fresh read. The read runs outside the lock,
+    * which the change methods take as transactions commit; the changes
+    * they report meanwhile are kept and applied again on top of the fresh
+    * board.
+    **/
+   private void reload() throws SQLException {
+      List<Runnable> missed = new ArrayList<Runnable>();
+      synchronized (this) {
+         this._missed.add(missed);
+      }
+      List<ItemStatusRow> rows = null;
+      try {
+         rows = unfinished();
+      } finally {
+         synchronized (this) {
+            this._missed.remove(missed);
+            if (rows != null) {
+               load(rows);
+               for (Runnable change : missed)
+                  change.run();
+            }
+         }
+      }
+   }//end reload
+
+   private List<ItemStatusRow> unfinished() throws SQLException {
+      return this._esql.executeQueryAndMapResult("SELECT I.* " + UNFINISHED, ItemStatusRow.MAPPER);
+   }
+
+   private void load(List<ItemStatusRow> rows) {
+      this._byOrder = new HashMap<Integer, Map<String, Timestamp>>();
+      this._byItem.clear();
+      for (ItemStatusRow row : rows)
+         put(row.getOrderId(), row.getItemName(), row.getLastUpdated());
+   }
+
+   /**
+    * One item name on the board.
+    */
+   public static class Line implements Comparable<Line> {
+
+      static final RowMapper<Line> MAPPER = new RowMapper<Line>() {
+         public Line map(ResultSet rs) throws SQLException {
+            return new Line(rs.getString("itemName"), rs.getInt("waiting"), rs.getTimestamp("oldest"));
+         }
+      };
+
+      private final String _itemName;
+      private final int _waiting;
+      private final Timestamp _oldest;
+
+      Line(String itemName, int waiting, Timestamp oldest) {
+         this._itemName = itemName;
+         this._waiting = waiting;
+         this._oldest = oldest;
+      }
+
+      public String getItemName() {
+         return this._itemName;
+      }
+
+      // items of this name not finished yet
+      public int getWaiting() {
+         return this._waiting;
+      }
+
+      // lastUpdated of the item that has waited longest
+      public Timestamp getOldest() {
+         return this._oldest;
+      }
+
+      public int compareTo(Line other) {
+         int byAge = this._oldest.compareTo(other._oldest);
+         return byAge != 0 ? byAge : this._itemName.compareTo(other._itemName);
+      }
+   }//end Line
+}//end KitchenBoard
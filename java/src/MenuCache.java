@@ -0,0 +1,194 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps an in-process copy of the Menu table with indexes by
+ * item name and by type, so the ordering and search screens never have to
+ * query the menu. The copy is dropped by invalidate() after a local write
+ * and reloaded whenever the menu version counter kept in the MenuVersion
+ * table (bumped by a trigger on every change to Menu) moves, so changes
+ * made by other processes are picked up as well. The counter is checked
+ * every VERSION_CHECK_INTERVAL_MS by a background thread, never by a read,
+ * so reads only touch the database to load a menu that is not cached.
+ *
+ */
+public class MenuCache {
+
+   // how stale the cache may get before the version counter is checked
+   public static final long VERSION_CHECK_INTERVAL_MS = 5000;
+
+   private final Cafe _esql;
+
+   // current copy of the menu, null until loaded or after invalidate()
+   private volatile Snapshot _snapshot = null;
+
+   // checks the version counter; started by the first load
+   private Timer _checker = null;
+
+   /**
+    * Creates an empty cache that loads the menu on first use
+    *
+    * @param esql the database the menu is read from
+    */
+   public MenuCache(Cafe esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return every menu item
+    * @throws java.sql.SQLException when the menu had to be loaded and failed
+    */
+   public List<MenuItem> all() throws SQLException {
+      return current().items;
+   }
+
+   /**
+    * @param itemName the name of the item
+    * @return the menu item with that name, or null when there is none
+    * @throws java.sql.SQLException when the menu had to be loaded and failed
+    */
+   public MenuItem byName(String itemName) throws SQLException {
+      return current().byName.get(itemName);
+   }
+
+   /**
+    * @param type the item type
+    * @return every menu item of that type, empty when there is none
+    * @throws java.sql.SQLException when the menu had to be loaded and failed
+    */
+   public List<MenuItem> byType(String type) throws SQLException {
+      List<MenuItem> items = current().byType.get(type);
+      return items == null ? Collections.<MenuItem>emptyList() : items;
+   }
+
+   /**
+    * @param itemName the name of the item
+    * @return true when the menu has an item with that name
+    * @throws java.sql.SQLException when the menu had to be loaded and failed
+    */
+   public boolean containsName(String itemName) throws SQLException {
+      return byName(itemName) != null;
+   }
+
+   /**
+    * @param type the item type
+    * @return true when the menu has at least one item of that type
+    * @throws java.sql.SQLException when the menu had to be loaded and failed
+    */
+   public boolean containsType(String type) throws SQLException {
+      return current().byType.containsKey(type);
+   }
+
+   /**
+    * Drops the cached menu so the next read loads it again. Called after
+    * this process changes the Menu table.
+    */
+   public void invalidate() {
+      this._snapshot = null;
+   }
+
+   /**
+    * Stops checking the version counter.
+    */
+   public synchronized void close() {
+      if (this._checker != null)
+         this._checker.cancel();
+      this._checker = null;
+   }
+
+   /*
+    * Returns the cached snapshot, loading it when there is none yet or it
+    * was invalidated.
+    **/
+   private Snapshot current() throws SQLException {
+      Snapshot snapshot = this._snapshot;
+      if (snapshot != null)
+         return snapshot;
+
+      synchronized (this) {
+         if (this._snapshot == null)
+            this._snapshot = load();
+         if (this._checker == null) {
+            this._checker = new Timer("menu-version-check", true);
+            this._checker.schedule(new TimerTask() {
+               public void run() {
+                  check();
+               }
+            }, VERSION_CHECK_INTERVAL_MS, VERSION_CHECK_INTERVAL_MS);
+         }
+         return this._snapshot;
+      }
+   }//end current
+
+   /*
+    * Reloads the snapshot when the version counter in the database moved
+    * since it was loaded. Runs on the checker thread.
+    **/
+   private void check() {
+      try {
+         Snapshot snapshot = this._snapshot;
+         if (snapshot == null || snapshot.version == this._esql.executeQueryForInt("SELECT version FROM MenuVersion"))
+            return;
+         Snapshot loaded = load();
+         synchronized (this) {
+            // a local write invalidated it meanwhile; the next read loads it
+            if (this._snapshot == snapshot)
+               this._snapshot = loaded;
+         }
+      } catch (SQLException e) {
+         System.err.println("Menu version check failed: " + e.getMessage());
+      }
+   }//end check
+
+   /*
+    * Reads the version and the rows with one statement, so the snapshot
+    * is labelled with the version its rows were read at. The version comes
+    * on every row, and alone on a null row when the menu is empty.
+    **/
+   private Snapshot load() throws SQLException {
+      final long[] version = { -1 };
+      List<MenuItem> items = this._esql.executeQueryAndMapResult(
+         "SELECT V.version, M.* FROM MenuVersion V LEFT JOIN Menu M ON true",
+         new RowMapper<MenuItem>() {
+            public MenuItem map(ResultSet rs) throws SQLException {
+               version[0] = rs.getLong("version");
+               return rs.getString("itemName") == null ? null : MenuItem.MAPPER.map(rs);
+            }
+         });
+      items.removeAll(Collections.singleton(null));
+      return new Snapshot(version[0], items);
+   }//end load
+
+   /**
+    * An immutable copy of the menu at one version.
+    */
+   private static class Snapshot {
+      final long version;
+      final List<MenuItem> items;
+      final Map<String, MenuItem> byName = new HashMap<String, MenuItem>();
+      final Map<String, List<MenuItem>> byType = new HashMap<String, List<MenuItem>>();
+
+      Snapshot(long version, List<MenuItem> items) {
+         this.version = version;
+         for (MenuItem item : items) {
+            this.byName.put(item.getItemName(), item);
+            List<MenuItem> ofType = this.byType.get(item.getType());
+            if (ofType == null) {
+               ofType = new ArrayList<MenuItem>();
+               this.byType.put(item.getType(), ofType);
+            }
+            ofType.add(item);
+         }
+         this.items = Collections.unmodifiableList(items);
+         for (Map.Entry<String, List<MenuItem>> entry : this.byType.entrySet())
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      }
+   }//end Snapshot
+}//end MenuCache
@@ -0,0 +1,50 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * One row of the Menu table.
+ *
+ */
+public class MenuItem {
+
+   public static final RowMapper<MenuItem> MAPPER = new RowMapper<MenuItem>() {
+      public MenuItem map(ResultSet rs) throws SQLException {
+         return new MenuItem(rs.getString("itemName"), rs.getString("type"), rs.getFloat("price"),
+                             rs.getString("description"), rs.getString("imageURL"));
+      }
+   };
+
+   private final String _itemName;
+   private final String _type;
+   private final float _price;
+   private final String _description;
+   private final String _imageURL;
+
+   public MenuItem(String itemName, String type, float price, String description, String imageURL) {
+      this._itemName = itemName;
+      this._type = type;
+      this._price = price;
+      this._description = description;
+      this._imageURL = imageURL;
+   }
+
+   public String getItemName() {
+      return this._itemName;
+   }
+
+   public String getType() {
+      return this._type;
+   }
+
+   public float getPrice() {
+      return this._price;
+   }
+
+   public String getDescription() {
+      return this._description;
+   }
+
+   public String getImageURL() {
+      return this._imageURL;
+   }
+}//end MenuItem
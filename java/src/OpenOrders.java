@@ -0,0 +1,192 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This class keeps an in-process set of the unpaid orders, so the staff
+ * screens list them without scanning Orders. The set is read once from
+ * the partial index on unpaid orders and then kept up to date by the
+ * order methods of Cafe, which report every order they place, reprice,
+ * cancel or mark paid once their transaction committed.
+ *
+ * Changes made through this process, which covers the console, the
+ * terminal server and the HTTP API sharing one Cafe, are seen at once.
+ * Changes made by other processes are picked up by a background thread
+ * that reads the set again every RESYNC_INTERVAL_MS, never by a read.
+ *
+ */
+public class OpenOrders {
+
+   // how stale the set may get towards changes of other processes
+   public static final long RESYNC_INTERVAL_MS = 5000;
+
+   private final Cafe _esql;
+
+   // unpaid orders, newest first; null until first read
+   private volatile ConcurrentNavigableMap<Integer, OrderRow> _orders = null;
+
+   // reads the set again; started by the first read
+   private Timer _resync = null;
+
+   // changes reported while the set is read, one list per read in
+   // progress, replayed on top of its result
+   private final Set<List<Runnable>> _missed =
+      Collections.newSetFromMap(new IdentityHashMap<List<Runnable>, Boolean>());
+
+   /**
+    * Creates an empty set that is read from the database on first use
+    *
+    * @param esql the database the unpaid orders are read from
+    */
+   public OpenOrders(Cafe esql) {
+      this._esql = esql;
+   }
+
+   /**
+    * @return every unpaid order, newest first
+    * @throws java.sql.SQLException when the set had to be read and failed
+    */
+   public List<OrderRow> all() throws SQLException {
+      return Collections.unmodifiableList(new ArrayList<OrderRow>(current().values()));
+   }
+
+   /**
+    * @param since the oldest order time listed
+    * @return the unpaid orders placed since that time, newest first
+    * @throws java.sql.SQLException when the set had to be read and failed
+    */
+   public List<OrderRow> since(Timestamp since) throws SQLException {
+      List<OrderRow> open = new ArrayList<OrderRow>();
+      for (OrderRow order : current().values())
+         if (!order.getTimeStampRecieved().before(since))
+            open.add(order);
+      return Collections.unmodifiableList(open);
+   }
+
+   /*
+    * The methods below are called after the change they report committed.
+    * Before the first read they only keep the change. A read, the first
+    * one or a resync, applies the changes reported while it ran on top of
+    * its set; applying one twice leaves the same set.
+    **/
+
+   synchronized void placed(final OrderRow order) {
+      keep(new Runnable() {
+         public void run() {
+            placed(order);
+         }
+      });
+      if (this._orders != null)
+         this._orders.put(order.getOrderId(), order);
+   }
+
+   synchronized void repriced(final int orderID, final float total) {
+      keep(new Runnable() {
+         public void run() {
+            repriced(orderID, total);
+         }
+      });
+      if (this._orders == null)
+         return;
+      OrderRow order = this._orders.get(orderID);
+      if (order != null)
+         this._orders.put(orderID, new OrderRow(orderID, order.getLogin(), false,
+                                                order.getTimeStampRecieved(), total));
+   }
+
+   synchronized void closed(final int orderID) {
+      keep(new Runnable() {
+         public void run() {
+            closed(orderID);
+         }
+      });
+      if (this._orders != null)
+         this._orders.remove(orderID);
+   }
+
+   // keeps a change for the reads in progress to apply again on their set
+   private void keep(Runnable change) {
+      for (List<Runnable> missed : this._missed)
+         missed.add(change);
+   }
+
+   /**
+    * Stops reading the set again.
+    */
+   public synchronized void close() {
+      if (this._resync != null)
+         this._resync.cancel();
+      this._resync = null;
+   }
+
+   private ConcurrentNavigableMap<Integer, OrderRow> current() throws SQLException {
+      ConcurrentNavigableMap<Integer, OrderRow> orders = this._orders;
+      if (orders != null)
+         return orders;
+      orders = reload();
+      synchronized (this) {
+         if (this._resync == null) {
+            this._resync = new Timer("open-orders-resync", true);
+            this._resync.schedule(new TimerTask() {
+               public void run() {
+                  resync();
+               }
+            }, RESYNC_INTERVAL_MS, RESYNC_INTERVAL_MS);
+         }
+      }
+      return orders;
+   }//end current
+
+   // runs on the resync thread
+   private void resync() {
+      try {
+         reload();
+      } catch (SQLException e) {
+         System.err.println("Reading the open orders failed: " + e.getMessage());
+      }
+   }
+
+   /*
+    * Replaces the set with a fresh read and returns it. The read runs
+    * outside the lock, which the change methods take as transactions
+    * commit; the changes they report meanwhile are kept and applied again
+    * on top of the fresh set.
+    **/
+   private ConcurrentNavigableMap<Integer, OrderRow> reload() throws SQLException {
+      List<Runnable> missed = new ArrayList<Runnable>();
+      synchronized (this) {
+         this._missed.add(missed);
+      }
+      ConcurrentNavigableMap<Integer, OrderRow> orders = null;
+      try {
+         orders = load();
+      } finally {
+         synchronized (this) {
+            this._missed.remove(missed);
+            if (orders != null) {
+               this._orders = orders;
+               for (Runnable change : missed)
+                  change.run();
+            }
+         }
+      }
+      return orders;
+   }//end reload
+
+   private ConcurrentNavigableMap<Integer, OrderRow> load() throws SQLException {
+      ConcurrentNavigableMap<Integer, OrderRow> orders =
+         new ConcurrentSkipListMap<Integer, OrderRow>(Collections.<Integer>reverseOrder());
+      for (OrderRow order : this._esql.executeQueryAndMapResult(
+              "SELECT * FROM Orders O WHERE NOT O.paid", OrderRow.MAPPER))
+         orders.put(order.getOrderId(), order);
+      return orders;
+   }
+}//end OpenOrders
@@ -0,0 +1,164 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class moves settled orders, paid with every item finished and older
+ * than the archive age, out of Orders and ItemStatus into OrdersArchive,
+ * one compact row per order. What stays in the live tables is what the
+ * registers and the kitchen still work on, small enough to stay in memory,
+ * while years of history live in a table nothing but the history screens
+ * read.
+ *
+ * Each item keeps the time it was added to the order and the time it
+ * finished, so the sales rollups can be rebuilt from the archive with the
+ * same prep times as from the live items.
+ *
+ * Orders are moved in batches of one statement each, which deletes the
+ * items and the orders and inserts their archive rows together, so an
+ * order is never in both places or in neither. Batches pause between each
+ * other so the archiver does not crowd out the registers, and orders
+ * locked by a register are skipped until the next run.
+ *
+ * Cafe runs it, together with PartitionMaintainer, only when started with
+ * --maintain, in one process per database.
+ *
+ */
+public class OrderArchiver {
+
+   // age in days past which a settled order is archived by default
+   public static final int DEFAULT_MIN_AGE_DAYS = 30;
+
+   // orders moved per statement by default
+   public static final int DEFAULT_BATCH_SIZE = 500;
+
+   // pause between batches by default
+   public static final long DEFAULT_PAUSE_MS = 200;
+
+   // how often the archiver runs
+   private static final long RUN_INTERVAL_MS = 60 * 60 * 1000;
+
+   private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+   private static final String MOVE =
+      "WITH settled AS (" +
+      "  SELECT O.orderid, O.timeStampRecieved FROM Orders O" +
+      "  WHERE O.paid AND O.timeStampRecieved < ?" +
+      "  AND NOT EXISTS (SELECT 1 FROM ItemStatus I WHERE I.orderid = O.orderid" +
+      "                  AND I.timeStampRecieved = O.timeStampRecieved AND I.status <> 'Finished')" +
+      "  ORDER BY O.timeStampRecieved LIMIT ? FOR UPDATE SKIP LOCKED)," +
+      " items AS (" +
+      "  DELETE FROM ItemStatus I USING settled S" +
+      "  WHERE I.orderid = S.orderid AND I.timeStampRecieved = S.timeStampRecieved RETURNING I.*)," +
+      " orders AS (" +
+      "  DELETE FROM Orders O USING settled S" +
+      "  WHERE O.orderid = S.orderid AND O.timeStampRecieved = S.timeStampRecieved RETURNING O.*)," +
+      " archived AS (" +
+      "  INSERT INTO OrdersArchive (orderid, login, timeStampRecieved, total, finishedAt, itemNames, unitPrices, comments," +
+      "                             addedAts, finishedAts)" +
+      "  SELECT O.orderid, O.login, O.timeStampRecieved, O.total, MAX(I.lastUpdated)," +
+      "   COALESCE(array_agg(I.itemName ORDER BY I.itemName) FILTER (WHERE I.itemName IS NOT NULL), '{}')," +
+      "   COALESCE(array_agg(I.unitPrice ORDER BY I.itemName) FILTER (WHERE I.itemName IS NOT NULL), '{}')," +
+      "   COALESCE(array_agg(I.comments ORDER BY I.itemName) FILTER (WHERE I.itemName IS NOT NULL), '{}')," +
+      "   COALESCE(array_agg(I.addedAt ORDER BY I.itemName) FILTER (WHERE I.itemName IS NOT NULL), '{}')," +
+      "   COALESCE(array_agg(I.lastUpdated ORDER BY I.itemName) FILTER (WHERE I.itemName IS NOT NULL), '{}')" +
+      "  FROM orders O LEFT JOIN items I ON I.orderid = O.orderid" +
+      "  GROUP BY O.orderid, O.login, O.timeStampRecieved, O.total RETURNING 1)" +
+      " SELECT COUNT(*) FROM archived";
+
+   private final Cafe _esql;
+   private final int _minAgeDays;
+   private final int _batchSize;
+   private final long _pauseMillis;
+   private volatile boolean _stopped = false;
+   private TimerTask _task = null;
+
+   /**
+    * @param esql the database whose orders are archived
+    * @param minAgeDays age in days past which a settled order is archived
+    * @param batchSize orders moved per statement
+    * @param pauseMillis pause between batches
+    */
+   public OrderArchiver(Cafe esql, int minAgeDays, int batchSize, long pauseMillis) {
+      this._esql = esql;
+      this._minAgeDays = minAgeDays;
+      this._batchSize = batchSize;
+      this._pauseMillis = pauseMillis;
+   }
+
+   /**
+    * Runs archive() now and then every RUN_INTERVAL_MS on a timer until
+    * stop(). The tasks of one timer run one after another, so sharing it
+    * with PartitionMaintainer keeps orders from being archived while
+    * partitions are detached.
+    *
+    * @param timer the timer the runs are scheduled on
+    */
+   public synchronized void start(Timer timer) {
+      if (this._task != null)
+         return;
+      this._stopped = false;
+      this._task = new TimerTask() {
+         public void run() {
+            try {
+               long moved = archive();
+               if (moved > 0)
+                  System.err.println("Archived " + moved + " orders");
+            } catch (SQLException e) {
+               System.err.println("Order archiving failed: " + e.getMessage());
+            }
+         }
+      };
+      timer.schedule(this._task, 0, RUN_INTERVAL_MS);
+   }//end start
+
+   /**
+    * Stops the background runs, ending a run in progress after its
+    * current batch.
+    */
+   public synchronized void stop() {
+      this._stopped = true;
+      if (this._task != null)
+         this._task.cancel();
+      this._task = null;
+   }
+
+   /**
+    * Moves every settled order past the archive age, batch by batch, until
+    * a batch comes back short or stop() is called.
+    *
+    * @return the number of orders archived
+    * @throws java.sql.SQLException when a batch failed; the batches before
+    *         it stay archived
+    */
+   public long archive() throws SQLException {
+      Timestamp cutoff = new Timestamp(System.currentTimeMillis() - this._minAgeDays * DAY_MS);
+      long moved = 0;
+      while (!this._stopped) {
+         int batch = archiveBatch(cutoff);
+         moved += batch;
+         if (batch < this._batchSize)
+            break;
+         try {
+            Thread.sleep(this._pauseMillis);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            break;
+         }
+      }
+      return moved;
+   }//end archive
+
+   /**
+    * Moves one batch of settled orders placed before a cutoff, oldest
+    * first.
+    *
+    * @param cutoff orders placed at or after it stay live
+    * @return the number of orders archived
+    * @throws java.sql.SQLException when the batch failed and nothing moved
+    */
+   public int archiveBatch(Timestamp cutoff) throws SQLException {
+      return this._esql.executeQueryForInt(MOVE, cutoff, this._batchSize);
+   }
+}//end OrderArchiver
@@ -0,0 +1,191 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class pages through a filtered list of orders, newest first, with
+ * keyset cursors on (timeStampRecieved, orderid): the next page starts
+ * right after the last row of the current one instead of at an offset,
+ * so every page costs one index range scan no matter how deep it is.
+ * The orderid breaks ties between orders placed at the same instant.
+ * Cursors also bound the time on its own, which the row comparison does
+ * not, so only the monthly partitions on the far side of the cursor are
+ * read.
+ *
+ * The history of a user also covers OrdersArchive, but only reads it once
+ * a page reaches back past the newest archived order of that user, so the
+ * pages of recent orders never touch the archive.
+ *
+ */
+public class OrderHistory {
+
+   // orders shown per page by the history screens
+   public static final int PAGE_SIZE = 5;
+
+   private final Cafe _esql;
+   private final String _filter;
+   private final Object[] _params;
+   private final int _pageSize;
+
+   // whether archived orders can match the filter
+   private final boolean _archived;
+
+   private OrderHistory(Cafe esql, String filter, Object[] params, int pageSize, boolean archived) {
+      this._esql = esql;
+      this._filter = filter;
+      this._params = params;
+      this._pageSize = pageSize;
+      this._archived = archived;
+   }
+
+   /**
+    * Orders placed by one user, archived ones included, served by the
+    * (login, timeStampRecieved, orderid) indexes of both tables.
+    *
+    * @param esql the database the orders are read from
+    * @param login the user whose orders are listed
+    * @param pageSize orders per page
+    */
+   public static OrderHistory forUser(Cafe esql, String login, int pageSize) {
+      return new OrderHistory(esql, "O.login = ?", new Object[] { login }, pageSize, true);
+   }
+
+   /**
+    * Unpaid orders placed since a point in time.
+    *
+    * @param esql the database the orders are read from
+    * @param since the oldest order time listed
+    * @param pageSize orders per page
+    */
+   public static OrderHistory unpaidSince(Cafe esql, Timestamp since, int pageSize) {
+      return new OrderHistory(esql, "O.timeStampRecieved >= ? AND NOT O.paid", new Object[] { since }, pageSize, false);
+   }
+
+   /**
+    * @return the page of the most recent orders
+    * @throws java.sql.SQLException when the query failed
+    */
+   public Page newest() throws SQLException {
+      List<OrderRow> rows = query("", "DESC");
+      boolean more = trim(rows);
+      return new Page(rows, more, false);
+   }
+
+   /**
+    * @param page a page returned earlier
+    * @return the page of orders placed before the oldest one on it
+    * @throws java.sql.SQLException when the query failed
+    */
+   public Page older(Page page) throws SQLException {
+      if (page.getRows().isEmpty())
+         return newest();
+      OrderRow last = page.getRows().get(page.getRows().size() - 1);
+      List<OrderRow> rows = query(" AND O.timeStampRecieved <= ? AND (O.timeStampRecieved, O.orderid) < (?, ?)", "DESC",
+                                  last.getTimeStampRecieved(), last.getTimeStampRecieved(), last.getOrderId());
+      boolean more = trim(rows);
+      return new Page(rows, more, true);
+   }
+
+   /**
+    * @param page a page returned earlier
+    * @return the page of orders placed after the newest one on it
+    * @throws java.sql.SQLException when the query failed
+    */
+   public Page newer(Page page) throws SQLException {
+      if (page.getRows().isEmpty())
+         return newest();
+      OrderRow first = page.getRows().get(0);
+      List<OrderRow> rows = query(" AND O.timeStampRecieved >= ? AND (O.timeStampRecieved, O.orderid) > (?, ?)", "ASC",
+                                  first.getTimeStampRecieved(), first.getTimeStampRecieved(), first.getOrderId());
+      boolean more = trim(rows);
+      Collections.reverse(rows);
+      return new Page(rows, true, more);
+   }
+
+   /*
+    * Reads one row more than a page, to tell whether there is another.
+    * Archived orders are all older than the newest archived one, so the
+    * archive is only read when the page could reach back past it: going
+    * older, when the live rows run out or get there; going newer, when
+    * the cursor is still there. Its rows are then merged with the live
+    * ones.
+    **/
+   private List<OrderRow> query(String cursor, String direction, Object... cursorParams) throws SQLException {
+      Timestamp horizon = this._archived ? this._esql.executeQueryForRow(
+         "SELECT MAX(O.timeStampRecieved) FROM OrdersArchive O WHERE " + this._filter, NEWEST, this._params) : null;
+      List<OrderRow> rows = query("Orders O", cursor, direction, cursorParams);
+      if (horizon == null)
+         return rows;
+      final boolean descending = "DESC".equals(direction);
+      if (descending ? rows.size() > this._pageSize && rows.get(rows.size() - 1).getTimeStampRecieved().after(horizon)
+                     : ((Timestamp) cursorParams[0]).after(horizon))
+         return rows;
+      rows.addAll(query("(SELECT orderid, login, true AS paid, timeStampRecieved, total FROM OrdersArchive) O",
+                        cursor, direction, cursorParams));
+      Collections.sort(rows, new Comparator<OrderRow>() {
+         public int compare(OrderRow a, OrderRow b) {
+            int order = a.getTimeStampRecieved().compareTo(b.getTimeStampRecieved());
+            if (order == 0)
+               order = a.getOrderId() < b.getOrderId() ? -1 : a.getOrderId() == b.getOrderId() ? 0 : 1;
+            return descending ? -order : order;
+         }
+      });
+      while (rows.size() > this._pageSize + 1)
+         rows.remove(rows.size() - 1);
+      return rows;
+   }//end query
+
+   private List<OrderRow> query(String table, String cursor, String direction, Object... cursorParams) throws SQLException {
+      Object[] params = new Object[this._params.length + cursorParams.length + 1];
+      System.arraycopy(this._params, 0, params, 0, this._params.length);
+      System.arraycopy(cursorParams, 0, params, this._params.length, cursorParams.length);
+      params[params.length - 1] = this._pageSize + 1;
+      return this._esql.executeQueryAndMapResult(
+         "SELECT * FROM " + table + " WHERE " + this._filter + cursor +
+         " ORDER BY O.timeStampRecieved " + direction + ", O.orderid " + direction + " LIMIT ?",
+         OrderRow.MAPPER, params);
+   }
+
+   private boolean trim(List<OrderRow> rows) {
+      if (rows.size() <= this._pageSize)
+         return false;
+      rows.remove(rows.size() - 1);
+      return true;
+   }
+
+   // reads the newest archived order time, null when none
+   private static final RowMapper<Timestamp> NEWEST = new RowMapper<Timestamp>() {
+      public Timestamp map(java.sql.ResultSet rs) throws SQLException {
+         return rs.getTimestamp(1);
+      }
+   };
+
+   /**
+    * One page of orders, newest first.
+    */
+   public static class Page {
+      private final List<OrderRow> _rows;
+      private final boolean _hasOlder;
+      private final boolean _hasNewer;
+
+      Page(List<OrderRow> rows, boolean hasOlder, boolean hasNewer) {
+         this._rows = Collections.unmodifiableList(rows);
+         this._hasOlder = hasOlder;
+         this._hasNewer = hasNewer;
+      }
+
+      public List<OrderRow> getRows() {
+         return this._rows;
+      }
+
+      public boolean hasOlder() {
+         return this._hasOlder;
+      }
+
+      public boolean hasNewer() {
+         return this._hasNewer;
+      }
+   }//end Page
+}//end OrderHistory
@@ -0,0 +1,51 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * One row of the Orders table.
+ *
+ */
+public class OrderRow {
+
+   public static final RowMapper<OrderRow> MAPPER = new RowMapper<OrderRow>() {
+      public OrderRow map(ResultSet rs) throws SQLException {
+         return new OrderRow(rs.getInt("orderid"), rs.getString("login"), rs.getBoolean("paid"),
+                             rs.getTimestamp("timeStampRecieved"), rs.getFloat("total"));
+      }
+   };
+
+   private final int _orderId;
+   private final String _login;
+   private final boolean _paid;
+   private final Timestamp _timeStampRecieved;
+   private final float _total;
+
+   public OrderRow(int orderId, String login, boolean paid, Timestamp timeStampRecieved, float total) {
+      this._orderId = orderId;
+      this._login = login;
+      this._paid = paid;
+      this._timeStampRecieved = timeStampRecieved;
+      this._total = total;
+   }
+
+   public int getOrderId() {
+      return this._orderId;
+   }
+
+   public String getLogin() {
+      return this._login;
+   }
+
+   public boolean isPaid() {
+      return this._paid;
+   }
+
+   public Timestamp getTimeStampRecieved() {
+      return this._timeStampRecieved;
+   }
+
+   public float getTotal() {
+      return this._total;
+   }
+}//end OrderRow
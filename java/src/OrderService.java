@@ -0,0 +1,347 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class offers the order operations of the console screens without
+ * any prompts, for terminals and kiosks that submit orders themselves.
+ * Every operation returns a future completed once its change committed.
+ *
+ * Writes are queued for a single writer thread which takes whatever
+ * piled up while the previous commit was running, up to MAX_BATCH
+ * operations, and runs them in one shared transaction. Under load many
+ * orders share one commit (and one WAL flush) instead of paying for one
+ * each. When a batch fails, its operations are retried one transaction
+ * each so only the faulty one fails.
+ *
+ * Cafe.orders() is the one every session of a process shares: the console
+ * and terminal server screens place their orders through it, as does the
+ * HTTP API, so orders from all of them are batched together.
+ *
+ */
+public class OrderService {
+
+   // most operations committed together in one transaction
+   public static final int MAX_BATCH = 64;
+
+   // longest comment the comments column holds
+   private static final int MAX_COMMENT_LENGTH = 129;
+
+   private final Cafe _esql;
+   private final BlockingQueue<Task<?>> _queue = new LinkedBlockingQueue<Task<?>>();
+   private final Thread _writer;
+   private volatile boolean _closed = false;
+
+   // writer metrics
+   private long _batches = 0;
+   private long _operations = 0;
+   private long _retried = 0;
+
+   /**
+    * Creates the service and starts its writer thread
+    *
+    * @param esql the database orders are written to
+    */
+   public OrderService(Cafe esql) {
+      this._esql = esql;
+      this._writer = new Thread("order-writer") {
+         public void run() {
+            writeLoop();
+         }
+      };
+      this._writer.setDaemon(true);
+      this._writer.start();
+   }//end OrderService
+
+   /**
+    * Places an order for menu items at their current prices.
+    *
+    * @param login the login of the user placing the order
+    * @param items the names of the ordered menu items, without repeats
+    * @return the id of the new order
+    */
+   public Future<Integer> placeOrder(final String login, List<String> items) {
+      final List<MenuItem> ordered = new ArrayList<MenuItem>(items.size());
+      try {
+         if (items.isEmpty())
+            return failed(new IllegalArgumentException("An order needs at least one item"));
+         for (String item : items)
+            ordered.add(menuItem(item));
+      } catch (Exception e) {
+         return failed(e);
+      }
+      return submit(new Cafe.Work<Integer>() {
+         public Integer run() throws SQLException {
+            return _esql.placeOrder(login, ordered);
+         }
+      });
+   }//end placeOrder
+
+   /**
+    * @param orderID the order to add to
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @return false when the order does not exist or is already paid
+    */
+   public Future<Boolean> addItem(final int orderID, final Timestamp placed, String itemName) {
+      final MenuItem item;
+      try {
+         item = menuItem(itemName);
+      } catch (Exception e) {
+         return failed(e);
+      }
+      return submit(new Cafe.Work<Boolean>() {
+         public Boolean run() throws SQLException {
+            return _esql.addOrderItem(orderID, placed, item);
+         }
+      });
+   }//end addItem
+
+   /**
+    * @param orderID the order to remove from
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @return the number of items left on the order, 0 when the order was
+    *         cancelled, or -1 when the item is not on an unpaid order
+    */
+   public Future<Integer> removeItem(final int orderID, final Timestamp placed, final String itemName) {
+      return submit(new Cafe.Work<Integer>() {
+         public Integer run() throws SQLException {
+            return _esql.removeOrderItem(orderID, placed, itemName);
+         }
+      });
+   }//end removeItem
+
+   /**
+    * @param orderID the order the item is on
+    * @param placed when the order was placed, which picks its partition
+    * @param itemName the name of the menu item
+    * @param comment the new comment, shorter than 130 characters
+    * @return false when the item is not on the order
+    */
+   public Future<Boolean> comment(final int orderID, final Timestamp placed, final String itemName, final String comment) {
+      if (comment.length() > MAX_COMMENT_LENGTH)
+         return failed(new IllegalArgumentException("Comment is too long!"));
+      return submit(new Cafe.Work<Boolean>() {
+         public Boolean run() throws SQLException {
+            return _esql.commentOrderItem(orderID, placed, itemName, comment);
+         }
+      });
+   }//end comment
+
+   /**
+    * @param orderID the order to cancel
+    * @param placed when the order was placed, which picks its partition
+    * @return false when the order does not exist or is already paid
+    */
+   public Future<Boolean> cancel(final int orderID, final Timestamp placed) {
+      return submit(new Cafe.Work<Boolean>() {
+         public Boolean run() throws SQLException {
+            return _esql.deleteOrder(orderID, placed);
+         }
+      });
+   }//end cancel
+
+   /**
+    * @param orderID the order that was paid for
+    * @param placed when the order was placed, which picks its partition
+    * @return false when the order does not exist or was already paid
+    */
+   public Future<Boolean> markPaid(final int orderID, final Timestamp placed) {
+      return submit(new Cafe.Work<Boolean>() {
+         public Boolean run() throws SQLException {
+            return _esql.markOrderPaid(orderID, placed);
+         }
+      });
+   }//end markPaid
+
+   /**
+    * Stops accepting operations, lets the writer commit everything already
+    * queued and waits for it to finish.
+    */
+   public void close() {
+      this._closed = true;
+      this._queue.add(new Task<Void>(null));
+      try {
+         this._writer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }//end close
+
+   public synchronized String toString() {
+      return String.format("batches=%d operations=%d avgBatch=%.1f retried=%d",
+                           this._batches, this._operations,
+                           this._batches == 0 ? 0 : this._operations / (double) this._batches, this._retried);
+   }
+
+   private MenuItem menuItem(String itemName) throws SQLException {
+      MenuItem item = this._esql.menu().byName(itemName);
+      if (item == null)
+         throw new IllegalArgumentException("No menu item named " + itemName);
+      return item;
+   }
+
+   private <T> Future<T> submit(Cafe.Work<T> work) {
+      if (this._closed)
+         return failed(new IllegalStateException("Order service is closed"));
+      Task<T> task = new Task<T>(work);
+      this._queue.add(task);
+      return task;
+   }
+
+   private static <T> Future<T> failed(Exception e) {
+      Task<T> task = new Task<T>(null);
+      task.fail(e);
+      return task;
+   }
+
+   /*
+    * Takes the next batch off the queue and commits it, until close()
+    * queues a task without work.
+    **/
+   private void writeLoop() {
+      List<Task<?>> batch = new ArrayList<Task<?>>(MAX_BATCH);
+      boolean running = true;
+      while (running) {
+         try {
+            batch.add(this._queue.take());
+         } catch (InterruptedException e) {
+            continue;
+         }
+         this._queue.drainTo(batch, MAX_BATCH - 1);
+
+         List<Task<?>> work = new ArrayList<Task<?>>(batch.size());
+         for (Task<?> task : batch) {
+            if (task.work == null)
+               running = false;
+            else
+               work.add(task);
+         }
+         if (!work.isEmpty())
+            commit(work);
+         batch.clear();
+      }//end while
+
+      // submitted while close() was running
+      this._queue.drainTo(batch);
+      for (Task<?> task : batch)
+         task.fail(new IllegalStateException("Order service is closed"));
+   }//end writeLoop
+
+   /*
+    * Runs a batch in one transaction and completes its tasks after the
+    * commit. If anything fails the whole batch rolled back, so each task
+    * gets its own transaction instead.
+    **/
+   private void commit(final List<Task<?>> batch) {
+      try {
+         this._esql.transaction(new Cafe.Work<Void>() {
+            public Void run() throws SQLException {
+               for (Task<?> task : batch)
+                  task.runWork();
+               return null;
+            }
+         });
+         for (Task<?> task : batch)
+            task.complete();
+         record(batch.size(), 0);
+      } catch (Exception batchFailure) {
+         if (batch.size() == 1) {
+            batch.get(0).fail(batchFailure);
+            record(1, 0);
+            return;
+         }
+         for (final Task<?> task : batch) {
+            try {
+               this._esql.transaction(new Cafe.Work<Void>() {
+                  public Void run() throws SQLException {
+                     task.runWork();
+                     return null;
+                  }
+               });
+               task.complete();
+            } catch (Exception e) {
+               task.fail(e);
+            }
+         }
+         record(batch.size(), batch.size());
+      }
+   }//end commit
+
+   private synchronized void record(int operations, int retried) {
+      this._batches++;
+      this._operations += operations;
+      this._retried += retried;
+   }
+
+   /**
+    * A queued operation and the future of its result.
+    */
+   private static class Task<T> implements Future<T> {
+      final Cafe.Work<T> work;
+      private final CountDownLatch _done = new CountDownLatch(1);
+      private T _pending;
+      private volatile T _value;
+      private volatile Exception _failure;
+
+      Task(Cafe.Work<T> work) {
+         this.work = work;
+      }
+
+      /*
+       * Runs the work; the result is only published by complete(), once
+       * the transaction it ran in committed.
+       **/
+      void runWork() throws SQLException {
+         this._pending = this.work.run();
+      }
+
+      void complete() {
+         this._value = this._pending;
+         this._done.countDown();
+      }
+
+      void fail(Exception e) {
+         this._failure = e;
+         this._done.countDown();
+      }
+
+      public boolean cancel(boolean mayInterruptIfRunning) {
+         return false;
+      }
+
+      public boolean isCancelled() {
+         return false;
+      }
+
+      public boolean isDone() {
+         return this._done.getCount() == 0;
+      }
+
+      public T get() throws InterruptedException, ExecutionException {
+         this._done.await();
+         return result();
+      }
+
+      public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+         if (!this._done.await(timeout, unit))
+            throw new TimeoutException();
+         return result();
+      }
+
+      private T result() throws ExecutionException {
+         if (this._failure != null)
+            throw new ExecutionException(this._failure);
+         return this._value;
+      }
+   }//end Task
+}//end OrderService
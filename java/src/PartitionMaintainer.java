@@ -0,0 +1,215 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class keeps the monthly partitions of Orders and ItemStatus in
+ * shape: it creates the partitions of the coming MONTHS_AHEAD months
+ * before any order can fall into them, and detaches the months older
+ * than the retention so they stop weighing on the indexes, planning and
+ * vacuuming of the live tables. Detached months stay in the database as
+ * plain tables named <table>_YYYYMM.
+ *
+ * An order and its items share a month, so a month is detached from
+ * ItemStatus first and then from Orders. The items keep their foreign key
+ * to Orders when detached, which would then refuse to let go of the
+ * orders they reference, so the key is dropped from the detached items
+ * in between; the detached pair is history and no longer checked.
+ *
+ * From PostgreSQL 14 each step runs on its own with DETACH PARTITION
+ * CONCURRENTLY, which waits for the statements already running on the
+ * parent instead of locking it, so the registers keep going; only the
+ * dropping of the key in between still locks Orders, for a moment. A run
+ * cut short leaves a partition pending detach, which the next run
+ * finalizes.
+ * Before 14 a month is detached in one transaction that holds ACCESS
+ * EXCLUSIVE locks on Orders and ItemStatus until it commits, which stalls
+ * every register for that long, so run --maintain while the cafe is
+ * closed on those servers.
+ *
+ * Every Cafe process runs it, so the coming months exist whether or not
+ * anything else runs; creating a month is idempotent, and a process that
+ * loses the race to create one logs the failure and finds it there on
+ * its next run. Only the process started with --maintain, one per
+ * database, also detaches, with the retention set; the others run with
+ * a retention of 0.
+ *
+ */
+public class PartitionMaintainer {
+
+   // months past the current one that always have partitions
+   public static final int MONTHS_AHEAD = 2;
+
+   // months kept attached by default, the current one included
+   public static final int DEFAULT_RETENTION_MONTHS = 24;
+
+   // how often the partitions are checked
+   private static final long CHECK_INTERVAL_MS = 6 * 60 * 60 * 1000;
+
+   // server_version_num from which partitions detach concurrently
+   private static final int CONCURRENT_DETACH_VERSION = 140000;
+
+   private final Cafe _esql;
+   private final int _retentionMonths;
+   private TimerTask _task = null;
+
+   /**
+    * @param esql the database whose partitions are maintained
+    * @param retentionMonths months kept attached, the current one
+    *        included; 0 never detaches anything
+    */
+   public PartitionMaintainer(Cafe esql, int retentionMonths) {
+      this._esql = esql;
+      this._retentionMonths = retentionMonths;
+   }
+
+   /**
+    * Runs maintain() now and then every CHECK_INTERVAL_MS on a timer until
+    * stop(). The tasks of one timer run one after another, so sharing it
+    * with OrderArchiver keeps partitions from being detached while orders
+    * are archived.
+    *
+    * @param timer the timer the runs are scheduled on
+    */
+   public synchronized void start(Timer timer) {
+      if (this._task != null)
+         return;
+      this._task = new TimerTask() {
+         public void run() {
+            try {
+               maintain();
+            } catch (SQLException e) {
+               System.err.println("Partition maintenance failed: " + e.getMessage());
+            }
+         }
+      };
+      timer.schedule(this._task, 0, CHECK_INTERVAL_MS);
+   }//end start
+
+   public synchronized void stop() {
+      if (this._task != null)
+         this._task.cancel();
+      this._task = null;
+   }
+
+   /**
+    * Creates the partitions up to MONTHS_AHEAD months from now and
+    * detaches the ones past the retention.
+    *
+    * @return the number of months detached
+    * @throws java.sql.SQLException when a partition could not be changed
+    */
+   public int maintain() throws SQLException {
+      Calendar ahead = Calendar.getInstance();
+      ahead.add(Calendar.MONTH, MONTHS_AHEAD);
+      ensure(new Timestamp(System.currentTimeMillis()), new Timestamp(ahead.getTimeInMillis()));
+      if (this._retentionMonths <= 0)
+         return 0;
+      Calendar cutoff = firstOfMonth(new Timestamp(System.currentTimeMillis()));
+      cutoff.add(Calendar.MONTH, 1 - this._retentionMonths);
+      return detachBefore(cutoff);
+   }//end maintain
+
+   /**
+    * Creates the partitions of both tables for every month from one time
+    * to another, where missing.
+    *
+    * @param from a time in the first month
+    * @param to a time in the last month
+    * @throws java.sql.SQLException when a partition could not be created
+    */
+   public void ensure(Timestamp from, Timestamp to) throws SQLException {
+      Calendar month = firstOfMonth(from);
+      while (!month.getTime().after(to)) {
+         java.sql.Date first = new java.sql.Date(month.getTimeInMillis());
+         this._esql.executeQueryForRow("SELECT create_month_partition('Orders', ?), create_month_partition('ItemStatus', ?)",
+                                       NAME, first, first);
+         month.add(Calendar.MONTH, 1);
+      }
+   }//end ensure
+
+   /**
+    * Detaches every month before the cutoff, ItemStatus before Orders,
+    * concurrently where the server can, else one transaction per month.
+    *
+    * @param cutoff the first month kept attached
+    * @return the number of months detached
+    * @throws java.sql.SQLException when a month could not be detached; the
+    *         months before it stay detached
+    */
+   public int detachBefore(Calendar cutoff) throws SQLException {
+      final String last = String.format("%04d%02d", cutoff.get(Calendar.YEAR), cutoff.get(Calendar.MONTH) + 1);
+      List<String> months = this._esql.executeQueryAndMapResult(
+         "SELECT right(C.relname, 6) FROM pg_inherits P JOIN pg_class C ON C.oid = P.inhrelid " +
+         "WHERE P.inhparent = 'orders'::regclass AND right(C.relname, 6) < ? ORDER BY 1",
+         NAME, last);
+      boolean concurrently = this._esql.executeQueryForInt(
+         "SELECT CAST(current_setting('server_version_num') AS int)") >= CONCURRENT_DETACH_VERSION;
+      for (final String month : months) {
+         if (concurrently) {
+            detachConcurrently("itemstatus", month);
+            dropOrderKeys(month);
+            detachConcurrently("orders", month);
+         } else {
+            this._esql.transaction(new Cafe.Work<Void>() {
+               public Void run() throws SQLException {
+                  if (_esql.exists("SELECT 1 FROM pg_inherits P JOIN pg_class C ON C.oid = P.inhrelid " +
+                                   "WHERE P.inhparent = 'itemstatus'::regclass AND C.relname = ?", "itemstatus_" + month))
+                     _esql.executeUpdate("ALTER TABLE ItemStatus DETACH PARTITION itemstatus_" + month);
+                  dropOrderKeys(month);
+                  _esql.executeUpdate("ALTER TABLE Orders DETACH PARTITION orders_" + month);
+                  return null;
+               }
+            });
+         }
+         System.err.println("Detached orders of " + month);
+      }
+      return months.size();
+   }//end detachBefore
+
+   /*
+    * Detaches the month's partition of a parent in a statement of its own,
+    * outside any transaction as CONCURRENTLY requires, or finishes the
+    * detach an earlier run left pending.
+    **/
+   private void detachConcurrently(String parent, String month) throws SQLException {
+      List<String> pending = this._esql.executeQueryAndMapResult(
+         "SELECT CAST(P.inhdetachpending AS text) FROM pg_inherits P JOIN pg_class C ON C.oid = P.inhrelid " +
+         "WHERE P.inhparent = CAST(? AS regclass) AND C.relname = ?",
+         NAME, parent, parent + "_" + month);
+      if (pending.isEmpty())
+         return;
+      this._esql.executeUpdate("ALTER TABLE " + parent + " DETACH PARTITION " + parent + "_" + month +
+                               ("true".equals(pending.get(0)) ? " FINALIZE" : " CONCURRENTLY"));
+   }
+
+   // drops the foreign keys the detached items of a month have to Orders
+   private void dropOrderKeys(String month) throws SQLException {
+      for (String key : this._esql.executeQueryAndMapResult(
+              "SELECT K.conname FROM pg_constraint K JOIN pg_class C ON C.oid = K.conrelid " +
+              "WHERE C.relname = ? AND K.contype = 'f' AND K.confrelid = 'orders'::regclass",
+              NAME, "itemstatus_" + month))
+         this._esql.executeUpdate("ALTER TABLE itemstatus_" + month + " DROP CONSTRAINT \"" + key + "\"");
+   }
+
+   private static Calendar firstOfMonth(Timestamp time) {
+      Calendar month = Calendar.getInstance();
+      month.setTime(time);
+      month.set(Calendar.DAY_OF_MONTH, 1);
+      month.set(Calendar.HOUR_OF_DAY, 0);
+      month.set(Calendar.MINUTE, 0);
+      month.set(Calendar.SECOND, 0);
+      month.set(Calendar.MILLISECOND, 0);
+      return month;
+   }
+
+   // reads the first column as text
+   private static final RowMapper<String> NAME = new RowMapper<String>() {
+      public String map(java.sql.ResultSet rs) throws SQLException {
+         return rs.getString(1);
+      }
+   };
+}//end PartitionMaintainer
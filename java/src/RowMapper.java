@@ -0,0 +1,11 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Builds one typed object from the current row of a result set. Mappers
+ * read the columns they need directly with the typed ResultSet getters.
+ *
+ */
+public interface RowMapper<T> {
+   T map(ResultSet rs) throws SQLException;
+}//end RowMapper
@@ -0,0 +1,180 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class reads the sales rollups for the manager reports. DailySales
+ * and ItemSales are added to by the order methods of Cafe in the same
+ * statements that place, change, cancel or pay for an order, so a report
+ * reads a few rows per day, or per day and item, however many orders were
+ * placed on those days: each is split over the shards that keep orders
+ * placed together from waiting on one row, and the report sums them.
+ *
+ * Sales count on the day the order was placed, also when it is changed or
+ * paid for later. Prep times cover the items that are Finished now, each
+ * from the time it was added to the order to the time it moved to
+ * Finished. An item moved back off Finished, removed or cancelled no
+ * longer counts, which is also what rebuild_sales() computes.
+ *
+ */
+public class SalesReport {
+
+   private SalesReport() {
+   }
+
+   /**
+    * @param esql the database to read
+    * @param from the first day reported
+    * @param to the last day reported
+    * @return one row per day with orders, oldest first
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static List<Day> days(Cafe esql, Date from, Date to) throws SQLException {
+      return esql.executeQueryAndMapResult(
+         "SELECT D.day, SUM(D.orders) AS orders, SUM(D.itemsSold) AS itemsSold, SUM(D.revenue) AS revenue," +
+         " SUM(D.paidOrders) AS paidOrders, SUM(D.paidRevenue) AS paidRevenue, SUM(D.finished) AS finished," +
+         " SUM(D.prepSeconds) AS prepSeconds FROM DailySales D WHERE D.day BETWEEN ? AND ?" +
+         " GROUP BY D.day ORDER BY D.day",
+         Day.MAPPER, from, to);
+   }
+
+   /**
+    * @param esql the database to read
+    * @param from the first day reported
+    * @param to the last day reported
+    * @return one row per item sold over the days, the best selling first
+    * @throws java.sql.SQLException when the query failed
+    */
+   public static List<Item> items(Cafe esql, Date from, Date to) throws SQLException {
+      return esql.executeQueryAndMapResult(
+         "SELECT S.itemName, SUM(S.sold) AS sold, SUM(S.revenue) AS revenue, SUM(S.finished) AS finished," +
+         " SUM(S.prepSeconds) AS prepSeconds FROM ItemSales S WHERE S.day BETWEEN ? AND ?" +
+         " GROUP BY S.itemName HAVING SUM(S.sold) > 0 OR SUM(S.finished) > 0 ORDER BY sold DESC, S.itemName",
+         Item.MAPPER, from, to);
+   }
+
+   // seconds per finished item, -1 when none finished
+   private static double average(double seconds, int finished) {
+      return finished == 0 ? -1 : seconds / finished;
+   }
+
+   /**
+    * The sales of one day.
+    */
+   public static class Day {
+
+      static final RowMapper<Day> MAPPER = new RowMapper<Day>() {
+         public Day map(ResultSet rs) throws SQLException {
+            return new Day(rs.getDate("day"), rs.getInt("orders"), rs.getInt("itemsSold"), rs.getDouble("revenue"),
+                           rs.getInt("paidOrders"), rs.getDouble("paidRevenue"), rs.getInt("finished"),
+                           rs.getDouble("prepSeconds"));
+         }
+      };
+
+      private final Date _day;
+      private final int _orders;
+      private final int _itemsSold;
+      private final double _revenue;
+      private final int _paidOrders;
+      private final double _paidRevenue;
+      private final int _finished;
+      private final double _prepSeconds;
+
+      Day(Date day, int orders, int itemsSold, double revenue, int paidOrders, double paidRevenue, int finished,
+          double prepSeconds) {
+         this._day = day;
+         this._orders = orders;
+         this._itemsSold = itemsSold;
+         this._revenue = revenue;
+         this._paidOrders = paidOrders;
+         this._paidRevenue = paidRevenue;
+         this._finished = finished;
+         this._prepSeconds = prepSeconds;
+      }
+
+      public Date getDay() {
+         return this._day;
+      }
+
+      // orders placed and not cancelled
+      public int getOrders() {
+         return this._orders;
+      }
+
+      public int getItemsSold() {
+         return this._itemsSold;
+      }
+
+      // the prices of the items sold, paid for or not
+      public double getRevenue() {
+         return this._revenue;
+      }
+
+      public int getPaidOrders() {
+         return this._paidOrders;
+      }
+
+      public double getPaidRevenue() {
+         return this._paidRevenue;
+      }
+
+      // items Finished now
+      public int getFinished() {
+         return this._finished;
+      }
+
+      // seconds from added to Finished per finished item, -1 when none
+      public double getAveragePrepSeconds() {
+         return average(this._prepSeconds, this._finished);
+      }
+   }//end Day
+
+   /**
+    * The sales of one item over a range of days.
+    */
+   public static class Item {
+
+      static final RowMapper<Item> MAPPER = new RowMapper<Item>() {
+         public Item map(ResultSet rs) throws SQLException {
+            return new Item(rs.getString("itemName"), rs.getInt("sold"), rs.getDouble("revenue"), rs.getInt("finished"),
+                            rs.getDouble("prepSeconds"));
+         }
+      };
+
+      private final String _itemName;
+      private final int _sold;
+      private final double _revenue;
+      private final int _finished;
+      private final double _prepSeconds;
+
+      Item(String itemName, int sold, double revenue, int finished, double prepSeconds) {
+         this._itemName = itemName;
+         this._sold = sold;
+         this._revenue = revenue;
+         this._finished = finished;
+         this._prepSeconds = prepSeconds;
+      }
+
+      public String getItemName() {
+         return this._itemName;
+      }
+
+      public int getSold() {
+         return this._sold;
+      }
+
+      public double getRevenue() {
+         return this._revenue;
+      }
+
+      public int getFinished() {
+         return this._finished;
+      }
+
+      // seconds from added to Finished per finished item, -1 when none
+      public double getAveragePrepSeconds() {
+         return average(this._prepSeconds, this._finished);
+      }
+   }//end Item
+}//end SalesReport
@@ -0,0 +1,100 @@
+import java.sql.SQLException;
+
+/**
+ * This class holds the Users row of a logged in user. It is loaded once
+ * by LogIn so role checks and the password prompt of the profile screen
+ * are answered in memory, and it is refreshed only after the user's own
+ * profile was written. A refresh that finds the login, password or type
+ * changed (or the row gone) invalidates the session, which logs the user
+ * out.
+ *
+ */
+public class Session {
+
+   private static final String USER_QUERY =
+      "SELECT login, phoneNum, password, type FROM Users WHERE login = ?";
+
+   private UserRow _user;
+   private boolean _valid = true;
+
+   private Session(UserRow user) {
+      this._user = user;
+   }
+
+   /**
+    * Checks log in credentials and loads the user's row
+    *
+    * @param esql the database the user is read from
+    * @param login the login entered by the user
+    * @param password the password entered by the user
+    * @return the session, or null when the credentials do not match a user
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public static Session logIn(Cafe esql, String login, String password) throws SQLException {
+      UserRow user = esql.executeQueryForRow(USER_QUERY + " AND password = ?", UserRow.MAPPER, login, password);
+      return user == null ? null : new Session(user);
+   }
+
+   /**
+    * Reloads the user's row after a write to their own profile. The
+    * session stays valid only when the login, password and type are
+    * unchanged.
+    *
+    * @param esql the database the user is read from
+    * @return true when the session is still valid
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public boolean refresh(Cafe esql) throws SQLException {
+      UserRow user = esql.executeQueryForRow(USER_QUERY, UserRow.MAPPER, this._user.getLogin());
+      if (user == null) {
+         this._valid = false;
+      } else {
+         this._valid = user.getPassword().equals(this._user.getPassword())
+                    && user.getType().equals(this._user.getType());
+         this._user = user;
+      }
+      return this._valid;
+   }//end refresh
+
+   public String getLogin() {
+      return this._user.getLogin();
+   }
+
+   public String getPhoneNum() {
+      return this._user.getPhoneNum();
+   }
+
+   public String getType() {
+      return this._user.getType();
+   }
+
+   public boolean isManager() {
+      return "Manager".equals(this._user.getType());
+   }
+
+   public boolean isEmployee() {
+      return "Employee".equals(this._user.getType());
+   }
+
+   /**
+    * @return true for managers and employees
+    */
+   public boolean isStaff() {
+      return isManager() || isEmployee();
+   }
+
+   /**
+    * @param password the password entered by the user
+    * @return true when it is the user's password
+    */
+   public boolean checkPassword(String password) {
+      return this._user.getPassword().equals(password);
+   }
+
+   /**
+    * @return false once a refresh found the login, password or type changed
+    */
+   public boolean isValid() {
+      return this._valid;
+   }
+}//end Session
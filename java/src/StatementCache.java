@@ -0,0 +1,120 @@
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for a single physical connection. Statements are keyed by
+ * their SQL template so that every query shape is parsed and planned by
+ * the server once per connection instead of once per call.
+ *
+ * That server-side reuse needs a driver that prepares on the server. The
+ * 7.3 driver shipped in lib only does so on servers it recognizes as 7.3
+ * or later by comparing version strings, which sorts "10" and up before
+ * "7.3", so against the PostgreSQL 12+ this targets it silently keeps
+ * substituting parameters client side and only the statement objects are
+ * reused. Newer drivers prepare through setPrepareThreshold. Cursor
+ * declarations are never prepared on the server, which cannot PREPARE a
+ * DECLARE.
+ *
+ */
+public class StatementCache {
+
+   // default number of distinct SQL templates kept per connection
+   public static final int DEFAULT_CAPACITY = 64;
+
+   // connection the cached statements belong to
+   private final Connection _connection;
+
+   // SQL template -> prepared statement, kept in access order
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   /**
+    * Creates a new statement cache for a connection
+    *
+    * @param connection the connection statements are prepared on
+    * @param capacity the maximum number of cached statements
+    */
+   public StatementCache(Connection connection, final int capacity) {
+      this._connection = connection;
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+         protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() > capacity) {
+               closeQuietly(eldest.getValue());
+               return true;
+            }
+            return false;
+         }
+      };
+   }//end StatementCache
+
+   /**
+    * Returns the cached prepared statement for a SQL template, preparing it
+    * on the connection the first time the template is seen.
+    *
+    * @param sql the SQL template, using ? for parameters
+    * @return the prepared statement for the template
+    * @throws java.sql.SQLException when the statement could not be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt == null) {
+         stmt = this._connection.prepareStatement(sql);
+         if (!sql.regionMatches(true, 0, "DECLARE ", 0, 8))
+            useServerPrepare(stmt);
+         this._statements.put(sql, stmt);
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Closes and forgets every cached statement.
+    */
+   public void clear() {
+      for (PreparedStatement stmt : this._statements.values()) {
+         closeQuietly(stmt);
+      }
+      this._statements.clear();
+   }//end clear
+
+   /**
+    * @return the number of statements currently cached
+    */
+   public int size() {
+      return this._statements.size();
+   }
+
+   /*
+    * Asks the driver to keep a server-side plan for the statement from its
+    * first execution. Newer drivers expose setPrepareThreshold, the 7.3
+    * driver setUseServerPrepare, a no-op against servers from 10 on; the
+    * driver is only on the runtime classpath so both are looked up
+    * reflectively.
+    **/
+   private static void useServerPrepare(PreparedStatement stmt) {
+      try {
+         Method threshold = stmt.getClass().getMethod("setPrepareThreshold", int.class);
+         threshold.invoke(stmt, 1);
+         return;
+      }catch (Exception e) {
+         // not available, try the older switch.
+      }
+      try {
+         Method serverPrepare = stmt.getClass().getMethod("setUseServerPrepare", boolean.class);
+         serverPrepare.invoke(stmt, true);
+      }catch (Exception e) {
+         // ignored, the statement is still reused client side.
+      }
+   }//end useServerPrepare
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      }catch (SQLException e) {
+         // ignored.
+      }
+   }
+}//end StatementCache
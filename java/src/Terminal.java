@@ -0,0 +1,95 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+
+/**
+ * The reader and writers of one terminal session: the process console
+ * for the interactive program, or a socket for each register connected to
+ * TerminalServer. Every menu of Cafe is handed the Terminal of its session
+ * and reads and writes only through it, so sessions sharing a process
+ * never see each other's input or output.
+ *
+ * A terminal that hung up makes every read throw Hangup, a checked
+ * exception, so the menus unwind through their usual error handling and
+ * the session ends with runTerminal returning by exception, never in the
+ * middle of a transaction.
+ *
+ */
+public class Terminal {
+
+   final PrintStream out;
+   final PrintStream err;
+   private final BufferedReader _in;
+   private volatile boolean _closed = false;
+
+   /**
+    * @param in the lines typed at the terminal
+    * @param out where menus and prompts are written
+    * @param err where error messages are written
+    */
+   public Terminal(BufferedReader in, PrintStream out, PrintStream err) {
+      this._in = in;
+      this.out = out;
+      this.err = err;
+   }
+
+   /**
+    * @return the terminal of the process console
+    */
+   public static Terminal console() {
+      return new Terminal(new BufferedReader(new InputStreamReader(System.in)), System.out, System.err);
+   }
+
+   /**
+    * Reads one line. Pending output is flushed first so the prompt is on
+    * screen before the read blocks.
+    *
+    * @return the line typed, without its line terminator
+    * @throws Hangup when the terminal hung up, now or before
+    */
+   public String readLine() throws Hangup {
+      if (this._closed)
+         throw new Hangup();
+      this.out.flush();
+      this.err.flush();
+      String line;
+      try {
+         line = this._in.readLine();
+      } catch (IOException e) {
+         line = null;
+      }
+      if (line == null) {
+         this._closed = true;
+         throw new Hangup();
+      }
+      return line;
+   }//end readLine
+
+   /**
+    * @return true when a line can be read without blocking
+    * @throws Hangup when the terminal hung up
+    */
+   public boolean ready() throws Hangup {
+      if (this._closed)
+         throw new Hangup();
+      try {
+         return this._in.ready();
+      } catch (IOException e) {
+         this._closed = true;
+         throw new Hangup();
+      }
+   }
+
+   /**
+    * Thrown by every read once the terminal hung up.
+    */
+   public static class Hangup extends IOException {
+
+      private static final long serialVersionUID = 1L;
+
+      Hangup() {
+         super("Terminal closed");
+      }
+   }
+}//end Terminal
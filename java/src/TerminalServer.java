@@ -0,0 +1,106 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class serves the console menus to many terminals at once over a
+ * local TCP socket (e.g. telnet localhost <port>), so one process and one
+ * connection pool serve every register in the store. Each accepted
+ * terminal runs Cafe.runTerminal on its own virtual thread when the JVM
+ * has them, or on a pooled platform thread otherwise.
+ *
+ * Each session hands the menus a Terminal of its own over the socket, so
+ * nothing process-wide is redirected and the process console keeps its
+ * own output. A terminal that hangs up ends its session through the
+ * menus' normal error handling.
+ *
+ */
+public class TerminalServer {
+
+   private final Cafe _esql;
+   private final int _port;
+
+   /**
+    * @param esql the database shared by every terminal
+    * @param port the local port terminals connect to
+    */
+   public TerminalServer(Cafe esql, int port) {
+      this._esql = esql;
+      this._port = port;
+   }
+
+   /**
+    * Accepts terminals until the listening socket fails. Only connections
+    * from this machine are accepted.
+    *
+    * @throws java.io.IOException when the port could not be bound
+    */
+   public void serve() throws IOException {
+      ExecutorService sessions = newSessionExecutor();
+      ServerSocket listener = new ServerSocket(this._port, 50, InetAddress.getByName(null));
+      System.out.println("Serving terminals on localhost:" + this._port);
+      try {
+         while (true) {
+            final Socket socket = listener.accept();
+            sessions.execute(new Runnable() {
+               public void run() {
+                  session(socket);
+               }
+            });
+         }
+      } finally {
+         listener.close();
+         sessions.shutdown();
+      }
+   }//end serve
+
+   /*
+    * Runs the menus for one connected terminal and closes it when the
+    * user exits or hangs up.
+    **/
+   private void session(Socket socket) {
+      try {
+         socket.setTcpNoDelay(true);
+         PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream()), false, "UTF-8");
+         Terminal terminal = new Terminal(
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8")), out, out);
+         try {
+            Cafe.Greeting(terminal);
+            Cafe.runTerminal(this._esql, terminal);
+            out.println("Bye !");
+         } catch (Terminal.Hangup e) {
+            // the terminal went away.
+         } finally {
+            out.flush();
+         }
+      } catch (IOException e) {
+         System.err.println("Terminal " + socket.getRemoteSocketAddress() + " failed: " + e.getMessage());
+      } finally {
+         try {
+            socket.close();
+         } catch (IOException e) {
+            // ignored.
+         }
+      }
+   }//end session
+
+   /*
+    * One virtual thread per terminal on JVMs that have them (looked up
+    * reflectively so the code still builds for older targets), a cached
+    * pool of platform threads otherwise.
+    **/
+   static ExecutorService newSessionExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (Exception e) {
+         return Executors.newCachedThreadPool();
+      }
+   }
+}//end TerminalServer
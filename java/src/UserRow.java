@@ -0,0 +1,44 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * One row of the Users table.
+ *
+ */
+public class UserRow {
+
+   public static final RowMapper<UserRow> MAPPER = new RowMapper<UserRow>() {
+      public UserRow map(ResultSet rs) throws SQLException {
+         return new UserRow(rs.getString("login"), rs.getString("phoneNum"), rs.getString("password"),
+                            rs.getString("type"));
+      }
+   };
+
+   private final String _login;
+   private final String _phoneNum;
+   private final String _password;
+   private final String _type;
+
+   public UserRow(String login, String phoneNum, String password, String type) {
+      this._login = login;
+      this._phoneNum = phoneNum;
+      this._password = password;
+      this._type = type;
+   }
+
+   public String getLogin() {
+      return this._login;
+   }
+
+   public String getPhoneNum() {
+      return this._phoneNum;
+   }
+
+   public String getPassword() {
+      return this._password;
+   }
+
+   public String getType() {
+      return this._type;
+   }
+}//end UserRow
@@ -0,0 +1,424 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class writes orders.csv and itemStatus.csv for load_data.sql from
+ * the users in users.csv and the items in menu.csv. Orders are spread over
+ * a date range by day of week and by a time-of-day arrival curve, users
+ * and menu items are picked with a Zipf distribution so a few regulars and
+ * favourite items dominate, and the rows are streamed through a direct
+ * buffer to a file channel so the row count is bounded by disk only.
+ *
+ * Order ids are assigned in time order starting at 1, the way the serial
+ * column hands them out.
+ *
+ */
+public class GenerateData {
+
+   private static final Charset UTF8 = Charset.forName("UTF-8");
+
+   // relative number of orders arriving in each hour of the day
+   private static final double[] HOURLY = {
+      0, 0, 0, 0, 0, 0.2,       // closed until 6
+      1.0, 2.6, 3.4, 2.2, 1.4,  // breakfast peak
+      1.8, 3.0, 2.8, 1.5,       // lunch
+      1.3, 1.9, 1.6, 1.1,       // afternoon
+      0.8, 0.5, 0.2, 0, 0       // closing
+   };
+
+   // relative number of orders on each day of the week, Sunday first
+   private static final double[] WEEKDAY = { 0.8, 1.0, 1.0, 1.0, 1.05, 1.15, 1.1 };
+
+   private static final String[] STATUSES = { "Hasn't Started", "Started", "Finished" };
+
+   // options, see usage()
+   private static long _orders = 87256;
+   private static Date _from = null;
+   private static Date _to = null;
+   private static int _maxItems = 5;
+   private static double _skew = 1.1;
+   private static long _seed = 42;
+   private static String _users = "../../data/users.csv";
+   private static String _menu = "../../data/menu.csv";
+   private static String _out = "../../data";
+
+   public static void main(String[] args) throws Exception {
+      SimpleDateFormat day = new SimpleDateFormat("yyyy-MM-dd");
+      day.setLenient(false);
+      try {
+         for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+               usage();
+               return;
+            }
+            String option = args[i];
+            String value = args[i + 1];
+            if (option.equals("--orders"))
+               _orders = Long.parseLong(value);
+            else if (option.equals("--from"))
+               _from = day.parse(value);
+            else if (option.equals("--to"))
+               _to = day.parse(value);
+            else if (option.equals("--max-items"))
+               _maxItems = Integer.parseInt(value);
+            else if (option.equals("--skew"))
+               _skew = Double.parseDouble(value);
+            else if (option.equals("--seed"))
+               _seed = Long.parseLong(value);
+            else if (option.equals("--users"))
+               _users = value;
+            else if (option.equals("--menu"))
+               _menu = value;
+            else if (option.equals("--out"))
+               _out = value;
+            else {
+               usage();
+               return;
+            }
+         }//end for
+      } catch (NumberFormatException e) {
+         usage();
+         return;
+      } catch (ParseException e) {
+         usage();
+         return;
+      }
+      if (_to == null) {
+         // yesterday, so no order is placed later than now
+         Calendar cal = Calendar.getInstance();
+         cal.add(Calendar.DAY_OF_MONTH, -1);
+         _to = day.parse(day.format(cal.getTime()));
+      }
+      if (_from == null) {
+         Calendar cal = Calendar.getInstance();
+         cal.setTime(_to);
+         cal.add(Calendar.YEAR, -1);
+         _from = cal.getTime();
+      }
+      if (_from.after(_to)) {
+         System.err.println("--from must not be after --to");
+         return;
+      }
+
+      List<String[]> users = readCsv(_users);
+      List<String[]> menu = readCsv(_menu);
+      if (users.isEmpty() || menu.isEmpty()) {
+         System.err.println("users and menu must not be empty");
+         return;
+      }
+
+      long start = System.currentTimeMillis();
+      long items = generate(users, menu);
+      System.out.println(String.format("Wrote %d orders and %d item statuses in %d ms",
+                                       _orders, items, System.currentTimeMillis() - start));
+      System.out.println("Load them with load_data.sql; it restarts orders_orderid_seq after the highest id.");
+   }//end main
+
+   private static void usage() {
+      System.err.println(
+         "Usage: java [-classpath <classpath>] " + GenerateData.class.getName() + "\n" +
+         "   [--orders n]         number of orders (default 87256)\n" +
+         "   [--from yyyy-MM-dd]  first day of orders (default a year before --to)\n" +
+         "   [--to yyyy-MM-dd]    last day of orders (default yesterday)\n" +
+         "   [--max-items n]      most items on one order (default 5)\n" +
+         "   [--skew s]           Zipf exponent of user and item popularity (default 1.1)\n" +
+         "   [--seed n]           random seed (default 42)\n" +
+         "   [--users file]       users.csv to read logins from\n" +
+         "   [--menu file]        menu.csv to read items and prices from\n" +
+         "   [--out dir]          directory orders.csv and itemStatus.csv are written to");
+   }
+
+   /*
+    * Writes both files day by day. Each day gets its share of the orders
+    * by weekday weight; within the day arrival times follow HOURLY and are
+    * sorted so order ids grow with time.
+    **/
+   private static long generate(List<String[]> users, List<String[]> menu) throws IOException {
+      Random rnd = new Random(_seed);
+
+      // popularity rank is a seeded shuffle of the file order
+      List<String[]> byPopularity = new ArrayList<String[]>(users);
+      Collections.shuffle(byPopularity, rnd);
+      String[] logins = new String[byPopularity.size()];
+      for (int i = 0; i < logins.length; i++)
+         logins[i] = byPopularity.get(i)[0].trim();
+      byPopularity = new ArrayList<String[]>(menu);
+      Collections.shuffle(byPopularity, rnd);
+      String[] itemNames = new String[byPopularity.size()];
+      double[] prices = new double[byPopularity.size()];
+      for (int i = 0; i < itemNames.length; i++) {
+         itemNames[i] = byPopularity.get(i)[0].trim();
+         prices[i] = Double.parseDouble(byPopularity.get(i)[2].trim());
+      }
+      Zipf userDist = new Zipf(logins.length, _skew);
+      Zipf itemDist = new Zipf(itemNames.length, _skew);
+      int maxItems = Math.max(1, Math.min(_maxItems, itemNames.length));
+      double[] hourly = cumulative(HOURLY);
+
+      // per day order counts, largest remainder so they add up to _orders
+      Calendar cal = Calendar.getInstance();
+      cal.setTime(_from);
+      List<Calendar> days = new ArrayList<Calendar>();
+      double totalWeight = 0;
+      while (!cal.getTime().after(_to)) {
+         days.add((Calendar) cal.clone());
+         totalWeight += WEEKDAY[cal.get(Calendar.DAY_OF_WEEK) - 1];
+         cal.add(Calendar.DAY_OF_MONTH, 1);
+      }
+      long[] perDay = new long[days.size()];
+      double[] remainder = new double[days.size()];
+      long assigned = 0;
+      for (int d = 0; d < days.size(); d++) {
+         double share = _orders * WEEKDAY[days.get(d).get(Calendar.DAY_OF_WEEK) - 1] / totalWeight;
+         perDay[d] = (long) share;
+         remainder[d] = share - perDay[d];
+         assigned += perDay[d];
+      }
+      Integer[] byRemainder = new Integer[days.size()];
+      for (int d = 0; d < byRemainder.length; d++)
+         byRemainder[d] = d;
+      final double[] rem = remainder;
+      Arrays.sort(byRemainder, new java.util.Comparator<Integer>() {
+         public int compare(Integer a, Integer b) {
+            return Double.compare(rem[b], rem[a]);
+         }
+      });
+      for (int i = 0; assigned < _orders; i = (i + 1) % byRemainder.length, assigned++)
+         perDay[byRemainder[i]]++;
+
+      long now = System.currentTimeMillis();
+      long orderID = 0;
+      long itemCount = 0;
+      int[] picked = new int[maxItems];
+      ChannelWriter orders = new ChannelWriter(_out + "/orders.csv");
+      ChannelWriter statuses = new ChannelWriter(_out + "/itemStatus.csv");
+      try {
+         for (int d = 0; d < days.size(); d++) {
+            Calendar dayStart = days.get(d);
+            String date = String.format("%04d-%02d-%02d ", dayStart.get(Calendar.YEAR),
+                                        dayStart.get(Calendar.MONTH) + 1, dayStart.get(Calendar.DAY_OF_MONTH));
+            long dayMillis = dayStart.getTimeInMillis();
+
+            int[] seconds = new int[(int) perDay[d]];
+            for (int o = 0; o < seconds.length; o++) {
+               int hour = Arrays.binarySearch(hourly, rnd.nextDouble());
+               hour = hour < 0 ? -hour - 1 : hour;
+               seconds[o] = Math.min(hour, 23) * 3600 + rnd.nextInt(3600);
+            }
+            Arrays.sort(seconds);
+
+            for (int o = 0; o < seconds.length; o++) {
+               orderID++;
+               long placedAt = dayMillis + seconds[o] * 1000L;
+               long ageMillis = now - placedAt;
+
+               // 1 item, then each further one with probability 0.45
+               int count = 1;
+               while (count < maxItems && rnd.nextDouble() < 0.45)
+                  count++;
+               double total = 0;
+               for (int i = 0; i < count; i++) {
+                  int item;
+                  boolean repeated;
+                  do {
+                     item = itemDist.next(rnd);
+                     repeated = false;
+                     for (int j = 0; j < i; j++)
+                        repeated |= picked[j] == item;
+                  } while (repeated);
+                  picked[i] = item;
+                  total += prices[item];
+
+                  // items of orders older than an hour are done, newer
+                  // ones are somewhere in the kitchen
+                  int status = ageMillis > 3600 * 1000L ? 2 : rnd.nextInt(STATUSES.length);
+                  int updated = Math.min(seconds[o] + (status == 0 ? 0 : 60 + rnd.nextInt(15 * 60)), 86399);
+                  statuses.append(orderID).separator()
+                          .append(itemNames[item]).separator()
+                          .append(date).time(updated).separator()
+                          .append(STATUSES[status]).separator()
+                          .separator()
+                          .cents(Math.round(prices[item] * 100)).separator()
+                          .append(date).time(seconds[o]).separator()
+                          .append(date).time(seconds[o])
+                          .endRow();
+                  itemCount++;
+               }
+
+               // orders older than a day were settled, recent ones mostly not
+               boolean paid = ageMillis > 24 * 3600 * 1000L || rnd.nextDouble() < 0.3;
+               orders.append(orderID).separator()
+                     .append(logins[userDist.next(rnd)]).separator()
+                     .append(paid ? "t" : "f").separator()
+                     .append(date).time(seconds[o]).separator()
+                     .cents(Math.round(total * 100))
+                     .endRow();
+            }//end for
+         }//end for
+      } finally {
+         orders.close();
+         statuses.close();
+      }
+      return itemCount;
+   }//end generate
+
+   private static double[] cumulative(double[] weights) {
+      double[] cdf = new double[weights.length];
+      double sum = 0;
+      for (double w : weights)
+         sum += w;
+      double running = 0;
+      for (int i = 0; i < weights.length; i++) {
+         running += weights[i];
+         cdf[i] = running / sum;
+      }
+      return cdf;
+   }
+
+   private static List<String[]> readCsv(String path) throws IOException {
+      List<String[]> rows = new ArrayList<String[]>();
+      BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), UTF8));
+      try {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            if (line.length() > 0)
+               rows.add(line.split(";", -1));
+         }
+      } finally {
+         reader.close();
+      }
+      return rows;
+   }//end readCsv
+
+   /**
+    * Samples ranks 0..n-1 with probability proportional to 1/(rank+1)^s.
+    */
+   private static class Zipf {
+      private final double[] _cdf;
+
+      Zipf(int n, double s) {
+         double[] weights = new double[n];
+         for (int i = 0; i < n; i++)
+            weights[i] = 1.0 / Math.pow(i + 1, s);
+         this._cdf = cumulative(weights);
+      }
+
+      int next(Random rnd) {
+         int i = Arrays.binarySearch(this._cdf, rnd.nextDouble());
+         return Math.min(i < 0 ? -i - 1 : i, this._cdf.length - 1);
+      }
+   }//end Zipf
+
+   /**
+    * Writes COPY text rows into a direct buffer that is flushed to a file
+    * channel whenever it fills up.
+    */
+   private static class ChannelWriter {
+      private final FileChannel _channel;
+      private final ByteBuffer _buffer = ByteBuffer.allocateDirect(1 << 20);
+
+      ChannelWriter(String path) throws IOException {
+         this._channel = new FileOutputStream(path).getChannel();
+      }
+
+      ChannelWriter append(String value) throws IOException {
+         ensure(value.length() * 3);
+         for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+               this._buffer.put(value.substring(i).getBytes(UTF8));
+               return this;
+            }
+            this._buffer.put((byte) c);
+         }
+         return this;
+      }
+
+      ChannelWriter append(long value) throws IOException {
+         ensure(20);
+         if (value < 0) {
+            this._buffer.put((byte) '-');
+            value = -value;
+         }
+         if (value >= 10)
+            digits(value / 10);
+         this._buffer.put((byte) ('0' + value % 10));
+         return this;
+      }
+
+      /*
+       * Writes hh:mm:ss for a second of the day.
+       **/
+      ChannelWriter time(int secondOfDay) throws IOException {
+         ensure(8);
+         two(secondOfDay / 3600);
+         this._buffer.put((byte) ':');
+         two(secondOfDay / 60 % 60);
+         this._buffer.put((byte) ':');
+         two(secondOfDay % 60);
+         return this;
+      }
+
+      ChannelWriter cents(long cents) throws IOException {
+         ensure(23);
+         append(cents / 100);
+         this._buffer.put((byte) '.');
+         two((int) (cents % 100));
+         return this;
+      }
+
+      ChannelWriter separator() throws IOException {
+         ensure(1);
+         this._buffer.put((byte) ';');
+         return this;
+      }
+
+      void endRow() throws IOException {
+         ensure(1);
+         this._buffer.put((byte) '\n');
+      }
+
+      void close() throws IOException {
+         flush();
+         this._channel.close();
+      }
+
+      private void digits(long value) {
+         if (value >= 10)
+            digits(value / 10);
+         this._buffer.put((byte) ('0' + value % 10));
+      }
+
+      private void two(int value) {
+         this._buffer.put((byte) ('0' + value / 10));
+         this._buffer.put((byte) ('0' + value % 10));
+      }
+
+      private void ensure(int bytes) throws IOException {
+         if (this._buffer.remaining() < bytes)
+            flush();
+      }
+
+      private void flush() throws IOException {
+         this._buffer.flip();
+         while (this._buffer.hasRemaining())
+            this._channel.write(this._buffer);
+         this._buffer.clear();
+      }
+   }//end ChannelWriter
+}//end GenerateData
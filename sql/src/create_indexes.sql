@@ -10,3 +10,24 @@ CREATE INDEX login_index
 ON Users
 (login);
 
+
+CREATE INDEX login_history_index
+ON Orders
+(login, timeStampRecieved DESC, orderid DESC);
+
+CREATE INDEX unpaid_orders_index
+ON Orders
+(timeStampRecieved DESC, orderid DESC)
+WHERE NOT paid;
+
+CREATE INDEX status_updated_index
+ON ItemStatus
+(status, lastUpdated);
+
+CREATE INDEX favorites_item_index
+ON UserFavorites
+(itemName, login);
+
+CREATE INDEX archive_login_history_index
+ON OrdersArchive
+(login, timeStampRecieved DESC, orderid DESC);
@@ -2,37 +2,178 @@ DROP TABLE Users CASCADE;
 DROP TABLE Orders CASCADE;
 DROP TABLE Menu CASCADE;
 DROP TABLE ItemStatus;
+DROP TABLE UserFavorites;
+DROP TABLE OrdersArchive;
+DROP TABLE DailySales;
+DROP TABLE ItemSales;
+DROP TABLE MenuVersion;
 
 CREATE TABLE Users(
-	login char(50) UNIQUE NOT NULL, 
-	phoneNum char(16) UNIQUE, 
-	password char(50) NOT NULL,
-	favItems char(400),
-	type char(8) NOT NULL,
+	login varchar(50) UNIQUE NOT NULL, 
+	phoneNum varchar(16) UNIQUE, 
+	password varchar(50) NOT NULL,
+	type varchar(8) NOT NULL,
 	PRIMARY KEY(login));
 
 CREATE TABLE Menu(
-	itemName char(50) UNIQUE NOT NULL,
-	type char(20) NOT NULL,
+	itemName varchar(50) UNIQUE NOT NULL,
+	type varchar(20) NOT NULL,
 	price real NOT NULL,
-	description char(400),
-	imageURL char(256),
+	description varchar(400),
+	imageURL varchar(256),
 	PRIMARY KEY(itemName));
 
+CREATE TABLE UserFavorites(
+	login varchar(50) NOT NULL,
+	itemName varchar(50) NOT NULL,
+	PRIMARY KEY(login, itemName),
+	FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE,
+	FOREIGN KEY(itemName) REFERENCES Menu(itemName) ON UPDATE CASCADE ON DELETE CASCADE);
+
+CREATE TABLE MenuVersion(
+	version bigint NOT NULL);
+INSERT INTO MenuVersion VALUES (0);
+
+-- Orders and their items are split into one partition per month of the
+-- order time, so queries bounded by time only read the recent months and
+-- old months can be detached whole. An item carries its order's time,
+-- and the time it was added to the order in addedAt.
+-- The key of a partitioned table has to include the partition column, so
+-- nothing in the schema keeps an orderid unique across months: only the
+-- serial does, as long as every order takes its id from it. Statements on
+-- one order also give its timeStampRecieved, so they read one partition.
 CREATE TABLE Orders(
-	orderid serial UNIQUE NOT NULL,
-	login char(50), 
+	orderid serial NOT NULL,
+	login varchar(50), 
 	paid boolean,
 	timeStampRecieved timestamp NOT NULL,
 	total real NOT NULL,
-	PRIMARY KEY(orderid), FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE);
+	PRIMARY KEY(orderid, timeStampRecieved), FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE)
+PARTITION BY RANGE (timeStampRecieved);
 
 CREATE TABLE ItemStatus(
 	orderid integer,
-	itemName char(50), 
+	itemName varchar(50), 
 	lastUpdated timestamp NOT NULL,
-	status char(20), 
-	comments char(130), 
-	PRIMARY KEY(orderid,itemName),
-	FOREIGN KEY(orderid) REFERENCES Orders(orderid) ON DELETE CASCADE);
-	--FOREIGN KEY(itemName) REFERENCES Menu(itemName) ON UPDATE CASCADE ON DELETE NO ACTION);
+	status varchar(20), 
+	comments varchar(130), 
+	unitPrice real NOT NULL,
+	timeStampRecieved timestamp NOT NULL,
+	addedAt timestamp NOT NULL,
+	PRIMARY KEY(orderid,itemName,timeStampRecieved),
+	FOREIGN KEY(orderid, timeStampRecieved) REFERENCES Orders(orderid, timeStampRecieved) ON DELETE CASCADE)
+	--FOREIGN KEY(itemName) REFERENCES Menu(itemName) ON UPDATE CASCADE ON DELETE NO ACTION
+PARTITION BY RANGE (timeStampRecieved);
+
+-- Settled orders (paid, every item finished) past the archive age, one
+-- compact row per order with its items folded into arrays in name order,
+-- with the time each was added and finished. Written only by OrderArchiver.
+CREATE TABLE OrdersArchive(
+	orderid integer NOT NULL,
+	login varchar(50),
+	timeStampRecieved timestamp NOT NULL,
+	total real NOT NULL,
+	finishedAt timestamp,
+	itemNames varchar(50)[] NOT NULL,
+	unitPrices real[] NOT NULL,
+	comments varchar(130)[] NOT NULL,
+	addedAts timestamp[] NOT NULL,
+	finishedAts timestamp[] NOT NULL,
+	PRIMARY KEY(orderid));
+
+-- Sales per day orders were placed on, and per item sold on that day,
+-- kept up to date by the order methods of Cafe in the transaction of
+-- every change. prepSeconds sums, over the items Finished now, the time
+-- from the item being added to its order to its moving to Finished.
+-- Every day, or day and item, is split over the shards sales_shard() puts
+-- orders in, so the orders of one day add to different rows instead of
+-- queuing on the lock of a single one; the reports sum the shards.
+CREATE TABLE DailySales(
+	day date NOT NULL,
+	orders integer NOT NULL DEFAULT 0,
+	itemsSold integer NOT NULL DEFAULT 0,
+	revenue numeric(12,2) NOT NULL DEFAULT 0,
+	paidOrders integer NOT NULL DEFAULT 0,
+	paidRevenue numeric(12,2) NOT NULL DEFAULT 0,
+	finished integer NOT NULL DEFAULT 0,
+	prepSeconds double precision NOT NULL DEFAULT 0,
+	shard smallint NOT NULL DEFAULT 0,
+	PRIMARY KEY(day, shard));
+
+CREATE TABLE ItemSales(
+	day date NOT NULL,
+	itemName varchar(50) NOT NULL,
+	sold integer NOT NULL DEFAULT 0,
+	revenue numeric(12,2) NOT NULL DEFAULT 0,
+	finished integer NOT NULL DEFAULT 0,
+	prepSeconds double precision NOT NULL DEFAULT 0,
+	shard smallint NOT NULL DEFAULT 0,
+	PRIMARY KEY(day, itemName, shard));
+
+-- The shard of DailySales and ItemSales the sales of an order add to.
+-- Cafe and rebuild_sales() both use it, so they always agree.
+CREATE OR REPLACE FUNCTION sales_shard(orderid integer)
+   RETURNS smallint AS
+	$BODY$
+	   SELECT CAST($1 % 16 AS smallint);
+	$BODY$
+LANGUAGE sql IMMUTABLE;
+
+CREATE OR REPLACE FUNCTION create_month_partition(parent text, month date)
+   RETURNS text AS
+	$BODY$
+	DECLARE
+	   first date := date_trunc('month', month);
+	   name text := lower(parent) || '_' || to_char(first, 'YYYYMM');
+	BEGIN
+	   --Creates the partition of parent holding the given month, unless it exists
+	   IF to_regclass(name) IS NULL THEN
+	      EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+	                     name, lower(parent), first, first + interval '1 month');
+	   END IF;
+	   RETURN name;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+-- this month and the next two; PartitionMaintainer keeps creating them
+SELECT create_month_partition('Orders', (now() + m * interval '1 month')::date),
+       create_month_partition('ItemStatus', (now() + m * interval '1 month')::date)
+FROM generate_series(0, 2) m;
+
+CREATE OR REPLACE FUNCTION rebuild_sales()
+   RETURNS void AS
+	$BODY$
+	BEGIN
+	   --Recomputes the sales rollups from the live and the archived orders
+	   TRUNCATE DailySales, ItemSales;
+	   --Prep times count the items Finished now, from added to finished,
+	   --the same definition Cafe keeps the rollups up to date with
+	   INSERT INTO ItemSales (day, itemName, shard, sold, revenue, finished, prepSeconds)
+	   SELECT CAST(S.placed AS date), S.itemName, sales_shard(S.orderid), COUNT(*), SUM(CAST(S.unitPrice AS numeric)),
+	          COUNT(*) FILTER (WHERE S.done),
+	          COALESCE(SUM(EXTRACT(EPOCH FROM S.finishedAt - S.addedAt)) FILTER (WHERE S.done), 0)
+	   FROM (SELECT I.orderid, I.timeStampRecieved AS placed, I.itemName, I.unitPrice,
+	                I.status = 'Finished' AS done, I.addedAt, I.lastUpdated AS finishedAt
+	         FROM ItemStatus I
+	         UNION ALL
+	         SELECT A.orderid, A.timeStampRecieved, U.itemName, U.unitPrice, true, U.addedAt, U.finishedAt
+	         FROM OrdersArchive A,
+	              unnest(A.itemNames, A.unitPrices, A.addedAts, A.finishedAts) AS U(itemName, unitPrice, addedAt, finishedAt)) S
+	   GROUP BY 1, 2, 3;
+	   INSERT INTO DailySales (day, shard, orders, paidOrders, paidRevenue)
+	   SELECT CAST(S.placed AS date), sales_shard(S.orderid), COUNT(*), COUNT(*) FILTER (WHERE S.paid),
+	          COALESCE(SUM(ROUND(CAST(S.total AS numeric), 2)) FILTER (WHERE S.paid), 0)
+	   FROM (SELECT O.orderid, O.timeStampRecieved AS placed, O.paid, O.total FROM Orders O
+	         UNION ALL
+	         SELECT A.orderid, A.timeStampRecieved, true, A.total FROM OrdersArchive A) S
+	   GROUP BY 1, 2;
+	   UPDATE DailySales D
+	   SET itemsSold = S.sold, revenue = S.revenue, finished = S.finished, prepSeconds = S.prepSeconds
+	   FROM (SELECT day, shard, SUM(sold) AS sold, SUM(revenue) AS revenue, SUM(finished) AS finished,
+	                SUM(prepSeconds) AS prepSeconds
+	         FROM ItemSales GROUP BY day, shard) S
+	   WHERE D.day = S.day AND D.shard = S.shard;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
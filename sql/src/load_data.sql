@@ -2,19 +2,54 @@ COPY MENU
 FROM '../data/menu.csv'
 WITH DELIMITER ';';
 
-COPY USERS
+-- users.csv still lists favorite items as one comma separated column;
+-- they are split into UserFavorites, matching menu names case-insensitively
+CREATE TEMP TABLE UsersStaging(
+	login varchar(50),
+	phoneNum varchar(16),
+	password varchar(50),
+	favItems varchar(400),
+	type varchar(8));
+
+COPY UsersStaging
 FROM '../data/users.csv'
 WITH DELIMITER ';';
 
-COPY ORDERS
+INSERT INTO Users (login, phoneNum, password, type)
+SELECT login, phoneNum, password, type FROM UsersStaging;
+
+INSERT INTO UserFavorites (login, itemName)
+SELECT DISTINCT S.login, M.itemName
+FROM UsersStaging S
+CROSS JOIN LATERAL unnest(string_to_array(S.favItems, ',')) AS F(name)
+JOIN Menu M ON lower(M.itemName) = lower(trim(F.name));
+
+DROP TABLE UsersStaging;
+
+-- orders and items go through staging tables so the month partitions
+-- their times fall in can be created first
+CREATE TEMP TABLE OrdersStaging (LIKE Orders);
+CREATE TEMP TABLE ItemStatusStaging (LIKE ItemStatus);
+
+COPY OrdersStaging
 FROM '../data/orders.csv'
 WITH DELIMITER ';';
-ALTER SEQUENCE orders_orderid_seq RESTART 87257;
 
-COPY ITEMSTATUS
+COPY ItemStatusStaging
 FROM '../data/itemStatus.csv'
 WITH DELIMITER ';';
 
+SELECT create_month_partition('Orders', m::date), create_month_partition('ItemStatus', m::date)
+FROM generate_series((SELECT date_trunc('month', MIN(timeStampRecieved)) FROM OrdersStaging),
+                     (SELECT MAX(timeStampRecieved) FROM OrdersStaging), interval '1 month') m;
+
+INSERT INTO Orders SELECT * FROM OrdersStaging;
+SELECT setval('orders_orderid_seq', (SELECT MAX(orderid) FROM Orders));
 
+INSERT INTO ItemStatus SELECT * FROM ItemStatusStaging;
 
+DROP TABLE OrdersStaging;
+DROP TABLE ItemStatusStaging;
 
+-- rollups of the orders just loaded
+SELECT rebuild_sales();
@@ -0,0 +1,13 @@
+-- Keep the price every item was ordered at, so editing an order does not
+-- look the price up in Menu and totals stay exact after price changes.
+-- Existing rows take the current menu price (0 for items no longer on it).
+BEGIN;
+
+ALTER TABLE ItemStatus ADD COLUMN unitPrice real;
+
+UPDATE ItemStatus I
+SET unitPrice = COALESCE((SELECT M.price FROM Menu M WHERE M.itemName = I.itemName), 0);
+
+ALTER TABLE ItemStatus ALTER COLUMN unitPrice SET NOT NULL;
+
+COMMIT;
@@ -0,0 +1,7 @@
+-- Serve a user's order history pages, newest first, from one index range
+-- scan instead of filtering and sorting everything the user ever ordered.
+-- Built concurrently so ordering is not blocked; run it outside a
+-- transaction block.
+CREATE INDEX CONCURRENTLY login_history_index
+ON Orders
+(login, timeStampRecieved DESC, orderid DESC);
@@ -0,0 +1,7 @@
+-- Index only the unpaid orders, a small and shifting slice of Orders, for
+-- the staff screens and for reading the open orders set at startup.
+-- Run it outside a transaction block.
+CREATE INDEX CONCURRENTLY unpaid_orders_index
+ON Orders
+(timeStampRecieved DESC, orderid DESC)
+WHERE NOT paid;
@@ -0,0 +1,5 @@
+-- Find the unfinished items for the kitchen prep list, oldest first,
+-- without reading the finished ones. Run it outside a transaction block.
+CREATE INDEX CONCURRENTLY status_updated_index
+ON ItemStatus
+(status, lastUpdated);
@@ -0,0 +1,30 @@
+-- Push every ItemStatus change to the screens LISTENing on item_status,
+-- so they stop re-reading the table to notice changes. Same definition as
+-- in triggers.sql.
+BEGIN;
+
+CREATE OR REPLACE FUNCTION item_status_notify_procedure()
+   RETURNS "trigger" AS
+	$BODY$
+	DECLARE
+	   item ItemStatus%ROWTYPE;
+	BEGIN
+	   --Tells listening screens which item changed: <op>,<orderid>,<status>,<itemName>
+	   IF TG_OP = 'DELETE' THEN
+	      item := OLD;
+	   ELSE
+	      item := NEW;
+	   END IF;
+	   PERFORM pg_notify('item_status', substr(TG_OP, 1, 1) || ',' || item.orderid || ',' ||
+	                     coalesce(rtrim(item.status), '') || ',' || rtrim(item.itemName));
+	   RETURN NULL;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS item_status_notify_trigger ON ItemStatus;
+CREATE TRIGGER item_status_notify_trigger AFTER INSERT OR UPDATE OF status OR DELETE
+ON ItemStatus FOR EACH ROW
+EXECUTE PROCEDURE item_status_notify_procedure();
+
+COMMIT;
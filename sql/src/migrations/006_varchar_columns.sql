@@ -0,0 +1,47 @@
+-- Store text columns without blank padding: every char(n) column becomes
+-- varchar(n), which rejects the same over-long values, and existing
+-- values lose their padding. Rows and indexes shrink and readers no longer
+-- strip the padding off every value.
+--
+-- Rewrites the tables and their indexes under an exclusive lock; run it
+-- while the cafe is closed. The login foreign key and the item status
+-- trigger are recreated since they depend on the altered columns.
+BEGIN;
+
+ALTER TABLE Orders DROP CONSTRAINT orders_login_fkey;
+DROP TRIGGER IF EXISTS item_status_notify_trigger ON ItemStatus;
+
+ALTER TABLE Users
+	ALTER COLUMN login TYPE varchar(50) USING rtrim(login),
+	ALTER COLUMN phoneNum TYPE varchar(16) USING rtrim(phoneNum),
+	ALTER COLUMN password TYPE varchar(50) USING rtrim(password),
+	ALTER COLUMN favItems TYPE varchar(400) USING rtrim(favItems),
+	ALTER COLUMN type TYPE varchar(8) USING rtrim(type);
+
+ALTER TABLE Menu
+	ALTER COLUMN itemName TYPE varchar(50) USING rtrim(itemName),
+	ALTER COLUMN type TYPE varchar(20) USING rtrim(type),
+	ALTER COLUMN description TYPE varchar(400) USING rtrim(description),
+	ALTER COLUMN imageURL TYPE varchar(256) USING rtrim(imageURL);
+
+ALTER TABLE Orders
+	ALTER COLUMN login TYPE varchar(50) USING rtrim(login);
+
+ALTER TABLE ItemStatus
+	ALTER COLUMN itemName TYPE varchar(50) USING rtrim(itemName),
+	ALTER COLUMN status TYPE varchar(20) USING rtrim(status),
+	ALTER COLUMN comments TYPE varchar(130) USING rtrim(comments);
+
+ALTER TABLE Orders ADD CONSTRAINT orders_login_fkey
+	FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE;
+
+CREATE TRIGGER item_status_notify_trigger AFTER INSERT OR UPDATE OF status OR DELETE
+ON ItemStatus FOR EACH ROW
+EXECUTE PROCEDURE item_status_notify_procedure();
+
+COMMIT;
+
+ANALYZE Users;
+ANALYZE Menu;
+ANALYZE Orders;
+ANALYZE ItemStatus;
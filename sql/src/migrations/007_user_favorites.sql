@@ -0,0 +1,30 @@
+-- Move the comma separated Users.favItems lists into UserFavorites, one
+-- row per user and item, indexed both ways so "favorites of a user" and
+-- "users who favor an item" are index lookups. Names are matched against
+-- the menu case-insensitively; entries that match no menu item are
+-- dropped. Same definitions as in create_tables.sql and
+-- create_indexes.sql.
+BEGIN;
+
+CREATE TABLE UserFavorites(
+	login varchar(50) NOT NULL,
+	itemName varchar(50) NOT NULL,
+	PRIMARY KEY(login, itemName),
+	FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE,
+	FOREIGN KEY(itemName) REFERENCES Menu(itemName) ON UPDATE CASCADE ON DELETE CASCADE);
+
+INSERT INTO UserFavorites (login, itemName)
+SELECT DISTINCT U.login, M.itemName
+FROM Users U
+CROSS JOIN LATERAL unnest(string_to_array(U.favItems, ',')) AS F(name)
+JOIN Menu M ON lower(M.itemName) = lower(trim(F.name));
+
+CREATE INDEX favorites_item_index
+ON UserFavorites
+(itemName, login);
+
+ALTER TABLE Users DROP COLUMN favItems;
+
+COMMIT;
+
+ANALYZE UserFavorites;
@@ -0,0 +1,100 @@
+-- Split Orders and ItemStatus into one partition per month of the order
+-- time. Items get a copy of their order's timeStampRecieved, which never
+-- changes, so an order and its items always sit in the same month and
+-- the primary keys, which have to include the partition key, still make
+-- (orderid, itemName) unique. Same definitions as in create_tables.sql,
+-- create_indexes.sql and triggers.sql.
+--
+-- Needs PostgreSQL 12 or later (foreign keys to partitioned tables).
+-- Copies both tables under an exclusive lock; run it while the cafe is
+-- closed.
+BEGIN;
+
+CREATE OR REPLACE FUNCTION create_month_partition(parent text, month date)
+   RETURNS text AS
+	$BODY$
+	DECLARE
+	   first date := date_trunc('month', month);
+	   name text := lower(parent) || '_' || to_char(first, 'YYYYMM');
+	BEGIN
+	   --Creates the partition of parent holding the given month, unless it exists
+	   IF to_regclass(name) IS NULL THEN
+	      EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+	                     name, lower(parent), first, first + interval '1 month');
+	   END IF;
+	   RETURN name;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+ALTER TABLE Orders RENAME TO OrdersUnpartitioned;
+ALTER TABLE ItemStatus RENAME TO ItemStatusUnpartitioned;
+ALTER INDEX orders_pkey RENAME TO orders_unpartitioned_pkey;
+ALTER INDEX itemstatus_pkey RENAME TO itemstatus_unpartitioned_pkey;
+DROP TRIGGER IF EXISTS item_status_notify_trigger ON ItemStatusUnpartitioned;
+
+CREATE TABLE Orders(
+	orderid integer NOT NULL DEFAULT nextval('orders_orderid_seq'),
+	login varchar(50),
+	paid boolean,
+	timeStampRecieved timestamp NOT NULL,
+	total real NOT NULL,
+	PRIMARY KEY(orderid, timeStampRecieved), FOREIGN KEY(login) REFERENCES Users(login) ON UPDATE CASCADE ON DELETE CASCADE)
+PARTITION BY RANGE (timeStampRecieved);
+ALTER SEQUENCE orders_orderid_seq OWNED BY Orders.orderid;
+
+CREATE TABLE ItemStatus(
+	orderid integer,
+	itemName varchar(50),
+	lastUpdated timestamp NOT NULL,
+	status varchar(20),
+	comments varchar(130),
+	unitPrice real NOT NULL,
+	timeStampRecieved timestamp NOT NULL,
+	PRIMARY KEY(orderid,itemName,timeStampRecieved),
+	FOREIGN KEY(orderid, timeStampRecieved) REFERENCES Orders(orderid, timeStampRecieved) ON DELETE CASCADE)
+PARTITION BY RANGE (timeStampRecieved);
+
+SELECT create_month_partition('Orders', m::date), create_month_partition('ItemStatus', m::date)
+FROM generate_series(date_trunc('month', LEAST((SELECT MIN(timeStampRecieved) FROM OrdersUnpartitioned), now())),
+                     now() + interval '2 months', interval '1 month') m;
+
+INSERT INTO Orders (orderid, login, paid, timeStampRecieved, total)
+SELECT orderid, login, paid, timeStampRecieved, total FROM OrdersUnpartitioned;
+
+INSERT INTO ItemStatus (orderid, itemName, lastUpdated, status, comments, unitPrice, timeStampRecieved)
+SELECT I.orderid, I.itemName, I.lastUpdated, I.status, I.comments, I.unitPrice, O.timeStampRecieved
+FROM ItemStatusUnpartitioned I JOIN OrdersUnpartitioned O ON O.orderid = I.orderid;
+
+DROP TABLE ItemStatusUnpartitioned;
+DROP TABLE OrdersUnpartitioned;
+
+CREATE INDEX timestamp_index
+ON orders
+(timeStampRecieved);
+
+CREATE INDEX orderid_index
+ON ItemStatus
+( orderid );
+
+CREATE INDEX login_history_index
+ON Orders
+(login, timeStampRecieved DESC, orderid DESC);
+
+CREATE INDEX unpaid_orders_index
+ON Orders
+(timeStampRecieved DESC, orderid DESC)
+WHERE NOT paid;
+
+CREATE INDEX status_updated_index
+ON ItemStatus
+(status, lastUpdated);
+
+CREATE TRIGGER item_status_notify_trigger AFTER INSERT OR UPDATE OF status OR DELETE
+ON ItemStatus FOR EACH ROW
+EXECUTE PROCEDURE item_status_notify_procedure();
+
+COMMIT;
+
+ANALYZE Orders;
+ANALYZE ItemStatus;
@@ -0,0 +1,20 @@
+-- Archive table for settled orders, filled by OrderArchiver. Same
+-- definitions as in create_tables.sql and create_indexes.sql.
+BEGIN;
+
+CREATE TABLE OrdersArchive(
+	orderid integer NOT NULL,
+	login varchar(50),
+	timeStampRecieved timestamp NOT NULL,
+	total real NOT NULL,
+	finishedAt timestamp,
+	itemNames varchar(50)[] NOT NULL,
+	unitPrices real[] NOT NULL,
+	comments varchar(130)[] NOT NULL,
+	PRIMARY KEY(orderid));
+
+CREATE INDEX archive_login_history_index
+ON OrdersArchive
+(login, timeStampRecieved DESC, orderid DESC);
+
+COMMIT;
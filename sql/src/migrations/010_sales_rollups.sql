@@ -0,0 +1,65 @@
+-- Sales rollups kept by Cafe, seeded from the live and the archived
+-- orders. Same definitions as in create_tables.sql.
+BEGIN;
+
+-- Sales per day orders were placed on, and per item sold on that day,
+-- kept up to date by the order methods of Cafe in the transaction of
+-- every change. prepSeconds sums, over the finished items, the time from
+-- the order to the item moving to Finished.
+CREATE TABLE DailySales(
+	day date NOT NULL,
+	orders integer NOT NULL DEFAULT 0,
+	itemsSold integer NOT NULL DEFAULT 0,
+	revenue numeric(12,2) NOT NULL DEFAULT 0,
+	paidOrders integer NOT NULL DEFAULT 0,
+	paidRevenue numeric(12,2) NOT NULL DEFAULT 0,
+	finished integer NOT NULL DEFAULT 0,
+	prepSeconds double precision NOT NULL DEFAULT 0,
+	PRIMARY KEY(day));
+
+CREATE TABLE ItemSales(
+	day date NOT NULL,
+	itemName varchar(50) NOT NULL,
+	sold integer NOT NULL DEFAULT 0,
+	revenue numeric(12,2) NOT NULL DEFAULT 0,
+	finished integer NOT NULL DEFAULT 0,
+	prepSeconds double precision NOT NULL DEFAULT 0,
+	PRIMARY KEY(day, itemName));
+
+CREATE OR REPLACE FUNCTION rebuild_sales()
+   RETURNS void AS
+	$BODY$
+	BEGIN
+	   --Recomputes the sales rollups from the live and the archived orders
+	   TRUNCATE DailySales, ItemSales;
+	   INSERT INTO ItemSales (day, itemName, sold, revenue, finished, prepSeconds)
+	   SELECT CAST(S.placed AS date), S.itemName, COUNT(*), SUM(CAST(S.unitPrice AS numeric)),
+	          COUNT(*) FILTER (WHERE S.done),
+	          COALESCE(SUM(EXTRACT(EPOCH FROM S.finishedAt - S.placed)) FILTER (WHERE S.done), 0)
+	   FROM (SELECT I.timeStampRecieved AS placed, I.itemName, I.unitPrice,
+	                I.status = 'Finished' AS done, I.lastUpdated AS finishedAt
+	         FROM ItemStatus I
+	         UNION ALL
+	         SELECT A.timeStampRecieved, U.itemName, U.unitPrice, true, A.finishedAt
+	         FROM OrdersArchive A, unnest(A.itemNames, A.unitPrices) AS U(itemName, unitPrice)) S
+	   GROUP BY 1, 2;
+	   INSERT INTO DailySales (day, orders, paidOrders, paidRevenue)
+	   SELECT CAST(S.placed AS date), COUNT(*), COUNT(*) FILTER (WHERE S.paid),
+	          COALESCE(SUM(ROUND(CAST(S.total AS numeric), 2)) FILTER (WHERE S.paid), 0)
+	   FROM (SELECT O.timeStampRecieved AS placed, O.paid, O.total FROM Orders O
+	         UNION ALL
+	         SELECT A.timeStampRecieved, true, A.total FROM OrdersArchive A) S
+	   GROUP BY 1;
+	   UPDATE DailySales D
+	   SET itemsSold = S.sold, revenue = S.revenue, finished = S.finished, prepSeconds = S.prepSeconds
+	   FROM (SELECT day, SUM(sold) AS sold, SUM(revenue) AS revenue, SUM(finished) AS finished,
+	                SUM(prepSeconds) AS prepSeconds
+	         FROM ItemSales GROUP BY day) S
+	   WHERE D.day = S.day;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT rebuild_sales();
+
+COMMIT;
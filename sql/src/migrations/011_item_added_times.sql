@@ -0,0 +1,60 @@
+-- Record when each item was added to its order, so prep times run from
+-- there to Finished instead of from the order time, and keep both times
+-- of every item in the archive. Existing items take their order time as
+-- the time they were added, and archived items the order's finish time
+-- as theirs; the rollups are then rebuilt with the new definition. Same
+-- definitions as in create_tables.sql.
+--
+-- Rewrites ItemStatus and OrdersArchive; run it while the cafe is closed.
+BEGIN;
+
+ALTER TABLE ItemStatus ADD COLUMN addedAt timestamp;
+UPDATE ItemStatus SET addedAt = timeStampRecieved;
+ALTER TABLE ItemStatus ALTER COLUMN addedAt SET NOT NULL;
+
+ALTER TABLE OrdersArchive ADD COLUMN addedAts timestamp[], ADD COLUMN finishedAts timestamp[];
+UPDATE OrdersArchive
+SET addedAts = array_fill(timeStampRecieved, ARRAY[cardinality(itemNames)]),
+    finishedAts = array_fill(finishedAt, ARRAY[cardinality(itemNames)]);
+ALTER TABLE OrdersArchive ALTER COLUMN addedAts SET NOT NULL, ALTER COLUMN finishedAts SET NOT NULL;
+
+CREATE OR REPLACE FUNCTION rebuild_sales()
+   RETURNS void AS
+	$BODY$
+	BEGIN
+	   --Recomputes the sales rollups from the live and the archived orders
+	   TRUNCATE DailySales, ItemSales;
+	   --Prep times count the items Finished now, from added to finished,
+	   --the same definition Cafe keeps the rollups up to date with
+	   INSERT INTO ItemSales (day, itemName, sold, revenue, finished, prepSeconds)
+	   SELECT CAST(S.placed AS date), S.itemName, COUNT(*), SUM(CAST(S.unitPrice AS numeric)),
+	          COUNT(*) FILTER (WHERE S.done),
+	          COALESCE(SUM(EXTRACT(EPOCH FROM S.finishedAt - S.addedAt)) FILTER (WHERE S.done), 0)
+	   FROM (SELECT I.timeStampRecieved AS placed, I.itemName, I.unitPrice,
+	                I.status = 'Finished' AS done, I.addedAt, I.lastUpdated AS finishedAt
+	         FROM ItemStatus I
+	         UNION ALL
+	         SELECT A.timeStampRecieved, U.itemName, U.unitPrice, true, U.addedAt, U.finishedAt
+	         FROM OrdersArchive A,
+	              unnest(A.itemNames, A.unitPrices, A.addedAts, A.finishedAts) AS U(itemName, unitPrice, addedAt, finishedAt)) S
+	   GROUP BY 1, 2;
+	   INSERT INTO DailySales (day, orders, paidOrders, paidRevenue)
+	   SELECT CAST(S.placed AS date), COUNT(*), COUNT(*) FILTER (WHERE S.paid),
+	          COALESCE(SUM(ROUND(CAST(S.total AS numeric), 2)) FILTER (WHERE S.paid), 0)
+	   FROM (SELECT O.timeStampRecieved AS placed, O.paid, O.total FROM Orders O
+	         UNION ALL
+	         SELECT A.timeStampRecieved, true, A.total FROM OrdersArchive A) S
+	   GROUP BY 1;
+	   UPDATE DailySales D
+	   SET itemsSold = S.sold, revenue = S.revenue, finished = S.finished, prepSeconds = S.prepSeconds
+	   FROM (SELECT day, SUM(sold) AS sold, SUM(revenue) AS revenue, SUM(finished) AS finished,
+	                SUM(prepSeconds) AS prepSeconds
+	         FROM ItemSales GROUP BY day) S
+	   WHERE D.day = S.day;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT rebuild_sales();
+
+COMMIT;
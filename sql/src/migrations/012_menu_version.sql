@@ -0,0 +1,26 @@
+-- Count the changes to Menu so MenuCache reloads its copy when another
+-- process changed the menu. Same definitions as in create_tables.sql and
+-- triggers.sql.
+BEGIN;
+
+CREATE TABLE MenuVersion(
+	version bigint NOT NULL);
+INSERT INTO MenuVersion VALUES (0);
+
+CREATE OR REPLACE FUNCTION menu_version_procedure()
+   RETURNS "trigger" AS
+	$BODY$
+	BEGIN
+	   --Bumps the menu version so cached copies of the menu are reloaded
+	   UPDATE MenuVersion SET version = version + 1;
+	   RETURN NULL;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+DROP TRIGGER IF EXISTS menu_version_trigger ON Menu;
+CREATE TRIGGER menu_version_trigger AFTER INSERT OR UPDATE OR DELETE
+ON Menu FOR EACH STATEMENT
+EXECUTE PROCEDURE menu_version_procedure();
+
+COMMIT;
@@ -0,0 +1,63 @@
+-- Split every day of the sales rollups over 16 shards by order id, so
+-- the orders of one day stop queuing on the lock of a single DailySales
+-- row (and the orders of a popular item on a single ItemSales row), and
+-- rebuild them into the shards. Same definitions as in create_tables.sql.
+--
+-- Locks and rewrites DailySales and ItemSales; run it while the cafe is
+-- closed.
+BEGIN;
+
+-- The shard of DailySales and ItemSales the sales of an order add to.
+-- Cafe and rebuild_sales() both use it, so they always agree.
+CREATE OR REPLACE FUNCTION sales_shard(orderid integer)
+   RETURNS smallint AS
+	$BODY$
+	   SELECT CAST($1 % 16 AS smallint);
+	$BODY$
+LANGUAGE sql IMMUTABLE;
+
+ALTER TABLE DailySales ADD COLUMN shard smallint NOT NULL DEFAULT 0;
+ALTER TABLE DailySales DROP CONSTRAINT dailysales_pkey, ADD PRIMARY KEY(day, shard);
+ALTER TABLE ItemSales ADD COLUMN shard smallint NOT NULL DEFAULT 0;
+ALTER TABLE ItemSales DROP CONSTRAINT itemsales_pkey, ADD PRIMARY KEY(day, itemName, shard);
+
+CREATE OR REPLACE FUNCTION rebuild_sales()
+   RETURNS void AS
+	$BODY$
+	BEGIN
+	   --Recomputes the sales rollups from the live and the archived orders
+	   TRUNCATE DailySales, ItemSales;
+	   --Prep times count the items Finished now, from added to finished,
+	   --the same definition Cafe keeps the rollups up to date with
+	   INSERT INTO ItemSales (day, itemName, shard, sold, revenue, finished, prepSeconds)
+	   SELECT CAST(S.placed AS date), S.itemName, sales_shard(S.orderid), COUNT(*), SUM(CAST(S.unitPrice AS numeric)),
+	          COUNT(*) FILTER (WHERE S.done),
+	          COALESCE(SUM(EXTRACT(EPOCH FROM S.finishedAt - S.addedAt)) FILTER (WHERE S.done), 0)
+	   FROM (SELECT I.orderid, I.timeStampRecieved AS placed, I.itemName, I.unitPrice,
+	                I.status = 'Finished' AS done, I.addedAt, I.lastUpdated AS finishedAt
+	         FROM ItemStatus I
+	         UNION ALL
+	         SELECT A.orderid, A.timeStampRecieved, U.itemName, U.unitPrice, true, U.addedAt, U.finishedAt
+	         FROM OrdersArchive A,
+	              unnest(A.itemNames, A.unitPrices, A.addedAts, A.finishedAts) AS U(itemName, unitPrice, addedAt, finishedAt)) S
+	   GROUP BY 1, 2, 3;
+	   INSERT INTO DailySales (day, shard, orders, paidOrders, paidRevenue)
+	   SELECT CAST(S.placed AS date), sales_shard(S.orderid), COUNT(*), COUNT(*) FILTER (WHERE S.paid),
+	          COALESCE(SUM(ROUND(CAST(S.total AS numeric), 2)) FILTER (WHERE S.paid), 0)
+	   FROM (SELECT O.orderid, O.timeStampRecieved AS placed, O.paid, O.total FROM Orders O
+	         UNION ALL
+	         SELECT A.orderid, A.timeStampRecieved, true, A.total FROM OrdersArchive A) S
+	   GROUP BY 1, 2;
+	   UPDATE DailySales D
+	   SET itemsSold = S.sold, revenue = S.revenue, finished = S.finished, prepSeconds = S.prepSeconds
+	   FROM (SELECT day, shard, SUM(sold) AS sold, SUM(revenue) AS revenue, SUM(finished) AS finished,
+	                SUM(prepSeconds) AS prepSeconds
+	         FROM ItemSales GROUP BY day, shard) S
+	   WHERE D.day = S.day AND D.shard = S.shard;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+SELECT rebuild_sales();
+
+COMMIT;
@@ -58,6 +58,24 @@ ON Menu FOR EACH ROW
 EXECUTE PROCEDURE menu_check_procedure();
 
 
+CREATE OR REPLACE FUNCTION menu_version_procedure()
+   RETURNS "trigger" AS
+	$BODY$
+	BEGIN
+	   --Bumps the menu version so cached copies of the menu are reloaded
+	   UPDATE MenuVersion SET version = version + 1;
+	   RETURN NULL;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+
+DROP TRIGGER IF EXISTS menu_version_trigger ON Menu;
+CREATE TRIGGER menu_version_trigger AFTER INSERT OR UPDATE OR DELETE
+ON Menu FOR EACH STATEMENT
+EXECUTE PROCEDURE menu_version_procedure();
+
+
 CREATE OR REPLACE FUNCTION users_check_procedure()
     RETURNS "trigger" AS
 	$BODY$
@@ -90,11 +108,6 @@ CREATE OR REPLACE FUNCTION users_check_procedure()
                 RAISE EXCEPTION 'Password must be less than 50 characters';
            END IF;
 
-	   --Checks favItems constraints
-           IF LENGTH(NEW.favItems) > 400 THEN
-                RAISE EXCEPTION 'List of favorite items must be less than 50 characters';
-           END IF;
-
 	   --Checks type constraints
 	   IF type != 'Manager' OR type != 'Employee' OR type != 'Customer' THEN
 		RAISE EXCEPTION 'Type must be Manager, Employee, or Customer';
@@ -110,3 +123,29 @@ DROP TRIGGER IF EXISTS users_check_trigger ON Users;
 CREATE TRIGGER users_check_trigger BEFORE INSERT
 ON Users FOR EACH ROW
 EXECUTE PROCEDURE users_check_procedure();                                           
+
+
+CREATE OR REPLACE FUNCTION item_status_notify_procedure()
+   RETURNS "trigger" AS
+	$BODY$
+	DECLARE
+	   item ItemStatus%ROWTYPE;
+	BEGIN
+	   --Tells listening screens which item changed: <op>,<orderid>,<status>,<itemName>
+	   IF TG_OP = 'DELETE' THEN
+	      item := OLD;
+	   ELSE
+	      item := NEW;
+	   END IF;
+	   PERFORM pg_notify('item_status', substr(TG_OP, 1, 1) || ',' || item.orderid || ',' ||
+	                     coalesce(item.status, '') || ',' || item.itemName);
+	   RETURN NULL;
+	END;
+	$BODY$
+LANGUAGE plpgsql VOLATILE;
+
+
+DROP TRIGGER IF EXISTS item_status_notify_trigger ON ItemStatus;
+CREATE TRIGGER item_status_notify_trigger AFTER INSERT OR UPDATE OF status OR DELETE
+ON ItemStatus FOR EACH ROW
+EXECUTE PROCEDURE item_status_notify_procedure();